@@ -0,0 +1,146 @@
+/*
+ *  Copyright 2009, Mahmood Ali.
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions are
+ *  met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ *      copyright notice, this list of conditions and the following disclaimer
+ *      in the documentation and/or other materials provided with the
+ *      distribution.
+ *    * Neither the name of Mahmood Ali. nor the names of its
+ *      contributors may be used to endorse or promote products derived from
+ *      this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ *  A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ *  OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ *  SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ *  LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ *  OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.notnoop.apns.benchmarks;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.notnoop.apns.APNS;
+import com.notnoop.apns.PayloadBuilder;
+import com.notnoop.apns.PayloadTemplate;
+import com.notnoop.apns.internal.Utilities;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the payload serializer with the Jackson based serialization it
+ * replaced.  The Jackson benchmark encodes the same maps PayloadBuilder
+ * used to build, and converts the String to UTF-8 as buildBytes() did.
+ *
+ * The shrinkBody benchmark truncates an alert twice the maximum payload
+ * length; it includes copying the builder, as shrinking modifies it.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PayloadSerializationBenchmark {
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    private PayloadBuilder builder;
+    private Map<String, Object> root;
+    private PayloadTemplate template;
+    private PayloadBuilder oversized;
+
+    @Setup
+    public void setUp() {
+        builder = APNS.newPayload()
+                .alertBody("Jenna has invited you to a game of chess")
+                .localizedArguments("Jenna", "chess")
+                .actionKey("Play")
+                .badge(3)
+                .sound("default")
+                .customField("game", "chess-1234");
+
+        final Map<String, Object> aps = new HashMap<String, Object>();
+        final Map<String, Object> alert = new HashMap<String, Object>();
+        alert.put("body", "Jenna has invited you to a game of chess");
+        alert.put("loc-args", Arrays.asList("Jenna", "chess"));
+        alert.put("action-loc-key", "Play");
+        aps.put("alert", alert);
+        aps.put("badge", 3);
+        aps.put("sound", "default");
+        root = new HashMap<String, Object>();
+        root.put("aps", aps);
+        root.put("game", "chess-1234");
+
+        template = APNS.newPayload()
+                .alertBody("${name} has invited you to a game of ${game}")
+                .localizedArguments("Jenna", "chess")
+                .actionKey("Play")
+                .badge(3)
+                .sound("default")
+                .customField("game", "#{id}")
+                .toTemplate();
+
+        final StringBuilder body = new StringBuilder(2 * Utilities.MAX_PAYLOAD_LENGTH);
+        while (body.length() < 2 * Utilities.MAX_PAYLOAD_LENGTH) {
+            body.append("Jenna has invited you to a game of chess. ");
+        }
+        oversized = APNS.newPayload()
+                .alertBody(body.toString())
+                .badge(3)
+                .sound("default");
+    }
+
+    @Benchmark
+    public byte[] jackson() throws Exception {
+        return mapper.writeValueAsString(root).getBytes("UTF-8");
+    }
+
+    @Benchmark
+    public byte[] buildBytes() {
+        return builder.buildBytes();
+    }
+
+    @Benchmark
+    public String build() {
+        return builder.build();
+    }
+
+    @Benchmark
+    public int length() {
+        return builder.length();
+    }
+
+    @Benchmark
+    public PayloadBuilder shrinkBody() {
+        return oversized.copy().shrinkBody("...");
+    }
+
+    @Benchmark
+    public byte[] template() {
+        return template.render("Jenna", "chess", 1234);
+    }
+}
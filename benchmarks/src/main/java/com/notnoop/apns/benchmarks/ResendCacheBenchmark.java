@@ -0,0 +1,216 @@
+/*
+ *  Copyright 2009, Mahmood Ali.
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions are
+ *  met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ *      copyright notice, this list of conditions and the following disclaimer
+ *      in the documentation and/or other materials provided with the
+ *      distribution.
+ *    * Neither the name of Mahmood Ali. nor the names of its
+ *      contributors may be used to endorse or promote products derived from
+ *      this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ *  A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ *  OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ *  SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ *  LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ *  OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.notnoop.apns.benchmarks;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.SocketFactory;
+
+import com.notnoop.apns.APNS;
+import com.notnoop.apns.ApnsDelegateAdapter;
+import com.notnoop.apns.ApnsNotification;
+import com.notnoop.apns.EnhancedApnsNotification;
+import com.notnoop.apns.internal.ApnsConnectionImpl;
+import com.notnoop.apns.internal.ReconnectPolicies;
+import com.notnoop.apns.internal.Utilities;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the resend cache of ApnsConnectionImpl over in-memory sockets.
+ *
+ * {@code send} is the steady state of a full cache, where every send caches
+ * the notification and evicts the oldest one.  {@code rejectAndResend}
+ * sends {@code cacheLength} notifications, rejects the first one, and
+ * sends once more, which resends the other {@code cacheLength - 1}; it
+ * includes reconnecting and starting the monitoring thread.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ResendCacheBenchmark {
+    @Param({"100", "1000"})
+    public int cacheLength;
+
+    private final Semaphore resent = new Semaphore(0);
+    private LoopbackSocketFactory factory;
+    private ApnsConnectionImpl connection;
+    private ApnsNotification[] notifications;
+
+    @Setup
+    public void setUp() {
+        byte[] token = Utilities.decodeHex("740f4707bebcf74f9b7c25d48e3358945f6aa01da5ddb387462c7eaf61bb78ad");
+        byte[] payload = APNS.newPayload().alertBody("Hello").buildBytes();
+        notifications = new ApnsNotification[cacheLength + 1];
+        for (int i = 0; i < notifications.length; i++) {
+            notifications[i] = new EnhancedApnsNotification(i + 1, EnhancedApnsNotification.MAXIMUM_EXPIRY, token, payload);
+        }
+        factory = new LoopbackSocketFactory();
+        connection = new ApnsConnectionImpl(factory, "localhost", 2195, null, null, null,
+                new ReconnectPolicies.Never(), new ApnsDelegateAdapter() {
+                    @Override
+                    public void notificationsResent(int resendCount) {
+                        resent.release();
+                    }
+                }, true, null, cacheLength, false, 0, 0);
+    }
+
+    @TearDown
+    public void tearDown() {
+        connection.close();
+    }
+
+    @Benchmark
+    public void send() {
+        connection.sendMessage(notifications[0]);
+    }
+
+    @Benchmark
+    public void rejectAndResend() throws Exception {
+        for (int i = 0; i < cacheLength; i++) {
+            connection.sendMessage(notifications[i]);
+        }
+        factory.last.reject(notifications[0].getIdentifier());
+        resent.acquire();
+        connection.sendMessage(notifications[cacheLength]);
+    }
+
+    static final class LoopbackSocketFactory extends SocketFactory {
+        volatile LoopbackSocket last;
+
+        @Override
+        public Socket createSocket() throws IOException {
+            last = new LoopbackSocket();
+            return last;
+        }
+
+        @Override
+        public Socket createSocket(String host, int port) throws IOException {
+            return createSocket();
+        }
+
+        @Override
+        public Socket createSocket(String host, int port, InetAddress localHost, int localPort) throws IOException {
+            return createSocket();
+        }
+
+        @Override
+        public Socket createSocket(InetAddress host, int port) throws IOException {
+            return createSocket();
+        }
+
+        @Override
+        public Socket createSocket(InetAddress address, int port, InetAddress localAddress, int localPort) throws IOException {
+            return createSocket();
+        }
+    }
+
+    /**
+     * A socket discarding what is written, whose input carries the error
+     * responses passed to {@link #reject(int)}.
+     */
+    static final class LoopbackSocket extends Socket {
+        private final PipedInputStream in = new PipedInputStream();
+        private final PipedOutputStream responses;
+        private final OutputStream out = new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+            }
+        };
+        private volatile boolean closed;
+
+        LoopbackSocket() throws IOException {
+            responses = new PipedOutputStream(in);
+        }
+
+        void reject(int identifier) throws IOException {
+            responses.write(new byte[] { 8, 8, (byte) (identifier >>> 24), (byte) (identifier >>> 16),
+                    (byte) (identifier >>> 8), (byte) identifier });
+            responses.flush();
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return in;
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            return out;
+        }
+
+        @Override
+        public void setSoTimeout(int timeout) {
+        }
+
+        @Override
+        public void setKeepAlive(boolean on) {
+        }
+
+        @Override
+        public boolean isClosed() {
+            return closed;
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            closed = true;
+            // Closing the writing end wakes up the monitoring thread
+            responses.close();
+            in.close();
+        }
+    }
+}
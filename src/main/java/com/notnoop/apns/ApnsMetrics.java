@@ -0,0 +1,223 @@
+/*
+ *  Copyright 2009, Mahmood Ali.
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions are
+ *  met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ *      copyright notice, this list of conditions and the following disclaimer
+ *      in the documentation and/or other materials provided with the
+ *      distribution.
+ *    * Neither the name of Mahmood Ali. nor the names of its
+ *      contributors may be used to endorse or promote products derived from
+ *      this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ *  A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ *  OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ *  SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ *  LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ *  OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.notnoop.apns;
+
+import java.util.concurrent.TimeUnit;
+
+import com.notnoop.apns.internal.StripedCounter;
+
+/**
+ * Counts what a service and its connections do, for monitoring.
+ *
+ * Pass an instance to {@link ApnsServiceBuilder#withMetrics(ApnsMetrics)}
+ * to have the service update it.  The recording methods are called by the
+ * library; applications only read the values, or have them exposed over
+ * JMX with {@link ApnsServiceBuilder#withMetrics(ApnsMetrics, String)}.
+ *
+ * Counting is cheap and doesn't contend between sending threads.  The
+ * latencies of the stages notifications pass through are recorded in a
+ * {@link LatencyHistogram} per {@link Stage}.
+ */
+public final class ApnsMetrics implements ApnsMetricsMBean {
+
+    /**
+     * The stages of sending a notification whose latency is recorded.
+     */
+    public enum Stage {
+        /** Time spent waiting in the queue of a queued service */
+        QUEUE,
+        /** Time spent waiting for a connection of a pool */
+        DISPATCH,
+        /** Time to write a notification to the socket */
+        WRITE,
+        /** Time from writing a notification to Apple rejecting it */
+        ERROR_RESPONSE,
+        /** Time from connecting to Apple to completing the TLS handshake */
+        HANDSHAKE
+    }
+
+    private final StripedCounter sent = new StripedCounter();
+    private final StripedCounter resent = new StripedCounter();
+    private final StripedCounter failed = new StripedCounter();
+    private final StripedCounter[] errorResponses = new StripedCounter[DeliveryError.values().length];
+    private final StripedCounter retries = new StripedCounter();
+    private final StripedCounter duplicates = new StripedCounter();
+    private final StripedCounter reconnects = new StripedCounter();
+    private final StripedCounter rejectedLocally = new StripedCounter();
+    private final StripedCounter cached = new StripedCounter();
+    private final StripedCounter queued = new StripedCounter();
+    private final StripedCounter batched = new StripedCounter();
+    private final StripedCounter pooled = new StripedCounter();
+    private final StripedCounter writes = new StripedCounter();
+    private final StripedCounter writeNanos = new StripedCounter();
+    private final LatencyHistogram[] latencies = new LatencyHistogram[Stage.values().length];
+
+    public ApnsMetrics() {
+        for (int i = 0; i < errorResponses.length; i++) {
+            errorResponses[i] = new StripedCounter();
+        }
+        for (int i = 0; i < latencies.length; i++) {
+            latencies[i] = new LatencyHistogram();
+        }
+    }
+
+    public void sent(boolean resent) {
+        (resent ? this.resent : sent).increment();
+    }
+
+    public void failed() {
+        failed.increment();
+    }
+
+    public void errorResponse(DeliveryError error) {
+        errorResponses[error.ordinal()].increment();
+    }
+
+    public void retried() {
+        retries.increment();
+    }
+
+    public void duplicateSuppressed() {
+        duplicates.increment();
+    }
+
+    public void reconnected() {
+        reconnects.increment();
+    }
+
+    public void rejectedLocally() {
+        rejectedLocally.increment();
+    }
+
+    public void cached(int delta) {
+        cached.add(delta);
+    }
+
+    public void queued(int delta) {
+        queued.add(delta);
+    }
+
+    public void batched(int delta) {
+        batched.add(delta);
+    }
+
+    public void pooled(int delta) {
+        pooled.add(delta);
+    }
+
+    public void written(long nanos) {
+        writes.increment();
+        writeNanos.add(nanos);
+        latencies[Stage.WRITE.ordinal()].record(nanos);
+    }
+
+    public void latency(Stage stage, long nanos) {
+        latencies[stage.ordinal()].record(nanos);
+    }
+
+    /**
+     * Returns the histogram of the latencies of the given stage.
+     */
+    public LatencyHistogram getLatency(Stage stage) {
+        return latencies[stage.ordinal()];
+    }
+
+    public long getSent() {
+        return sent.sum();
+    }
+
+    public long getResent() {
+        return resent.sum();
+    }
+
+    public long getFailed() {
+        return failed.sum();
+    }
+
+    public long getErrorResponses() {
+        long sum = 0;
+        for (StripedCounter counter : errorResponses) {
+            sum += counter.sum();
+        }
+        return sum;
+    }
+
+    /**
+     * Returns the number of error responses reporting the given error.
+     */
+    public long getErrorResponses(DeliveryError error) {
+        return errorResponses[error.ordinal()].sum();
+    }
+
+    public long getRetries() {
+        return retries.sum();
+    }
+
+    public long getDuplicatesSuppressed() {
+        return duplicates.sum();
+    }
+
+    public long getReconnects() {
+        return reconnects.sum();
+    }
+
+    public long getRejectedLocally() {
+        return rejectedLocally.sum();
+    }
+
+    public long getCachedNotifications() {
+        return cached.sum();
+    }
+
+    public long getQueuedNotifications() {
+        return queued.sum();
+    }
+
+    public long getBatchedNotifications() {
+        return batched.sum();
+    }
+
+    public long getPooledTasks() {
+        return pooled.sum();
+    }
+
+    public double getAverageWriteMicros() {
+        long count = writes.sum();
+        return count == 0 ? 0 : (double) writeNanos.sum() / count / TimeUnit.MICROSECONDS.toNanos(1);
+    }
+
+    @Override
+    public String toString() {
+        return "ApnsMetrics[sent=" + getSent() + ", resent=" + getResent() + ", failed=" + getFailed()
+                + ", errorResponses=" + getErrorResponses() + ", cached=" + getCachedNotifications()
+                + ", queued=" + getQueuedNotifications() + "]";
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ *  Copyright 2009, Mahmood Ali.
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions are
+ *  met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ *      copyright notice, this list of conditions and the following disclaimer
+ *      in the documentation and/or other materials provided with the
+ *      distribution.
+ *    * Neither the name of Mahmood Ali. nor the names of its
+ *      contributors may be used to endorse or promote products derived from
+ *      this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ *  A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ *  OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ *  SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ *  LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ *  OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.notnoop.apns;
+
+/**
+ * Management interface of the {@link ApnsMetrics} of a service.
+ *
+ * Counters are totals since the metrics were created; the number of
+ * cached, queued, batched and pooled notifications are current values.
+ */
+public interface ApnsMetricsMBean {
+
+    /** Notifications written to Apple, not counting resends */
+    long getSent();
+
+    /** Notifications written again after an error response */
+    long getResent();
+
+    /** Notifications reported to the delegate as failed */
+    long getFailed();
+
+    /** Error responses received from Apple */
+    long getErrorResponses();
+
+    /** Rejected notifications resent by the retry policy */
+    long getRetries();
+
+    /** Duplicate resends suppressed */
+    long getDuplicatesSuppressed();
+
+    /** Connections made to Apple */
+    long getReconnects();
+
+    /** Notifications rejected by the client-side validation */
+    long getRejectedLocally();
+
+    /** Notifications held in the resend caches of the connections */
+    long getCachedNotifications();
+
+    /** Notifications waiting in the queue of a queued service */
+    long getQueuedNotifications();
+
+    /** Notifications waiting for the next batch of a batched service */
+    long getBatchedNotifications();
+
+    /** Sends submitted to a connection pool and not completed yet */
+    long getPooledTasks();
+
+    /** Average time to write a notification to the socket, in microseconds */
+    double getAverageWriteMicros();
+}
@@ -32,6 +32,7 @@ package com.notnoop.apns;
 
 import java.util.Collection;
 import java.util.Date;
+import java.util.Iterator;
 import java.util.Map;
 
 import com.notnoop.exceptions.NetworkIOException;
@@ -84,6 +85,23 @@ public interface ApnsService {
 
     EnhancedApnsNotification push(byte[] deviceToken, byte[] payload, int expiry) throws NetworkIOException;
 
+    /**
+     * Sends a push notification with the provided {@code payload} to the
+     * iPhone of {@code deviceToken}.
+     *
+     * The payload needs to be a valid JSON object, otherwise it may fail
+     * silently.  It is recommended to use {@link PayloadBuilder} to create
+     * one.
+     *
+     * @param deviceToken   the destination iPhone device token
+     * @param payload       The payload message
+     * @throws NetworkIOException if a network error occurred while
+     *      attempting to send the message
+     */
+    EnhancedApnsNotification push(DeviceToken deviceToken, byte[] payload) throws NetworkIOException;
+
+    EnhancedApnsNotification push(DeviceToken deviceToken, byte[] payload, int expiry) throws NetworkIOException;
+
     /**
      * Sends a bulk push notification with the provided
      * {@code payload} to iPhone of {@code deviceToken}s set.
@@ -116,6 +134,61 @@ public interface ApnsService {
     Collection<? extends ApnsNotification> push(Collection<byte[]> deviceTokens, byte[] payload) throws NetworkIOException;
     Collection<? extends EnhancedApnsNotification> push(Collection<byte[]> deviceTokens, byte[] payload, int expiry) throws NetworkIOException;
 
+    /**
+     * Sends a bulk push notification with the provided
+     * {@code payload} to the devices returned by the {@code deviceTokens}
+     * iterator.
+     *
+     * Unlike the {@code Collection} variants, the tokens are consumed and
+     * sent one at a time and the notifications aren't retained, so memory
+     * use doesn't grow with the number of devices.  The outcome of each
+     * notification is reported to the {@link ApnsDelegate}.
+     *
+     * @param deviceTokens  the destination iPhone device tokens, as Hex
+     * @param payload       The payload message
+     * @return a summary of the notifications pushed
+     * @throws NetworkIOException if a network error occurred while
+     *      attempting to send a message
+     */
+    BulkPushSummary push(Iterator<String> deviceTokens, String payload) throws NetworkIOException;
+    BulkPushSummary push(Iterator<String> deviceTokens, String payload, Date expiry) throws NetworkIOException;
+
+    /**
+     * Sends a bulk push notification with the provided
+     * {@code payload} to the devices returned by the {@code deviceTokens}
+     * iterator.
+     *
+     * Unlike the {@code Collection} variants, the tokens are consumed and
+     * sent one at a time and the notifications aren't retained, so memory
+     * use doesn't grow with the number of devices.  The outcome of each
+     * notification is reported to the {@link ApnsDelegate}.
+     *
+     * @param deviceTokens  the destination iPhone device tokens
+     * @param payload       The payload message
+     * @return a summary of the notifications pushed
+     * @throws NetworkIOException if a network error occurred while
+     *      attempting to send a message
+     */
+    BulkPushSummary push(Iterator<byte[]> deviceTokens, byte[] payload) throws NetworkIOException;
+    BulkPushSummary push(Iterator<byte[]> deviceTokens, byte[] payload, int expiry) throws NetworkIOException;
+
+    /**
+     * Sends a bulk push notification with the provided
+     * {@code payload} to the packed {@code deviceTokens}.
+     *
+     * The tokens are read from the packed buffer as they are sent, and
+     * the notifications aren't retained, as with the {@code Iterator}
+     * variants.
+     *
+     * @param deviceTokens  the destination iPhone device tokens
+     * @param payload       The payload message
+     * @return a summary of the notifications pushed
+     * @throws NetworkIOException if a network error occurred while
+     *      attempting to send a message
+     */
+    BulkPushSummary push(PackedDeviceTokens deviceTokens, byte[] payload) throws NetworkIOException;
+    BulkPushSummary push(PackedDeviceTokens deviceTokens, byte[] payload, int expiry) throws NetworkIOException;
+
     /**
      * Sends the provided notification {@code message} to the desired
      * destination.
@@ -160,6 +233,24 @@ public interface ApnsService {
      */
     Map<String, Date> getInactiveDevices() throws NetworkIOException;
 
+    /**
+     * Streams the devices that reported failed-delivery attempts to the
+     * Apple Feedback services to the provided {@code listener}.
+     *
+     * The records are handed to the listener in batches of at most
+     * {@code batchSize} as they are read from the feedback connection,
+     * rather than being collected into a map first, so memory use stays
+     * bounded by the batch size regardless of the number of inactive
+     * devices.
+     *
+     * @param listener  the listener receiving the inactive devices
+     * @param batchSize the maximum number of records per batch
+     * @return the number of inactive devices reported to the listener
+     * @throws NetworkIOException if a network error occurred
+     *      while retrieving invalid device connection
+     */
+    int getInactiveDevices(InactiveDeviceListener listener, int batchSize) throws NetworkIOException;
+
     /**
      * Test that the service is setup properly and the Apple servers
      * are reachable.
@@ -35,15 +35,25 @@ import com.notnoop.apns.internal.ApnsConnectionImpl;
 import com.notnoop.apns.internal.ApnsFeedbackConnection;
 import com.notnoop.apns.internal.ApnsPooledConnection;
 import com.notnoop.apns.internal.ApnsServiceImpl;
+import com.notnoop.apns.internal.AsyncApnsDelegate;
 import com.notnoop.apns.internal.BatchApnsService;
+import com.notnoop.apns.internal.InFlightWindow;
+import com.notnoop.apns.internal.InvalidTokenDelegate;
+import com.notnoop.apns.internal.InvalidTokenFilteringApnsService;
+import com.notnoop.apns.internal.MBeanRegistration;
+import com.notnoop.apns.internal.PrometheusExporter;
 import com.notnoop.apns.internal.QueuedApnsService;
+import com.notnoop.apns.internal.ResourceClosingApnsService;
+import com.notnoop.apns.internal.ValidatingApnsService;
 import com.notnoop.apns.internal.SSLContextBuilder;
 import com.notnoop.apns.internal.Utilities;
 import com.notnoop.exceptions.InvalidSSLConfig;
 import com.notnoop.exceptions.RuntimeIOException;
 
+import javax.management.ObjectName;
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLSocketFactory;
+import java.io.Closeable;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.InputStream;
@@ -51,6 +61,8 @@ import java.net.InetSocketAddress;
 import java.net.Proxy;
 import java.net.Socket;
 import java.security.KeyStore;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
@@ -104,6 +116,9 @@ public class ApnsServiceBuilder {
     private ExecutorService executor;
 
     private ReconnectPolicy reconnectPolicy = ReconnectPolicy.Provided.EVERY_HALF_HOUR.newObject();
+    private RetryPolicy retryPolicy = RetryPolicy.Provided.NEVER.newObject();
+    private int inFlightWindow;
+    private int inFlightHorizon;
     private boolean isQueued;
     private ThreadFactory queueThreadFactory;
     
@@ -113,12 +128,22 @@ public class ApnsServiceBuilder {
     private ScheduledExecutorService batchThreadPoolExecutor;
     
     private ApnsDelegate delegate = ApnsDelegate.EMPTY;
+    private int asyncDelegateCapacity;
+    private ThreadFactory asyncDelegateThreadFactory;
     private Proxy proxy;
     private String proxyUsername;
     private String proxyPassword;
     private boolean errorDetection = true;
     private ThreadFactory errorDetectionThreadFactory;
 
+    private InvalidTokenIndex invalidTokenIndex;
+    private int feedbackPollPeriodInSec;
+    private ScheduledExecutorService feedbackPollExecutor;
+    private NotificationValidator validator;
+    private ApnsMetrics metrics;
+    private String metricsName;
+    private InetSocketAddress prometheusAddress;
+
     /**
      * Constructs a new instance of {@code ApnsServiceBuilder}
      */
@@ -520,6 +545,31 @@ public class ApnsServiceBuilder {
         return this;
     }
 
+    /**
+     * Limits the number of notifications in flight, i.e. sent less than
+     * {@code horizonMillis} ago, to {@code window}.  Pushes block while
+     * the window is full.
+     *
+     * Apple reports an error for a notification within a short time after
+     * it is sent.  Keeping the window within the cache length guarantees
+     * that the notifications following a rejected one are still cached
+     * and get resent, instead of being lost.
+     *
+     * Note: This option has no effect when error detection is disabled.
+     *
+     * @param window  maximum number of notifications in flight, at most the cache length
+     * @param horizonMillis  time after which a sent notification is considered accepted
+     * @return  this
+     */
+    public ApnsServiceBuilder withInFlightWindow(int window, int horizonMillis) {
+        if (window < 1 || horizonMillis < 0) {
+            throw new IllegalArgumentException("window must be positive and horizonMillis must not be negative");
+        }
+        this.inFlightWindow = window;
+        this.inFlightHorizon = horizonMillis;
+        return this;
+    }
+
     /**
      * Specify the socket to be used as underlying socket to connect
      * to the APN service.
@@ -681,6 +731,40 @@ public class ApnsServiceBuilder {
         return this;
     }
 
+    /**
+     * Notifies the delegate on a separate thread, instead of on the
+     * thread sending the notifications.
+     *
+     * Callbacks are queued, so that a slow delegate only holds up sending
+     * once {@code capacity} callbacks are waiting.  A
+     * {@link BatchApnsDelegate} is notified of consecutive sent
+     * notifications in one call.
+     *
+     * @param capacity  the number of callbacks that may be waiting
+     * @return  this
+     */
+    public ApnsServiceBuilder withAsyncDelegate(int capacity) {
+        return withAsyncDelegate(capacity, null);
+    }
+
+    /**
+     * Notifies the delegate on a separate thread, obtained from the given
+     * thread factory.
+     *
+     * @param capacity  the number of callbacks that may be waiting
+     * @param threadFactory  thread factory to use for notifying the delegate
+     * @return  this
+     * @see #withAsyncDelegate(int)
+     */
+    public ApnsServiceBuilder withAsyncDelegate(int capacity, ThreadFactory threadFactory) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        this.asyncDelegateCapacity = capacity;
+        this.asyncDelegateThreadFactory = threadFactory;
+        return this;
+    }
+
     /**
      * Disables the enhanced error detection, enabled by the
      * enhanced push notification interface.  Error detection is
@@ -696,6 +780,61 @@ public class ApnsServiceBuilder {
         return this;
     }
 
+    /**
+     * Counts the activity of the service and its connections in the given
+     * metrics.
+     *
+     * @param metrics  the metrics to update
+     * @return  this
+     */
+    public ApnsServiceBuilder withMetrics(ApnsMetrics metrics) {
+        return withMetrics(metrics, null);
+    }
+
+    /**
+     * Counts the activity of the service and its connections in the given
+     * metrics, and registers them as an MBean named
+     * {@code com.notnoop.apns:type=ApnsService,name=<name>}.  The MBean is
+     * unregistered when the service is stopped.
+     *
+     * @param metrics  the metrics to update
+     * @param name  the name of the MBean, unique among the services
+     * @return  this
+     */
+    public ApnsServiceBuilder withMetrics(ApnsMetrics metrics, String name) {
+        this.metrics = metrics;
+        this.metricsName = name;
+        return this;
+    }
+
+    /**
+     * Serves the metrics of the service in the Prometheus text format at
+     * {@code http://<host>:<port>/metrics}.  The endpoint is closed when the
+     * service is stopped.
+     *
+     * The metrics given to {@link #withMetrics(ApnsMetrics)} are exported;
+     * without them, the service counts its activity in metrics of its own.
+     *
+     * @param port  the port to listen on, on all the interfaces
+     * @return  this
+     */
+    public ApnsServiceBuilder withPrometheusEndpoint(int port) {
+        return withPrometheusEndpoint(new InetSocketAddress(port));
+    }
+
+    /**
+     * Serves the metrics of the service in the Prometheus text format at
+     * {@code /metrics} on the given address.  The endpoint is closed when the
+     * service is stopped.
+     *
+     * @param address  the address to listen on
+     * @return  this
+     */
+    public ApnsServiceBuilder withPrometheusEndpoint(InetSocketAddress address) {
+        this.prometheusAddress = address;
+        return this;
+    }
+
     /**
      * Provide a custom source for threads used for monitoring connections.
      *
@@ -710,6 +849,136 @@ public class ApnsServiceBuilder {
         return this;
     }
 
+    /**
+     * Specify the policy for resending notifications rejected by Apple.
+     *
+     * Retried notifications are resent along with the notifications
+     * following them, instead of being reported to the delegate as failed.
+     *
+     * Note: This option has no effect when error detection is disabled.
+     *
+     * @param rp the retry policy
+     * @return  this
+     */
+    public ApnsServiceBuilder withRetryPolicy(RetryPolicy rp) {
+        this.retryPolicy = rp;
+        return this;
+    }
+
+    /**
+     * Specify the policy for resending notifications rejected by Apple.
+     *
+     * Note: This option has no effect when error detection is disabled.
+     *
+     * @param rp the retry policy
+     * @return  this
+     */
+    public ApnsServiceBuilder withRetryPolicy(RetryPolicy.Provided rp) {
+        this.retryPolicy = rp.newObject();
+        return this;
+    }
+
+    /**
+     * Suppresses notifications to device tokens known to be invalid.
+     *
+     * Notifications to tokens in the index are not sent to Apple, but
+     * reported to the delegate as failed with {@link DeliveryError#INVALID_TOKEN}.
+     * Tokens Apple rejects with {@link DeliveryError#INVALID_TOKEN} and
+     * inactive devices reported by the feedback service are added to the
+     * index as they are found.  Tokens stay in the index until the
+     * application reports a later registration with
+     * {@link InvalidTokenIndex#registered(byte[], int)}, removes them, or
+     * they expire (see {@link InvalidTokenIndex#withExpiry(int)}).
+     *
+     * @param index the index of invalid tokens, possibly backed by a file
+     * @return  this
+     */
+    public ApnsServiceBuilder withInvalidTokenIndex(InvalidTokenIndex index) {
+        this.invalidTokenIndex = index;
+        return this;
+    }
+
+    /**
+     * Polls the Apple Feedback service every {@code periodInSec} seconds in
+     * the background, and suppresses notifications to the reported devices.
+     *
+     * Unless an index is given with {@link #withInvalidTokenIndex(InvalidTokenIndex)},
+     * the reported devices are kept in an in-memory index.
+     *
+     * @param periodInSec   the time between the end of a poll and the
+     *      start of the next one
+     * @return  this
+     */
+    public ApnsServiceBuilder withFeedbackPolling(int periodInSec) {
+        return withFeedbackPolling(periodInSec, (ThreadFactory)null);
+    }
+
+    /**
+     * Polls the Apple Feedback service every {@code periodInSec} seconds in
+     * the background, and suppresses notifications to the reported devices.
+     *
+     * @param periodInSec   the time between the end of a poll and the
+     *      start of the next one
+     * @param threadFactory thread factory to use for polling
+     * @return  this
+     */
+    public ApnsServiceBuilder withFeedbackPolling(int periodInSec, ThreadFactory threadFactory) {
+        return withFeedbackPolling(periodInSec, new ScheduledThreadPoolExecutor(1, threadFactory != null ? threadFactory : defaultThreadFactory()));
+    }
+
+    /**
+     * Polls the Apple Feedback service every {@code periodInSec} seconds in
+     * the background, and suppresses notifications to the reported devices.
+     *
+     * @param periodInSec   the time between the end of a poll and the
+     *      start of the next one
+     * @param executor      executor running the polls, shut down when the
+     *      service is stopped
+     * @return  this
+     */
+    public ApnsServiceBuilder withFeedbackPolling(int periodInSec, ScheduledExecutorService executor) {
+        if (periodInSec <= 0) {
+            throw new IllegalArgumentException("periodInSec must be positive: " + periodInSec);
+        }
+        this.feedbackPollPeriodInSec = periodInSec;
+        this.feedbackPollExecutor = executor;
+        return this;
+    }
+
+    /**
+     * Checks notifications locally before sending them, with the default
+     * {@link NotificationValidator}.
+     *
+     * @return  this
+     * @see #withValidation(NotificationValidator)
+     */
+    public ApnsServiceBuilder withValidation() {
+        return withValidation(new NotificationValidator());
+    }
+
+    /**
+     * Checks notifications locally before sending them.
+     *
+     * Notifications with a missing or wrongly sized token, or a missing or
+     * oversized payload, are not sent to Apple, but reported to the
+     * delegate as failed with the error Apple would have returned.
+     * Rejecting them locally avoids the reconnection and the resends that
+     * follow a rejection by Apple.
+     *
+     * Device tokens pushed as Strings that aren't valid Hex are reported
+     * as failed with {@link DeliveryError#INVALID_TOKEN} and no
+     * notification: bulk pushes skip them, and single pushes return
+     * {@code null}, rather than throwing.
+     *
+     * @param validator the validator, which also counts the notifications
+     *      it rejects
+     * @return  this
+     */
+    public ApnsServiceBuilder withValidation(NotificationValidator validator) {
+        this.validator = validator;
+        return this;
+    }
+
     /**
      * Returns a fully initialized instance of {@link ApnsService},
      * according to the requested settings.
@@ -723,27 +992,87 @@ public class ApnsServiceBuilder {
         SSLSocketFactory sslFactory = sslContext.getSocketFactory();
         ApnsFeedbackConnection feedback = new ApnsFeedbackConnection(sslFactory, feedbackHost, feedbackPort, proxy, readTimeout, connectTimeout, proxyUsername, proxyPassword);
 
-        ApnsConnection conn = new ApnsConnectionImpl(sslFactory, gatewayHost,
-            gatewayPort, proxy, proxyUsername, proxyPassword, reconnectPolicy,
-                delegate, errorDetection, errorDetectionThreadFactory, cacheLength,
-                autoAdjustCacheLength, readTimeout, connectTimeout);
-        if (pooledMax != 1) {
-            conn = new ApnsPooledConnection(conn, pooledMax, executor);
+        InvalidTokenIndex index = invalidTokenIndex;
+        if (index == null && feedbackPollPeriodInSec > 0) {
+            index = new InvalidTokenIndex();
         }
+        ApnsMetrics metrics = this.metrics;
+        if (metrics == null && prometheusAddress != null) {
+            metrics = new ApnsMetrics();
+        }
+        List<Closeable> resources = new ArrayList<Closeable>();
+        boolean built = false;
+        try {
+            ApnsDelegate userDelegate = this.delegate;
+            if (asyncDelegateCapacity > 0) {
+                AsyncApnsDelegate dispatcher = new AsyncApnsDelegate(userDelegate, asyncDelegateCapacity, asyncDelegateThreadFactory);
+                resources.add(dispatcher);
+                userDelegate = dispatcher;
+            }
+            ApnsDelegate delegate = userDelegate;
+            if (index != null) {
+                delegate = new InvalidTokenDelegate(delegate, index);
+            }
 
-        service = new ApnsServiceImpl(conn, feedback);
+            ApnsConnection conn = new ApnsConnectionImpl(sslFactory, gatewayHost,
+                gatewayPort, proxy, proxyUsername, proxyPassword, reconnectPolicy,
+                    delegate, errorDetection, errorDetectionThreadFactory, cacheLength,
+                    autoAdjustCacheLength, readTimeout, connectTimeout, retryPolicy,
+                    inFlightWindow > 0 && errorDetection ? new InFlightWindow(inFlightWindow, inFlightHorizon) : null, metrics);
+            if (pooledMax != 1) {
+                conn = new ApnsPooledConnection(conn, pooledMax, executor, metrics);
+            }
 
-        if (isQueued) {
-            service = new QueuedApnsService(service, queueThreadFactory);
-        }
+            service = new ApnsServiceImpl(conn, feedback);
+
+            if (isQueued) {
+                service = new QueuedApnsService(service, queueThreadFactory, metrics);
+            }
         
-        if (isBatched) {
-            service = new BatchApnsService(conn, feedback, batchWaitTimeInSec, batchMaxWaitTimeInSec, batchThreadPoolExecutor);
-        }
+            if (isBatched) {
+                service = new BatchApnsService(conn, feedback, batchWaitTimeInSec, batchMaxWaitTimeInSec, batchThreadPoolExecutor, metrics);
+            }
+
+            if (index != null) {
+                service = new InvalidTokenFilteringApnsService(service, index, userDelegate,
+                        feedbackPollPeriodInSec, feedbackPollExecutor);
+            }
 
-        service.start();
+            if (validator != null) {
+                service = new ValidatingApnsService(service, validator, userDelegate, metrics);
+            }
 
-        return service;
+            if (metrics != null && metricsName != null) {
+                resources.add(new MBeanRegistration("com.notnoop.apns:type=ApnsService,name=" + ObjectName.quote(metricsName),
+                        metrics, ApnsMetricsMBean.class));
+            }
+            if (prometheusAddress != null) {
+                resources.add(new PrometheusExporter(metrics, metricsName, prometheusAddress));
+            }
+
+            if (!resources.isEmpty()) {
+                service = new ResourceClosingApnsService(service, resources.toArray(new Closeable[resources.size()]));
+            }
+
+            service.start();
+            built = true;
+            return service;
+        } finally {
+            if (!built) {
+                // Don't leak the threads, MBean or server already started
+                closeAll(resources);
+            }
+        }
+    }
+
+    private static void closeAll(List<Closeable> resources) {
+        for (Closeable resource : resources) {
+            try {
+                Utilities.close(resource);
+            } catch (RuntimeException e) {
+                // keep the failure that aborted the build
+            }
+        }
     }
 
     private void checkInitialization() {
@@ -756,5 +1085,9 @@ public class ApnsServiceBuilder {
                     "The Destination APNS server is not stated\n"
                     + "Use .withDestination(), withSandboxDestination(), "
                     + "or withProductionDestination().");
+        if (inFlightWindow > cacheLength)
+            throw new IllegalStateException(
+                    "The in-flight window is larger than the notification cache\n"
+                    + "Use .withCacheLength() to cache at least " + inFlightWindow + " notifications.");
     }
 }
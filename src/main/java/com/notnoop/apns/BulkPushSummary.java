@@ -0,0 +1,87 @@
+/*
+ *  Copyright 2009, Mahmood Ali.
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions are
+ *  met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ *      copyright notice, this list of conditions and the following disclaimer
+ *      in the documentation and/or other materials provided with the
+ *      distribution.
+ *    * Neither the name of Mahmood Ali. nor the names of its
+ *      contributors may be used to endorse or promote products derived from
+ *      this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ *  A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ *  OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ *  SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ *  LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ *  OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.notnoop.apns;
+
+/**
+ * Summarizes a streamed bulk push, see
+ * {@link ApnsService#push(java.util.Iterator, byte[], int)}.
+ *
+ * The notifications themselves are not retained; the outcome of each
+ * one is reported to the {@link ApnsDelegate} as usual, and can be
+ * matched using the range of identifiers assigned to the bulk push.
+ */
+public final class BulkPushSummary {
+    private final long count;
+    private final int firstIdentifier;
+    private final int lastIdentifier;
+
+    /**
+     * Constructs an instance of {@code BulkPushSummary}.
+     *
+     * @param count             the number of notifications pushed
+     * @param firstIdentifier   the identifier of the first notification
+     * @param lastIdentifier    the identifier of the last notification
+     */
+    public BulkPushSummary(long count, int firstIdentifier, int lastIdentifier) {
+        this.count = count;
+        this.firstIdentifier = firstIdentifier;
+        this.lastIdentifier = lastIdentifier;
+    }
+
+    /**
+     * Returns the number of notifications handed to the service
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Returns the identifier of the first notification, or 0 if none was
+     * pushed
+     */
+    public int getFirstIdentifier() {
+        return firstIdentifier;
+    }
+
+    /**
+     * Returns the identifier of the last notification, or 0 if none was
+     * pushed.  Identifiers are increasing, but pushes made concurrently by
+     * other threads may take identifiers in between.
+     */
+    public int getLastIdentifier() {
+        return lastIdentifier;
+    }
+
+    @Override
+    public String toString() {
+        return "BulkPushSummary(Count=" + count + "; Identifiers=" + firstIdentifier + ".." + lastIdentifier + ")";
+    }
+}
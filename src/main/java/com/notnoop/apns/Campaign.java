@@ -0,0 +1,391 @@
+/*
+ *  Copyright 2009, Mahmood Ali.
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions are
+ *  met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ *      copyright notice, this list of conditions and the following disclaimer
+ *      in the documentation and/or other materials provided with the
+ *      distribution.
+ *    * Neither the name of Mahmood Ali. nor the names of its
+ *      contributors may be used to endorse or promote products derived from
+ *      this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ *  A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ *  OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ *  SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ *  LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ *  OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.notnoop.apns;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import com.notnoop.apns.internal.Utilities;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Broadcasts a payload to a large audience through an {@link ApnsService},
+ * keeping track of its progress in a checkpoint file so that it can be
+ * resumed after a crash or a restart.
+ *
+ * <pre>
+ *   Campaign campaign = new Campaign(service, payload, new File("campaign.checkpoint"))
+ *       .withRate(5000)
+ *       .withListener(listener);
+ *   campaign.run(PackedDeviceTokens.map(new File("audience.tokens")));
+ * </pre>
+ *
+ * The checkpoint holds the number of tokens already handed to the service,
+ * and is written every {@link #withCheckpointInterval(int) interval} and when
+ * the run ends.  A run started with an existing checkpoint skips the tokens
+ * it covers, so the token source must return the same tokens in the same
+ * order.  Delete the checkpoint to send the campaign again.
+ *
+ * Tokens handed to the service after the last checkpoint are sent again
+ * on resumption.  With a queued service, tokens still in the queue at the
+ * time of a crash are lost, even if covered by the checkpoint.
+ */
+public class Campaign {
+    private static final Logger logger = LoggerFactory.getLogger(Campaign.class);
+
+    private static final int DEFAULT_CHECKPOINT_INTERVAL = 10000;
+    private static final long DEFAULT_PROGRESS_INTERVAL = 10000;
+    private static final int MAX_BATCH = 1000;
+
+    private final ApnsService service;
+    private final byte[] payload;
+    private final File checkpoint;
+
+    private int expiry = EnhancedApnsNotification.MAXIMUM_EXPIRY;
+    private int rate;
+    private int checkpointInterval = DEFAULT_CHECKPOINT_INTERVAL;
+    private CampaignListener listener;
+    private long progressIntervalMillis = DEFAULT_PROGRESS_INTERVAL;
+
+    private volatile boolean stopped;
+
+    /**
+     * Constructs a campaign sending {@code payload}.
+     *
+     * @param service       the service to send the notifications through
+     * @param payload       the payload sent to every device
+     * @param checkpoint    the file storing the progress of the campaign
+     */
+    public Campaign(ApnsService service, byte[] payload, File checkpoint) {
+        this.service = service;
+        this.payload = Utilities.copyOf(payload);
+        this.checkpoint = checkpoint;
+    }
+
+    /**
+     * Sets the expiry date of the notifications, in seconds since the
+     * UNIX epoch.  By default they never expire.
+     *
+     * @param expiry    the expiry date
+     * @return this
+     */
+    public Campaign withExpiry(int expiry) {
+        this.expiry = expiry;
+        return this;
+    }
+
+    /**
+     * Limits the number of notifications handed to the service per second.
+     * By default the campaign runs as fast as the service accepts them.
+     *
+     * @param notificationsPerSecond    the target rate, 0 for no limit
+     * @return this
+     */
+    public Campaign withRate(int notificationsPerSecond) {
+        if (notificationsPerSecond < 0) {
+            throw new IllegalArgumentException("Rate must not be negative: " + notificationsPerSecond);
+        }
+        this.rate = notificationsPerSecond;
+        return this;
+    }
+
+    /**
+     * Sets the number of notifications between checkpoints, 10000 by
+     * default.
+     *
+     * @param notifications the number of notifications between checkpoints
+     * @return this
+     */
+    public Campaign withCheckpointInterval(int notifications) {
+        if (notifications <= 0) {
+            throw new IllegalArgumentException("Checkpoint interval must be positive: " + notifications);
+        }
+        this.checkpointInterval = notifications;
+        return this;
+    }
+
+    /**
+     * Sets the listener receiving the progress of the campaign.
+     *
+     * @param listener          the listener
+     * @param intervalMillis    the time between progress reports
+     * @return this
+     */
+    public Campaign withListener(CampaignListener listener, long intervalMillis) {
+        this.listener = listener;
+        this.progressIntervalMillis = intervalMillis;
+        return this;
+    }
+
+    /**
+     * Sets the listener receiving the progress of the campaign every 10
+     * seconds.
+     *
+     * @param listener  the listener
+     * @return this
+     */
+    public Campaign withListener(CampaignListener listener) {
+        return withListener(listener, DEFAULT_PROGRESS_INTERVAL);
+    }
+
+    /**
+     * Runs the campaign to the packed device tokens, e.g. mapped from a
+     * file, resuming from the checkpoint if any.  This call blocks until
+     * the campaign completes or is stopped; interrupting the calling thread
+     * while the campaign is rate limited stops it too.
+     *
+     * @param tokens    the audience of the campaign
+     * @return the final progress
+     * @throws IOException if the checkpoint can't be read or written
+     */
+    public CampaignProgress run(final PackedDeviceTokens tokens) throws IOException {
+        return run(new Source() {
+            public long size() {
+                return tokens.size();
+            }
+
+            public void skip(long count) {
+            }
+
+            public int push(long from, int count) {
+                service.push(tokens.range((int) from, (int) from + count), payload, expiry);
+                return count;
+            }
+        });
+    }
+
+    /**
+     * Runs the campaign to the devices returned by the iterator, resuming
+     * from the checkpoint if any.  This call blocks until the iterator is
+     * exhausted or the campaign is stopped.
+     *
+     * @param tokens    the audience of the campaign
+     * @param total     the number of tokens, used to estimate the time left,
+     *      or -1 if unknown
+     * @return the final progress
+     * @throws IOException if the checkpoint can't be read or written
+     */
+    public CampaignProgress run(final Iterator<byte[]> tokens, final long total) throws IOException {
+        return run(new Source() {
+            public long size() {
+                return total;
+            }
+
+            public void skip(long count) {
+                for (long i = 0; i < count && tokens.hasNext(); i++) {
+                    tokens.next();
+                }
+            }
+
+            public int push(long from, int count) {
+                Limited limited = new Limited(tokens, count);
+                service.push(limited, payload, expiry);
+                return count - limited.remaining;
+            }
+
+            public boolean exhausted() {
+                return !tokens.hasNext();
+            }
+        });
+    }
+
+    /**
+     * Stops the running campaign after the current batch.  The checkpoint
+     * is written before {@code run} returns.
+     */
+    public void stop() {
+        stopped = true;
+    }
+
+    private CampaignProgress run(Source source) throws IOException {
+        stopped = false;
+        final long resumedFrom = readCheckpoint();
+        final long total = source.size();
+        if (resumedFrom > 0) {
+            logger.info("Resuming campaign from {} of {}", resumedFrom, total);
+            source.skip(resumedFrom);
+        }
+
+        final int batch = batchSize();
+        final long start = System.nanoTime();
+        long sent = resumedFrom;
+        long checkpointed = resumedFrom;
+        long lastProgress = start;
+        boolean completed = false;
+        try {
+            while (!stopped && !source.exhausted() && (total < 0 || sent < total)) {
+                int count = total < 0 ? batch : (int) Math.min(batch, total - sent);
+                sent += source.push(sent, count);
+
+                if (sent - checkpointed >= checkpointInterval) {
+                    writeCheckpoint(sent);
+                    checkpointed = sent;
+                }
+                long now = System.nanoTime();
+                if (listener != null && now - lastProgress >= progressIntervalMillis * 1000000L) {
+                    listener.progress(new CampaignProgress(sent, total, resumedFrom, (now - start) / 1000000L, false));
+                    lastProgress = now;
+                }
+                pace(start, sent - resumedFrom);
+            }
+            completed = true;
+        } finally {
+            if (sent != checkpointed) {
+                if (completed) {
+                    writeCheckpoint(sent);
+                } else {
+                    // don't hide the failure that ended the run
+                    try {
+                        writeCheckpoint(sent);
+                    } catch (IOException e) {
+                        logger.warn("Couldn't write the checkpoint of the failed campaign at " + sent, e);
+                    }
+                }
+            }
+        }
+
+        CampaignProgress progress = new CampaignProgress(sent, total, resumedFrom,
+                (System.nanoTime() - start) / 1000000L, true);
+        logger.info("Campaign {}: {}", stopped ? "stopped" : "completed", progress);
+        if (listener != null) {
+            listener.progress(progress);
+        }
+        return progress;
+    }
+
+    private int batchSize() {
+        int batch = Math.min(MAX_BATCH, checkpointInterval);
+        if (rate > 0) {
+            // about a tenth of a second worth of notifications
+            batch = Math.min(batch, Math.max(1, rate / 10));
+        }
+        return batch;
+    }
+
+    /**
+     * Waits until {@code sent} notifications are due.  An interrupt stops
+     * the campaign, and is left pending for the caller of {@code run}.
+     */
+    private void pace(long start, long sent) {
+        if (rate == 0) {
+            return;
+        }
+        long due = start + sent * 1000000000L / rate;
+        long wait = (due - System.nanoTime()) / 1000000L;
+        if (wait > 0) {
+            try {
+                Thread.sleep(wait);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                stopped = true;
+            }
+        }
+    }
+
+    private long readCheckpoint() throws IOException {
+        if (!checkpoint.exists()) {
+            return 0;
+        }
+        BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(checkpoint), "UTF-8"));
+        try {
+            String line = in.readLine();
+            return line == null ? 0 : Long.parseLong(line.trim());
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid checkpoint " + checkpoint + ": " + e.getMessage());
+        } finally {
+            Utilities.close(in);
+        }
+    }
+
+    private void writeCheckpoint(long sent) throws IOException {
+        File tmp = new File(checkpoint.getPath() + ".tmp");
+        OutputStream out = new FileOutputStream(tmp);
+        try {
+            out.write(Utilities.toUTF8Bytes(sent + "\n"));
+        } finally {
+            Utilities.close(out);
+        }
+        if (!tmp.renameTo(checkpoint) && !(checkpoint.delete() && tmp.renameTo(checkpoint))) {
+            throw new IOException("Couldn't replace " + checkpoint + " with " + tmp);
+        }
+        logger.debug("Campaign checkpoint at {}", sent);
+    }
+
+    private abstract static class Source {
+        abstract long size();
+
+        abstract void skip(long count);
+
+        /** Returns the number of tokens pushed */
+        abstract int push(long from, int count);
+
+        boolean exhausted() {
+            return false;
+        }
+    }
+
+    /**
+     * Returns at most {@code limit} elements of the wrapped iterator
+     */
+    private static final class Limited implements Iterator<byte[]> {
+        private final Iterator<byte[]> tokens;
+        private int remaining;
+
+        Limited(Iterator<byte[]> tokens, int limit) {
+            this.tokens = tokens;
+            this.remaining = limit;
+        }
+
+        public boolean hasNext() {
+            return remaining > 0 && tokens.hasNext();
+        }
+
+        public byte[] next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            remaining--;
+            return tokens.next();
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
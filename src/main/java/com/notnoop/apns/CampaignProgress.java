@@ -0,0 +1,119 @@
+/*
+ *  Copyright 2009, Mahmood Ali.
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions are
+ *  met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ *      copyright notice, this list of conditions and the following disclaimer
+ *      in the documentation and/or other materials provided with the
+ *      distribution.
+ *    * Neither the name of Mahmood Ali. nor the names of its
+ *      contributors may be used to endorse or promote products derived from
+ *      this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ *  A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ *  OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ *  SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ *  LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ *  OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.notnoop.apns;
+
+/**
+ * A snapshot of the progress of a {@link Campaign}.
+ */
+public final class CampaignProgress {
+    private final long sent;
+    private final long total;
+    private final long resumedFrom;
+    private final long elapsedMillis;
+    private final boolean done;
+
+    /**
+     * Constructs an instance of {@code CampaignProgress}.
+     *
+     * @param sent          the number of notifications sent, including those
+     *      sent before resuming
+     * @param total         the total number of notifications, or -1 if unknown
+     * @param resumedFrom   the number of notifications sent before resuming
+     * @param elapsedMillis the time spent since this run started
+     * @param done          whether the run is over
+     */
+    public CampaignProgress(long sent, long total, long resumedFrom, long elapsedMillis, boolean done) {
+        this.sent = sent;
+        this.total = total;
+        this.resumedFrom = resumedFrom;
+        this.elapsedMillis = elapsedMillis;
+        this.done = done;
+    }
+
+    /**
+     * Returns the number of notifications handed to the service, including
+     * those sent by the runs preceding the last resumption
+     */
+    public long getSent() {
+        return sent;
+    }
+
+    /**
+     * Returns the total number of notifications, or -1 if the source
+     * doesn't tell
+     */
+    public long getTotal() {
+        return total;
+    }
+
+    /**
+     * Returns the checkpoint this run resumed from, 0 for a fresh campaign
+     */
+    public long getResumedFrom() {
+        return resumedFrom;
+    }
+
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+
+    /**
+     * Returns true once the run has completed or was stopped
+     */
+    public boolean isDone() {
+        return done;
+    }
+
+    /**
+     * Returns the number of notifications sent per second by this run
+     */
+    public double getThroughput() {
+        return elapsedMillis == 0 ? 0 : (sent - resumedFrom) * 1000.0 / elapsedMillis;
+    }
+
+    /**
+     * Returns the estimated time left in milliseconds, based on the
+     * throughput so far, or -1 if it can't be estimated
+     */
+    public long getEstimatedMillisLeft() {
+        double throughput = getThroughput();
+        if (total < 0 || throughput == 0) {
+            return -1;
+        }
+        return (long) ((total - sent) * 1000 / throughput);
+    }
+
+    @Override
+    public String toString() {
+        return "CampaignProgress(Sent=" + sent + "; Total=" + total
+                + "; Throughput=" + (long) getThroughput() + "/s; ETA=" + getEstimatedMillisLeft() + "ms)";
+    }
+}
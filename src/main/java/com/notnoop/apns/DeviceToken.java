@@ -0,0 +1,142 @@
+/*
+ *  Copyright 2009, Mahmood Ali.
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions are
+ *  met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ *      copyright notice, this list of conditions and the following disclaimer
+ *      in the documentation and/or other materials provided with the
+ *      distribution.
+ *    * Neither the name of Mahmood Ali. nor the names of its
+ *      contributors may be used to endorse or promote products derived from
+ *      this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ *  A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ *  OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ *  SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ *  LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ *  OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.notnoop.apns;
+
+import java.util.Arrays;
+
+import com.notnoop.apns.internal.Utilities;
+
+/**
+ * Represents an immutable device token.
+ *
+ * A {@code DeviceToken} holds the binary representation of the token, so it
+ * is decoded from its Hex String representation once, and can be pushed to
+ * repeatedly or used as a key in hash based collections without decoding it
+ * again.
+ */
+public final class DeviceToken {
+
+    /**
+     * The length in bytes of the device tokens issued by Apple
+     */
+    public static final int LENGTH = 32;
+
+    final byte[] bytes;
+    private final int hash;
+    private String hex;
+
+    private DeviceToken(byte[] bytes) {
+        this.bytes = bytes;
+        this.hash = Arrays.hashCode(bytes);
+    }
+
+    /**
+     * Returns the device token represented by the Hex String, which may
+     * contain spaces and dashes as separators.
+     *
+     * @param hex   the Hex String representation of the device token
+     * @return the device token
+     * @throws IllegalArgumentException if the String contains a character
+     *      that is neither a Hex digit nor a separator
+     */
+    public static DeviceToken parse(String hex) {
+        return new DeviceToken(Utilities.decodeHex(hex));
+    }
+
+    /**
+     * Returns the device token with the given binary representation.
+     *
+     * @param bytes the binary representation of the device token
+     * @return the device token
+     */
+    public static DeviceToken of(byte[] bytes) {
+        return new DeviceToken(Utilities.copyOf(bytes));
+    }
+
+    /**
+     * Wraps the array without copying it; the caller must not modify it.
+     */
+    static DeviceToken wrap(byte[] bytes) {
+        return new DeviceToken(bytes);
+    }
+
+    /**
+     * Returns the binary representation of the device token.
+     */
+    public byte[] toByteArray() {
+        return Utilities.copyOf(bytes);
+    }
+
+    /**
+     * Returns the length of the device token in bytes.
+     */
+    public int length() {
+        return bytes.length;
+    }
+
+    /**
+     * Appends the Hex String representation of the token to the builder.
+     *
+     * @param sb    the builder to append to
+     * @return the builder
+     */
+    public StringBuilder appendHex(StringBuilder sb) {
+        return Utilities.encodeHex(bytes, sb);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj)
+            return true;
+        if (!(obj instanceof DeviceToken))
+            return false;
+        DeviceToken o = (DeviceToken)obj;
+        return hash == o.hash && Arrays.equals(bytes, o.bytes);
+    }
+
+    /**
+     * Returns the Hex String representation of the device token.
+     */
+    @Override
+    public String toString() {
+        // racy single-check: at worst the String gets encoded more than once
+        String result = hex;
+        if (result == null) {
+            hex = result = Utilities.encodeHex(bytes);
+        }
+        return result;
+    }
+}
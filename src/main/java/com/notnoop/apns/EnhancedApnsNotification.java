@@ -30,6 +30,8 @@
  */
 package com.notnoop.apns;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.Arrays;
 import java.util.concurrent.atomic.AtomicInteger;
 import com.notnoop.apns.internal.Utilities;
@@ -45,11 +47,13 @@ public class EnhancedApnsNotification implements ApnsNotification {
 	
     private static final Logger LOGGER = LoggerFactory.getLogger(EnhancedApnsNotification.class);
     private final static byte COMMAND = 1;
+    /** The length of the fields before the payload, for a token of {@link DeviceToken#LENGTH} bytes */
+    public static final int HEAD_LENGTH = 1 + 4 + 4 + 2 + DeviceToken.LENGTH;
     private static AtomicInteger nextId = new AtomicInteger(0);
     private final int identifier;
     private final int expiry;
     private final byte[] deviceToken;
-    private final byte[] payload;
+    private final SharedPayload payload;
 
     public static int INCREMENT_ID() {
         return nextId.incrementAndGet();
@@ -74,7 +78,7 @@ public class EnhancedApnsNotification implements ApnsNotification {
         this.identifier = identifier;
         this.expiry = expiryTime;
         this.deviceToken = Utilities.decodeHex(dtoken);
-        this.payload = Utilities.toUTF8Bytes(payload);
+        this.payload = SharedPayload.of(payload);
     }
 
     /**
@@ -89,7 +93,41 @@ public class EnhancedApnsNotification implements ApnsNotification {
         this.identifier = identifier;
         this.expiry = expiryTime;
         this.deviceToken = Utilities.copyOf(dtoken);
-        this.payload = Utilities.copyOf(payload);
+        this.payload = SharedPayload.of(payload);
+    }
+
+    /**
+     * Constructs an instance of {@code ApnsNotification} sending a payload
+     * shared with other notifications, e.g. when pushing the same payload
+     * to many devices.
+     *
+     * @param dtoken    The binary representation of the destination device token
+     * @param payload   The encoded payload to be sent
+     */
+    public EnhancedApnsNotification(
+            int identifier, int expiryTime,
+            byte[] dtoken, SharedPayload payload) {
+        this.identifier = identifier;
+        this.expiry = expiryTime;
+        this.deviceToken = Utilities.copyOf(dtoken);
+        this.payload = payload;
+    }
+
+    /**
+     * Constructs an instance of {@code ApnsNotification}.
+     *
+     * The device token is shared rather than copied, as it is immutable.
+     *
+     * @param dtoken    The destination device token
+     * @param payload   The binary representation of the payload to be sent
+     */
+    public EnhancedApnsNotification(
+            int identifier, int expiryTime,
+            DeviceToken dtoken, byte[] payload) {
+        this.identifier = identifier;
+        this.expiry = expiryTime;
+        this.deviceToken = dtoken.bytes;
+        this.payload = SharedPayload.of(payload);
     }
 
     /**
@@ -105,7 +143,21 @@ public class EnhancedApnsNotification implements ApnsNotification {
      *
      */
     public byte[] getPayload() {
-        return Utilities.copyOf(payload);
+        return payload.payload();
+    }
+
+    /**
+     * Returns the length of the device token, without copying it.
+     */
+    public int getDeviceTokenLength() {
+        return deviceToken.length;
+    }
+
+    /**
+     * Returns the length of the payload, without copying it.
+     */
+    public int getPayloadLength() {
+        return payload.length();
     }
 
     public int getIdentifier() {
@@ -116,7 +168,6 @@ public class EnhancedApnsNotification implements ApnsNotification {
         return expiry;
     }
 
-    private byte[] marshall;
     /**
      * Returns the binary representation of the message as expected by the
      * APNS server.
@@ -125,11 +176,60 @@ public class EnhancedApnsNotification implements ApnsNotification {
      * (on the wire/socket) without any modification.
      */
     public byte[] marshall() {
-        if (marshall == null) {
-            marshall = Utilities.marshallEnhanced(COMMAND, identifier,
-                    expiry, deviceToken, payload);
-        }
-        return marshall.clone();
+        final byte[] result = new byte[length()];
+        final int pos = writeHead(result);
+        payload.writeTo(result, pos);
+        return result;
+    }
+
+    /**
+     * Writes the binary representation of the message, as returned by
+     * {@link #marshall()}, without copying the payload.
+     *
+     * @param out the stream to write to, usually buffered
+     */
+    public void writeTo(final OutputStream out) throws IOException {
+        writeTo(out, null);
+    }
+
+    /**
+     * Writes the binary representation of the message, as returned by
+     * {@link #marshall()}, without copying the payload.  The fields before
+     * the payload are written in one call, through {@code scratch} if it
+     * is large enough, so that a sender can reuse the same array for every
+     * notification.
+     *
+     * @param out the stream to write to, usually buffered
+     * @param scratch an array of at least {@link #HEAD_LENGTH} bytes for a
+     *      token of {@link DeviceToken#LENGTH} bytes, or null
+     */
+    public void writeTo(final OutputStream out, final byte[] scratch) throws IOException {
+        final byte[] head = scratch != null && scratch.length >= headLength() ? scratch : new byte[headLength()];
+        out.write(head, 0, writeHead(head));
+        payload.writeTo(out);
+    }
+
+    private int headLength() {
+        return 1 + 4 + 4 + 2 + deviceToken.length;
+    }
+
+    private int writeHead(final byte[] dst) {
+        int pos = 0;
+        dst[pos++] = COMMAND;
+        pos = writeInt(identifier, dst, pos);
+        pos = writeInt(expiry, dst, pos);
+        dst[pos++] = (byte) (deviceToken.length >>> 8);
+        dst[pos++] = (byte) deviceToken.length;
+        System.arraycopy(deviceToken, 0, dst, pos, deviceToken.length);
+        return pos + deviceToken.length;
+    }
+
+    private static int writeInt(final int value, final byte[] dst, int pos) {
+        dst[pos++] = (byte) (value >>> 24);
+        dst[pos++] = (byte) (value >>> 16);
+        dst[pos++] = (byte) (value >>> 8);
+        dst[pos++] = (byte) value;
+        return pos;
     }
 
     /**
@@ -140,10 +240,7 @@ public class EnhancedApnsNotification implements ApnsNotification {
      * @return length of encoded message in bytes
      */
     public int length() {
-        int length = 1 + 4 + 4 + 2 + deviceToken.length + 2 + payload.length;
-        final int marshalledLength = marshall().length;
-        assert marshalledLength == length;
-        return length;
+        return headLength() + 2 + payload.length();
     }
 
     @Override
@@ -152,7 +249,7 @@ public class EnhancedApnsNotification implements ApnsNotification {
                + 31 * identifier
                + 31 * expiry
                + 31 * Arrays.hashCode(deviceToken)
-               + 31 * Arrays.hashCode(payload));
+               + 31 * payload.hashCode());
     }
 
     @Override
@@ -163,7 +260,7 @@ public class EnhancedApnsNotification implements ApnsNotification {
         return (identifier == o.identifier
                 && expiry == o.expiry
                 && Arrays.equals(this.deviceToken, o.deviceToken)
-                && Arrays.equals(this.payload, o.payload));
+                && this.payload.equals(o.payload));
     }
 
     @Override
@@ -171,7 +268,7 @@ public class EnhancedApnsNotification implements ApnsNotification {
     public String toString() {
         String payloadString;
         try {
-            payloadString = new String(payload, "UTF-8");
+            payloadString = new String(payload.payload(), "UTF-8");
         } catch (UnsupportedEncodingException ex) {
             LOGGER.debug("UTF-8 charset not found on the JRE", ex);
             payloadString = "???";
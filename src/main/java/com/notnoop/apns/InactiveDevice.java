@@ -0,0 +1,92 @@
+/*
+ *  Copyright 2009, Mahmood Ali.
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions are
+ *  met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ *      copyright notice, this list of conditions and the following disclaimer
+ *      in the documentation and/or other materials provided with the
+ *      distribution.
+ *    * Neither the name of Mahmood Ali. nor the names of its
+ *      contributors may be used to endorse or promote products derived from
+ *      this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ *  A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ *  OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ *  SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ *  LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ *  OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.notnoop.apns;
+
+import java.util.Date;
+
+import com.notnoop.apns.internal.Utilities;
+
+/**
+ * Represents a single record reported by the Apple Feedback service:
+ * a device token that failed delivery, together with the time at which
+ * APNs determined that the application no longer exists on the device.
+ */
+public final class InactiveDevice {
+    private final byte[] deviceToken;
+    private final int timestamp;
+
+    /**
+     * Constructs an instance of {@code InactiveDevice}.
+     *
+     * @param deviceToken   the binary representation of the device token
+     * @param timestamp     the time, in seconds since the UNIX epoch, at which
+     *      the device was reported inactive
+     */
+    public InactiveDevice(byte[] deviceToken, int timestamp) {
+        this.deviceToken = deviceToken;
+        this.timestamp = timestamp;
+    }
+
+    /**
+     * Returns the binary representation of the device token.
+     */
+    public byte[] getDeviceToken() {
+        return Utilities.copyOf(deviceToken);
+    }
+
+    /**
+     * Returns the device token as a Hex String, as used as key by
+     * {@link ApnsService#getInactiveDevices()}.
+     */
+    public String getDeviceTokenHex() {
+        return Utilities.encodeHex(deviceToken);
+    }
+
+    /**
+     * Returns the time at which the device was reported inactive, a fixed
+     * UNIX epoch date expressed in seconds
+     */
+    public int getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * Returns the time at which the device was reported inactive
+     */
+    public Date getInactiveSince() {
+        return new Date(timestamp * 1000L);
+    }
+
+    @Override
+    public String toString() {
+        return "InactiveDevice(Token=" + getDeviceTokenHex() + "; Timestamp=" + timestamp + ")";
+    }
+}
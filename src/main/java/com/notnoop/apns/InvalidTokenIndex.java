@@ -0,0 +1,302 @@
+/*
+ *  Copyright 2009, Mahmood Ali.
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions are
+ *  met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ *      copyright notice, this list of conditions and the following disclaimer
+ *      in the documentation and/or other materials provided with the
+ *      distribution.
+ *    * Neither the name of Mahmood Ali. nor the names of its
+ *      contributors may be used to endorse or promote products derived from
+ *      this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ *  A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ *  OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ *  SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ *  LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ *  OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.notnoop.apns;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.notnoop.apns.internal.Utilities;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An in-memory index of device tokens known to be invalid, either because
+ * the Apple Feedback service reported them or because Apple rejected a
+ * notification to them with {@link DeliveryError#INVALID_TOKEN}.
+ *
+ * A service built with {@link ApnsServiceBuilder#withInvalidTokenIndex(InvalidTokenIndex)}
+ * consults the index on every push and fails notifications to indexed tokens
+ * locally, without sending them to Apple.  Sending to a dead token makes
+ * Apple drop the connection, which in turn forces a reconnect and a resend
+ * of the notifications sent after it.
+ *
+ * Each entry records the time at which the token was found to be invalid.
+ * A token leaves the index when:
+ * <ul>
+ * <li>it is removed explicitly with {@link #remove(byte[])};</li>
+ * <li>the application reports, with {@link #registered(byte[], int)}, that
+ *     the device registered the token again after that time, in which case
+ *     Apple requires the token to be treated as valid again;</li>
+ * <li>an expiry is set with {@link #withExpiry(int)} and the entry is older
+ *     than it, so tokens re-registered without the application noticing
+ *     are eventually retried.</li>
+ * </ul>
+ * Without an expiry, an entry is kept until it is removed or superseded by
+ * a later registration.
+ *
+ * The index can optionally be persisted to a file, using the same binary
+ * format as the Apple Feedback service.
+ *
+ * This class is thread-safe.
+ */
+public class InvalidTokenIndex implements InactiveDeviceListener {
+    private static final Logger logger = LoggerFactory.getLogger(InvalidTokenIndex.class);
+
+    private final ConcurrentMap<DeviceToken, Integer> tokens = new ConcurrentHashMap<DeviceToken, Integer>();
+    private final File file;
+    private volatile int expiryInSec;
+
+    /**
+     * Constructs an in-memory only index.
+     */
+    public InvalidTokenIndex() {
+        this(null);
+    }
+
+    /**
+     * Constructs an index persisted to the given file.
+     *
+     * The file is read by {@link #load()} and written by {@link #save()};
+     * the service calls these when started, after every feedback poll and
+     * when stopped.
+     *
+     * @param file  the file backing the index, may be {@code null}
+     */
+    public InvalidTokenIndex(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Expires entries {@code seconds} seconds after the time at which their
+     * token was found to be invalid.  Expired entries are no longer
+     * reported by {@link #contains(byte[])} and are not saved.
+     *
+     * @param seconds   the lifetime of an entry, or 0 to keep entries until
+     *      they are removed (the default)
+     * @return  this
+     */
+    public InvalidTokenIndex withExpiry(int seconds) {
+        if (seconds < 0) {
+            throw new IllegalArgumentException("Expiry must not be negative: " + seconds);
+        }
+        this.expiryInSec = seconds;
+        return this;
+    }
+
+    /**
+     * Returns true if the device token is known to be invalid.
+     *
+     * @param deviceToken   the binary representation of the device token
+     * @return true if notifications to the token should be suppressed
+     */
+    public boolean contains(byte[] deviceToken) {
+        return contains(DeviceToken.wrap(deviceToken));
+    }
+
+    /**
+     * Returns true if the device token is known to be invalid.
+     *
+     * @param deviceToken   the device token
+     * @return true if notifications to the token should be suppressed
+     */
+    public boolean contains(DeviceToken deviceToken) {
+        Integer timestamp = tokens.get(deviceToken);
+        if (timestamp == null) {
+            return false;
+        }
+        if (isExpired(timestamp, now())) {
+            tokens.remove(deviceToken, timestamp);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Marks the device token as invalid.
+     *
+     * @param deviceToken   the binary representation of the device token
+     * @param timestamp     the time, in seconds since the UNIX epoch, at
+     *      which the token was found to be invalid
+     */
+    public void add(byte[] deviceToken, int timestamp) {
+        put(DeviceToken.of(deviceToken), timestamp);
+    }
+
+    /**
+     * Removes the device token from the index if it was found to be invalid
+     * before the given registration time.
+     *
+     * Apple reports a token as inactive with the time at which the
+     * application was removed from the device; if the device registered
+     * the token again since then, notifications to it must be sent again.
+     *
+     * @param deviceToken   the binary representation of the device token
+     * @param timestamp     the time, in seconds since the UNIX epoch, at
+     *      which the device registered the token with the application
+     * @return true if the token was in the index and has been removed
+     */
+    public boolean registered(byte[] deviceToken, int timestamp) {
+        return registered(DeviceToken.wrap(deviceToken), timestamp);
+    }
+
+    /**
+     * Removes the device token from the index if it was found to be invalid
+     * before the given registration time.
+     *
+     * @param deviceToken   the device token
+     * @param timestamp     the time, in seconds since the UNIX epoch, at
+     *      which the device registered the token with the application
+     * @return true if the token was in the index and has been removed
+     * @see #registered(byte[], int)
+     */
+    public boolean registered(DeviceToken deviceToken, int timestamp) {
+        Integer invalidSince = tokens.get(deviceToken);
+        return invalidSince != null && invalidSince < timestamp
+                && tokens.remove(deviceToken, invalidSince);
+    }
+
+    /**
+     * Removes the device token from the index, e.g. because the
+     * application registered it again after it was reported inactive.
+     *
+     * @param deviceToken   the binary representation of the device token
+     * @return true if the token was in the index
+     */
+    public boolean remove(byte[] deviceToken) {
+        return tokens.remove(DeviceToken.wrap(deviceToken)) != null;
+    }
+
+    /**
+     * Removes the device token from the index.
+     *
+     * @param deviceToken   the device token
+     * @return true if the token was in the index
+     */
+    public boolean remove(DeviceToken deviceToken) {
+        return tokens.remove(deviceToken) != null;
+    }
+
+    /**
+     * Returns the number of device tokens in the index.
+     */
+    public int size() {
+        return tokens.size();
+    }
+
+    public void inactiveDevices(List<InactiveDevice> devices) {
+        for (InactiveDevice device : devices) {
+            put(DeviceToken.wrap(device.getDeviceToken()), device.getTimestamp());
+        }
+    }
+
+    // Keeps the latest time at which the token was found to be invalid, so
+    // a stale report doesn't make the entry look older than it is.
+    private void put(DeviceToken deviceToken, int timestamp) {
+        Integer previous = tokens.putIfAbsent(deviceToken, timestamp);
+        while (previous != null && previous < timestamp
+                && !tokens.replace(deviceToken, previous, timestamp)) {
+            previous = tokens.putIfAbsent(deviceToken, timestamp);
+        }
+    }
+
+    private boolean isExpired(int timestamp, long now) {
+        int expiry = expiryInSec;
+        return expiry > 0 && now - timestamp >= expiry;
+    }
+
+    private static long now() {
+        return System.currentTimeMillis() / 1000;
+    }
+
+    /**
+     * Reads the tokens stored in the backing file, if any, into the index.
+     *
+     * @throws IOException if the file exists but cannot be read
+     */
+    public void load() throws IOException {
+        if (file == null || !file.exists()) {
+            return;
+        }
+        InputStream in = null;
+        try {
+            in = new BufferedInputStream(new FileInputStream(file));
+            int count = Utilities.parseFeedbackStream(in, this, Utilities.FEEDBACK_BATCH_SIZE);
+            logger.debug("Loaded {} invalid tokens from {}", count, file);
+        } finally {
+            Utilities.close(in);
+        }
+    }
+
+    /**
+     * Writes the index to the backing file, if any.
+     *
+     * The index is written to a temporary file first, which then replaces
+     * the backing file, so a crash while saving leaves the previous
+     * version intact.
+     *
+     * @throws IOException if the file cannot be written
+     */
+    public void save() throws IOException {
+        if (file == null) {
+            return;
+        }
+        File tmp = new File(file.getPath() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            long now = now();
+            for (Map.Entry<DeviceToken, Integer> entry : tokens.entrySet()) {
+                if (isExpired(entry.getValue(), now)) {
+                    continue;
+                }
+                byte[] deviceToken = entry.getKey().bytes;
+                out.writeInt(entry.getValue());
+                out.writeShort(deviceToken.length);
+                out.write(deviceToken);
+            }
+        } finally {
+            Utilities.close(out);
+        }
+        if (!tmp.renameTo(file) && !(file.delete() && tmp.renameTo(file))) {
+            throw new IOException("Couldn't replace " + file + " with " + tmp);
+        }
+    }
+}
@@ -0,0 +1,210 @@
+/*
+ *  Copyright 2009, Mahmood Ali.
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions are
+ *  met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ *      copyright notice, this list of conditions and the following disclaimer
+ *      in the documentation and/or other materials provided with the
+ *      distribution.
+ *    * Neither the name of Mahmood Ali. nor the names of its
+ *      contributors may be used to endorse or promote products derived from
+ *      this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ *  A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ *  OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ *  SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ *  LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ *  OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.notnoop.apns;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of latencies, in nanoseconds, with log-linear buckets.
+ *
+ * Values are counted in buckets whose width grows with the value, so
+ * that any recorded value is known to within {@code 1/32} of itself, from
+ * nanoseconds up to several hours.  Recording a value increments a single
+ * bucket: it doesn't allocate and doesn't lock, so any number of threads
+ * may record concurrently.
+ *
+ * {@link #snapshot()} returns the counts since the histogram was created,
+ * {@link #intervalSnapshot()} the counts since its previous call, e.g. to
+ * report percentiles periodically.
+ */
+public final class LatencyHistogram {
+    static final int SUB_BUCKET_BITS = 6;
+    static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    static final int HALF = SUB_BUCKETS / 2;
+    static final int MAX_BITS = 45;
+    static final int BUCKETS = (MAX_BITS - SUB_BUCKET_BITS) * HALF + SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private long[] previous = new long[BUCKETS];
+
+    /**
+     * Records a latency.  Negative values are counted as 0, values beyond
+     * the range of the histogram as its maximum.
+     *
+     * @param nanos  the latency in nanoseconds
+     */
+    public void record(long nanos) {
+        counts.getAndIncrement(index(nanos));
+    }
+
+    static int index(long value) {
+        if (value < SUB_BUCKETS) {
+            return value < 0 ? 0 : (int) value;
+        }
+        if (value >= 1L << MAX_BITS) {
+            value = (1L << MAX_BITS) - 1;
+        }
+        int shift = 64 - SUB_BUCKET_BITS - Long.numberOfLeadingZeros(value);
+        return shift * HALF + (int) (value >>> shift);
+    }
+
+    static long lowestValue(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = index / HALF - 1;
+        return (long) (index - shift * HALF) << shift;
+    }
+
+    static long highestValue(int index) {
+        return index < SUB_BUCKETS ? index : lowestValue(index + 1) - 1;
+    }
+
+    /**
+     * Returns the counts recorded since the histogram was created.
+     */
+    public Snapshot snapshot() {
+        long[] current = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            current[i] = counts.get(i);
+        }
+        return new Snapshot(current);
+    }
+
+    /**
+     * Returns the counts recorded since the previous call of this method,
+     * or since the histogram was created.
+     */
+    public synchronized Snapshot intervalSnapshot() {
+        long[] current = new long[BUCKETS];
+        long[] interval = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            current[i] = counts.get(i);
+            interval[i] = current[i] - previous[i];
+        }
+        previous = current;
+        return new Snapshot(interval);
+    }
+
+    /**
+     * The counts of a histogram at some point in time.
+     */
+    public static final class Snapshot {
+        private final long[] counts;
+        private final long count;
+
+        Snapshot(long[] counts) {
+            this.counts = counts;
+            long count = 0;
+            for (long c : counts) {
+                count += c;
+            }
+            this.count = count;
+        }
+
+        /** Returns the number of values recorded */
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * Returns the value below or at which the given percentage of the
+         * recorded values fall, in nanoseconds, or 0 if none were recorded.
+         *
+         * @param percentile  the percentage, between 0 and 100
+         */
+        public long getValueAtPercentile(double percentile) {
+            if (percentile < 0 || percentile > 100) {
+                throw new IllegalArgumentException("percentile must be between 0 and 100: " + percentile);
+            }
+            long target = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= target) {
+                    return highestValue(i);
+                }
+            }
+            return 0;
+        }
+
+        /**
+         * Returns the number of recorded values at or below the given
+         * value, up to the precision of the histogram.
+         *
+         * @param nanos  the value in nanoseconds
+         */
+        public long getCountAtOrBelow(long nanos) {
+            if (nanos < 0) {
+                return 0;
+            }
+            int last = index(nanos);
+            long seen = 0;
+            for (int i = 0; i <= last; i++) {
+                seen += counts[i];
+            }
+            return seen;
+        }
+
+        /** Returns the mean of the recorded values, in nanoseconds */
+        public double getMean() {
+            if (count == 0) {
+                return 0;
+            }
+            double sum = 0;
+            for (int i = 0; i < counts.length; i++) {
+                if (counts[i] != 0) {
+                    sum += counts[i] * ((lowestValue(i) + highestValue(i)) / 2.0);
+                }
+            }
+            return sum / count;
+        }
+
+        /** Returns the largest recorded value, in nanoseconds */
+        public long getMax() {
+            for (int i = counts.length - 1; i >= 0; i--) {
+                if (counts[i] != 0) {
+                    return highestValue(i);
+                }
+            }
+            return 0;
+        }
+
+        @Override
+        public String toString() {
+            long micros = TimeUnit.MICROSECONDS.toNanos(1);
+            return "count=" + count + ", p50=" + getValueAtPercentile(50) / micros
+                    + "us, p99=" + getValueAtPercentile(99) / micros
+                    + "us, max=" + getMax() / micros + "us";
+        }
+    }
+}
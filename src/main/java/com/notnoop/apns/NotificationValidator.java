@@ -0,0 +1,177 @@
+/*
+ *  Copyright 2009, Mahmood Ali.
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions are
+ *  met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ *      copyright notice, this list of conditions and the following disclaimer
+ *      in the documentation and/or other materials provided with the
+ *      distribution.
+ *    * Neither the name of Mahmood Ali. nor the names of its
+ *      contributors may be used to endorse or promote products derived from
+ *      this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ *  A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ *  OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ *  SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ *  LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ *  OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.notnoop.apns;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.notnoop.apns.internal.Utilities;
+
+/**
+ * Checks notifications locally for the errors Apple would reject them
+ * with, as a rejected notification makes Apple close the connection, which
+ * then has to be reestablished and the notifications sent after the
+ * rejected one resent.
+ *
+ * A service built with {@link ApnsServiceBuilder#withValidation(NotificationValidator)}
+ * fails invalid notifications through {@link ApnsDelegate#messageSendFailed}
+ * without sending them.  The validator counts the notifications it accepts
+ * and rejects, by error.
+ *
+ * Tokens pushed as Strings are checked before they are decoded.  Those
+ * that aren't valid Hex are counted as rejected with
+ * {@link DeliveryError#INVALID_TOKEN}; no notification is built for them,
+ * and the delegate is passed a {@code null} notification with an
+ * {@link com.notnoop.exceptions.InvalidDeviceTokenException} holding the
+ * token as pushed.
+ *
+ * This class is thread-safe.
+ */
+public class NotificationValidator {
+    private final int maxPayloadLength;
+    private final AtomicLong accepted = new AtomicLong();
+    private final Map<DeliveryError, AtomicLong> rejected = new EnumMap<DeliveryError, AtomicLong>(DeliveryError.class);
+
+    /**
+     * Constructs a validator allowing payloads of up to 2048 bytes.
+     */
+    public NotificationValidator() {
+        this(Utilities.MAX_PAYLOAD_LENGTH);
+    }
+
+    /**
+     * Constructs a validator allowing payloads of up to
+     * {@code maxPayloadLength} bytes.
+     *
+     * @param maxPayloadLength  the maximum payload length in bytes
+     */
+    public NotificationValidator(int maxPayloadLength) {
+        this.maxPayloadLength = maxPayloadLength;
+        for (DeliveryError error : DeliveryError.values()) {
+            rejected.put(error, new AtomicLong());
+        }
+    }
+
+    /**
+     * Checks the notification, and counts it as accepted or rejected.
+     *
+     * @param notification  the notification to check
+     * @return the error Apple would reject the notification with, or
+     *      {@code null} if it is valid
+     */
+    public DeliveryError validate(ApnsNotification notification) {
+        DeliveryError error = check(notification);
+        if (error == null) {
+            accepted.incrementAndGet();
+        } else {
+            rejected.get(error).incrementAndGet();
+        }
+        return error;
+    }
+
+    /**
+     * Checks a device token pushed as a String, before it is decoded, and
+     * counts it as rejected if it isn't valid Hex.  A valid token is
+     * counted once its notification is validated.
+     *
+     * @param deviceToken   the token to check
+     * @return {@link DeliveryError#INVALID_TOKEN} if the token isn't valid
+     *      Hex, or {@code null}
+     */
+    public DeliveryError validateToken(String deviceToken) {
+        if (deviceToken != null && Utilities.isHex(deviceToken)) {
+            return null;
+        }
+        rejected.get(DeliveryError.INVALID_TOKEN).incrementAndGet();
+        return DeliveryError.INVALID_TOKEN;
+    }
+
+    private DeliveryError check(ApnsNotification notification) {
+        final int tokenLength;
+        final int payloadLength;
+        if (notification instanceof EnhancedApnsNotification) {
+            EnhancedApnsNotification enhanced = (EnhancedApnsNotification) notification;
+            tokenLength = enhanced.getDeviceTokenLength();
+            payloadLength = enhanced.getPayloadLength();
+        } else {
+            tokenLength = notification.getDeviceToken().length;
+            payloadLength = notification.getPayload().length;
+        }
+
+        if (tokenLength == 0) {
+            return DeliveryError.MISSING_DEVICE_TOKEN;
+        } else if (tokenLength != DeviceToken.LENGTH) {
+            return DeliveryError.INVALID_TOKEN_SIZE;
+        } else if (payloadLength == 0) {
+            return DeliveryError.MISSING_PAYLOAD;
+        } else if (payloadLength > maxPayloadLength) {
+            return DeliveryError.INVALID_PAYLOAD_SIZE;
+        }
+        return null;
+    }
+
+    /**
+     * Returns the number of notifications found valid
+     */
+    public long getAcceptedCount() {
+        return accepted.get();
+    }
+
+    /**
+     * Returns the number of notifications rejected with the given error
+     */
+    public long getRejectedCount(DeliveryError error) {
+        return rejected.get(error).get();
+    }
+
+    /**
+     * Returns the number of notifications rejected, for any error
+     */
+    public long getRejectedCount() {
+        long count = 0;
+        for (AtomicLong c : rejected.values()) {
+            count += c.get();
+        }
+        return count;
+    }
+
+    /**
+     * Returns a snapshot of the number of notifications rejected, by error
+     */
+    public Map<DeliveryError, Long> getRejectedCounts() {
+        Map<DeliveryError, Long> counts = new EnumMap<DeliveryError, Long>(DeliveryError.class);
+        for (Map.Entry<DeliveryError, AtomicLong> entry : rejected.entrySet()) {
+            counts.put(entry.getKey(), entry.getValue().get());
+        }
+        return counts;
+    }
+}
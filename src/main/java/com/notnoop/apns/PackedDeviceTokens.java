@@ -0,0 +1,168 @@
+/*
+ *  Copyright 2009, Mahmood Ali.
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions are
+ *  met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ *      copyright notice, this list of conditions and the following disclaimer
+ *      in the documentation and/or other materials provided with the
+ *      distribution.
+ *    * Neither the name of Mahmood Ali. nor the names of its
+ *      contributors may be used to endorse or promote products derived from
+ *      this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ *  A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ *  OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ *  SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ *  LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ *  OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.notnoop.apns;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import com.notnoop.apns.internal.Utilities;
+
+/**
+ * Represents a list of device tokens packed into a single buffer of
+ * consecutive {@value DeviceToken#LENGTH} bytes tokens.
+ *
+ * Large audiences can be held in flat memory, or memory mapped from a
+ * file, rather than as one array or String per token, and bulk pushed
+ * with {@link ApnsService#push(PackedDeviceTokens, byte[], int)}.
+ *
+ * Instances are immutable and can be shared between threads, as long as
+ * the underlying array or buffer isn't modified.
+ */
+public final class PackedDeviceTokens {
+    private final ByteBuffer buffer;
+    private final int size;
+
+    private PackedDeviceTokens(ByteBuffer buffer) {
+        if (buffer.remaining() % DeviceToken.LENGTH != 0) {
+            throw new IllegalArgumentException("Packed tokens length " + buffer.remaining()
+                    + " is not a multiple of " + DeviceToken.LENGTH);
+        }
+        this.buffer = buffer.slice();
+        this.size = buffer.remaining() / DeviceToken.LENGTH;
+    }
+
+    /**
+     * Returns the tokens packed in the array, which isn't copied.
+     *
+     * @param tokens    the consecutive binary device tokens
+     * @return the packed device tokens
+     * @throws IllegalArgumentException if the length of the array isn't a
+     *      multiple of the token length
+     */
+    public static PackedDeviceTokens wrap(byte[] tokens) {
+        return new PackedDeviceTokens(ByteBuffer.wrap(tokens));
+    }
+
+    /**
+     * Returns the tokens packed between the position and the limit of the
+     * buffer, which isn't copied.
+     *
+     * @param tokens    the consecutive binary device tokens
+     * @return the packed device tokens
+     * @throws IllegalArgumentException if the number of remaining bytes
+     *      isn't a multiple of the token length
+     */
+    public static PackedDeviceTokens wrap(ByteBuffer tokens) {
+        return new PackedDeviceTokens(tokens.asReadOnlyBuffer());
+    }
+
+    /**
+     * Maps the file of packed tokens into memory, so that the tokens are
+     * paged in by the operating system as they are read.
+     *
+     * @param file  the file of consecutive binary device tokens
+     * @return the packed device tokens
+     * @throws IOException if the file can't be read
+     * @throws IllegalArgumentException if the file length isn't a multiple
+     *      of the token length
+     */
+    public static PackedDeviceTokens map(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            return new PackedDeviceTokens(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        } finally {
+            Utilities.close(raf);
+        }
+    }
+
+    /**
+     * Returns the number of tokens
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Copies the token at {@code index} into {@code dst}, which must have
+     * room for {@value DeviceToken#LENGTH} bytes.
+     *
+     * @param index the index of the token
+     * @param dst   the array receiving the token
+     */
+    public void get(int index, byte[] dst) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+        int offset = index * DeviceToken.LENGTH;
+        for (int i = 0; i < DeviceToken.LENGTH; i++) {
+            dst[i] = buffer.get(offset + i);
+        }
+    }
+
+    /**
+     * Returns the token at {@code index}.
+     *
+     * @param index the index of the token
+     * @return the device token
+     */
+    public DeviceToken get(int index) {
+        byte[] token = new byte[DeviceToken.LENGTH];
+        get(index, token);
+        return DeviceToken.wrap(token);
+    }
+
+    /**
+     * Returns the tokens from {@code fromIndex}, inclusive, to
+     * {@code toIndex}, exclusive, sharing this buffer.
+     *
+     * @param fromIndex the index of the first token
+     * @param toIndex   the index following the last token
+     * @return the packed device tokens in the range
+     */
+    public PackedDeviceTokens range(int fromIndex, int toIndex) {
+        if (fromIndex < 0 || toIndex > size || fromIndex > toIndex) {
+            throw new IndexOutOfBoundsException("Range: " + fromIndex + ".." + toIndex + ", Size: " + size);
+        }
+        ByteBuffer range = buffer.duplicate();
+        range.position(fromIndex * DeviceToken.LENGTH);
+        range.limit(toIndex * DeviceToken.LENGTH);
+        return new PackedDeviceTokens(range);
+    }
+
+    @Override
+    public String toString() {
+        return "PackedDeviceTokens(Size=" + size + ")";
+    }
+}
@@ -30,11 +30,16 @@
  */
 package com.notnoop.apns;
 
+import java.nio.charset.Charset;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.notnoop.apns.internal.JsonEncoding;
 import com.notnoop.apns.internal.Utilities;
 
 /**
@@ -43,11 +48,21 @@ import com.notnoop.apns.internal.Utilities;
  */
 public final class PayloadBuilder {
     private static final ObjectMapper mapper = new ObjectMapper();
+    private static final Charset UTF8 = Charset.forName("UTF-8");
 
     private final Map<String, Object> root;
     private final Map<String, Object> aps;
     private final Map<String, Object> customAlert;
 
+    private static final String APS = "aps";
+    private static final int APS_KEY_LENGTH = JsonEncoding.stringLength(APS) + 1;
+    private static final int ALERT_KEY_LENGTH = JsonEncoding.stringLength("alert") + 1;
+
+    private final Set<String> mutableRootKeys;
+    private int rootLength;
+    private int apsLength;
+    private int alertLength;
+
     /**
      * Constructs a new instance of {@code PayloadBuilder}
      */
@@ -55,6 +70,7 @@ public final class PayloadBuilder {
         root = new HashMap<String, Object>();
         aps = new HashMap<String, Object>();
         customAlert = new HashMap<String, Object>();
+        mutableRootKeys = new HashSet<String>();
     }
 
     /**
@@ -65,7 +81,7 @@ public final class PayloadBuilder {
      * @return  this
      */
     public PayloadBuilder alertBody(final String alert) {
-        customAlert.put("body", alert);
+        putAlert("body", alert);
         return this;
     }
 
@@ -79,7 +95,7 @@ public final class PayloadBuilder {
      * @return  this
      */
     public PayloadBuilder alertTitle(final String title) {
-        customAlert.put("title", title);
+        putAlert("title", title);
         return this;
     }
 
@@ -90,7 +106,7 @@ public final class PayloadBuilder {
      * @return  this
      */
     public PayloadBuilder localizedTitleKey(final String key) {
-        customAlert.put("title-loc-key", key);
+        putAlert("title-loc-key", key);
         return this;
     }
 
@@ -101,7 +117,7 @@ public final class PayloadBuilder {
      * @return  this
      */
     public PayloadBuilder localizedTitleArguments(final Collection<String> arguments) {
-        customAlert.put("title-loc-args", arguments);
+        putAlert("title-loc-args", arguments == null ? null : new ArrayList<String>(arguments));
         return this;
     }
 
@@ -122,7 +138,7 @@ public final class PayloadBuilder {
      * @return  this
      */
     public PayloadBuilder alertAction(final String action) {
-        customAlert.put("action", action);
+        putAlert("action", action);
         return this;
     }
 
@@ -137,7 +153,7 @@ public final class PayloadBuilder {
      * @return  this
      */
     public PayloadBuilder urlArgs(final String... urlArgs){
-        aps.put("url-args", urlArgs);
+        putAps("url-args", urlArgs == null ? null : urlArgs.clone());
         return this;
     }
 
@@ -152,9 +168,9 @@ public final class PayloadBuilder {
      */
     public PayloadBuilder sound(final String sound) {
         if (sound != null) {
-            aps.put("sound", sound);
+            putAps("sound", sound);
         } else {
-            aps.remove("sound");
+            removeAps("sound");
         }
         return this;
     }
@@ -171,9 +187,9 @@ public final class PayloadBuilder {
      */
     public PayloadBuilder category(final String category) {
         if (category != null) {
-            aps.put("category", category);
+            putAps("category", category);
         } else {
-            aps.remove("category");
+            removeAps("category");
         }
         return this;
     }
@@ -190,7 +206,7 @@ public final class PayloadBuilder {
      * @return  this
      */
     public PayloadBuilder badge(final int badge) {
-        aps.put("badge", badge);
+        putAps("badge", badge);
         return this;
     }
 
@@ -221,7 +237,7 @@ public final class PayloadBuilder {
      * @return  this
      */
     public PayloadBuilder actionKey(final String actionKey) {
-        customAlert.put("action-loc-key", actionKey);
+        putAlert("action-loc-key", actionKey);
         return this;
     }
 
@@ -245,7 +261,7 @@ public final class PayloadBuilder {
      * @return this
      */
     public PayloadBuilder forNewsstand() {
-        aps.put("content-available", 1);
+        putAps("content-available", 1);
         return this;
     }
 
@@ -258,7 +274,7 @@ public final class PayloadBuilder {
      * @return this
      */
     public PayloadBuilder instantDeliveryOrSilentNotification() {
-        aps.put("content-available", 1);
+        putAps("content-available", 1);
         return this;
     }
 
@@ -270,7 +286,7 @@ public final class PayloadBuilder {
      * @return  this
      */
     public PayloadBuilder localizedKey(final String key) {
-        customAlert.put("loc-key", key);
+        putAlert("loc-key", key);
         return this;
     }
 
@@ -283,7 +299,7 @@ public final class PayloadBuilder {
      * @return  this
      */
     public PayloadBuilder localizedArguments(final Collection<String> arguments) {
-        customAlert.put("loc-args", arguments);
+        putAlert("loc-args", arguments == null ? null : new ArrayList<String>(arguments));
         return this;
     }
 
@@ -307,7 +323,7 @@ public final class PayloadBuilder {
      * @return  this
      */
     public PayloadBuilder launchImage(final String launchImage) {
-        customAlert.put("launch-image", launchImage);
+        putAlert("launch-image", launchImage);
         return this;
     }
 
@@ -325,7 +341,7 @@ public final class PayloadBuilder {
      * @return  this
      */
     public PayloadBuilder customField(final String key, final Object value) {
-        root.put(key, value);
+        putRoot(key, value);
         return this;
     }
 
@@ -346,7 +362,9 @@ public final class PayloadBuilder {
      * @return  this
      */
     public PayloadBuilder customFields(final Map<String, ?> values) {
-        root.putAll(values);
+        for (final Map.Entry<String, ?> entry : values.entrySet()) {
+            putRoot(entry.getKey(), entry.getValue());
+        }
         return this;
     }
 
@@ -356,7 +374,38 @@ public final class PayloadBuilder {
      * @return the length of the payload
      */
     public int length() {
-        return copy().buildBytes().length;
+        int length = 2 + rootLength;
+        int entries = root.size();
+        for (final String key : mutableRootKeys) {
+            length += JsonEncoding.stringLength(key) + 1 + encodedLength(root.get(key));
+        }
+
+        if (root.containsKey("mdm")) {
+            // sent as is, including any "aps" left by an earlier build()
+            if (root.containsKey(APS)) {
+                length += APS_KEY_LENGTH + encodedLength(root.get(APS));
+            }
+            return length + Math.max(entries - 1, 0);
+        }
+
+        // "aps":{...}
+        int apsEntries = aps.size() - (aps.containsKey("alert") ? 1 : 0);
+        int apsObjectLength = 2 + apsLength;
+        if (!customAlert.isEmpty()) {
+            if (customAlert.size() == 1 && customAlert.containsKey("body")) {
+                apsObjectLength += JsonEncoding.entryLength("alert", customAlert.get("body"));
+            } else {
+                apsObjectLength += ALERT_KEY_LENGTH + 2 + alertLength + (customAlert.size() - 1);
+            }
+            apsEntries++;
+        }
+        apsObjectLength += Math.max(apsEntries - 1, 0);
+        length += APS_KEY_LENGTH + apsObjectLength;
+        if (!root.containsKey(APS)) {
+            entries++;
+        }
+
+        return length + entries - 1;
     }
 
     /**
@@ -413,7 +462,7 @@ public final class PayloadBuilder {
         body = Utilities.truncateWhenUTF8(body, acceptableSize) + postfix;
 
         // set it back
-        customAlert.put("body", body);
+        putAlert("body", body);
 
         // calculate the length again
         currLength = length();
@@ -421,7 +470,7 @@ public final class PayloadBuilder {
         if(currLength > payloadLength) {
             // string is still too long, just remove the body as the body is
             // anyway not the cause OR the postfix might be too long
-            customAlert.remove("body");
+            removeAlert("body");
         }
 
         return this;
@@ -466,15 +515,7 @@ public final class PayloadBuilder {
      * @return  the String representation as expected by Apple
      */
     public String build() {
-        if (!root.containsKey("mdm")) {
-            insertCustomAlert();
-            root.put("aps", aps);
-        }
-        try {
-            return mapper.writeValueAsString(root);
-        } catch (final Exception e) {
-            throw new RuntimeException(e);
-        }
+        return new String(buildBytes(), UTF8);
     }
 
     private void insertCustomAlert() {
@@ -501,7 +542,34 @@ public final class PayloadBuilder {
      * @return the bytes as expected by Apple
      */
     public byte[] buildBytes() {
-        return Utilities.toUTF8Bytes(build());
+        if (!root.containsKey("mdm")) {
+            insertCustomAlert();
+            root.put(APS, aps);
+        }
+
+        final byte[] result = new byte[length()];
+        int pos = 0;
+        result[pos++] = '{';
+        for (final Map.Entry<String, Object> entry : root.entrySet()) {
+            if (pos > 1) {
+                result[pos++] = ',';
+            }
+            final String key = entry.getKey();
+            final Object value = entry.getValue();
+            pos = JsonEncoding.writeString(key, result, pos);
+            result[pos++] = ':';
+            if (value == aps || !APS.equals(key) && !mutableRootKeys.contains(key)) {
+                pos = JsonEncoding.writeValue(value, result, pos);
+            } else {
+                pos = writeValue(value, result, pos);
+            }
+        }
+        result[pos++] = '}';
+
+        if (pos != result.length) {
+            throw new IllegalStateException("Payload was modified while being built");
+        }
+        return result;
     }
 
     @Override
@@ -509,12 +577,14 @@ public final class PayloadBuilder {
         return build();
     }
 
-    private PayloadBuilder(final Map<String, Object> root,
-            final Map<String, Object> aps,
-            final Map<String, Object> customAlert) {
-        this.root = new HashMap<String, Object>(root);
-        this.aps = new HashMap<String, Object>(aps);
-        this.customAlert = new HashMap<String, Object>(customAlert);
+    private PayloadBuilder(final PayloadBuilder other) {
+        this.root = new HashMap<String, Object>(other.root);
+        this.aps = new HashMap<String, Object>(other.aps);
+        this.customAlert = new HashMap<String, Object>(other.customAlert);
+        this.mutableRootKeys = new HashSet<String>(other.mutableRootKeys);
+        this.rootLength = other.rootLength;
+        this.apsLength = other.apsLength;
+        this.alertLength = other.alertLength;
     }
 
     /**
@@ -523,7 +593,96 @@ public final class PayloadBuilder {
      * @return a copy of this builder
      */
     public PayloadBuilder copy() {
-        return new PayloadBuilder(root, aps, customAlert);
+        return new PayloadBuilder(this);
+    }
+
+    /*
+     * The encoded length of the entries is kept up to date as they are
+     * put, so that length() doesn't need to serialize the payload.  The
+     * "aps" entry of root and the "alert" entry of aps are excluded, as
+     * build() generates them.  Custom fields whose value may still be
+     * modified by the caller are measured by length() instead.
+     */
+
+    private void putRoot(final String key, final Object value) {
+        if (!APS.equals(key)) {
+            rootLength -= immutableEntryLength(key);
+            mutableRootKeys.remove(key);
+            if (JsonEncoding.isImmutable(value)) {
+                rootLength += JsonEncoding.entryLength(key, value);
+            } else {
+                mutableRootKeys.add(key);
+            }
+        }
+        root.put(key, value);
+    }
+
+    private int immutableEntryLength(final String key) {
+        if (!root.containsKey(key) || mutableRootKeys.contains(key)) {
+            return 0;
+        }
+        return JsonEncoding.entryLength(key, root.get(key));
+    }
+
+    /*
+     * Values not supported by JsonEncoding, only possible as custom fields,
+     * are serialized by Jackson.
+     */
+
+    private static int encodedLength(final Object value) {
+        final int length = JsonEncoding.valueLength(value);
+        return length != JsonEncoding.UNKNOWN ? length : toJson(value).length;
+    }
+
+    private static int writeValue(final Object value, final byte[] dst, final int pos) {
+        if (JsonEncoding.valueLength(value) != JsonEncoding.UNKNOWN) {
+            return JsonEncoding.writeValue(value, dst, pos);
+        }
+        final byte[] json = toJson(value);
+        System.arraycopy(json, 0, dst, pos, json.length);
+        return pos + json.length;
+    }
+
+    private static byte[] toJson(final Object value) {
+        try {
+            return mapper.writeValueAsBytes(value);
+        } catch (final Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private void putAps(final String key, final Object value) {
+        apsLength += removeEntry(aps, key) + JsonEncoding.entryLength(key, value);
+        aps.put(key, value);
+    }
+
+    private void removeAps(final String key) {
+        apsLength += removeEntry(aps, key);
+    }
+
+    private void putAlert(final String key, final Object value) {
+        alertLength += removeEntry(customAlert, key) + JsonEncoding.entryLength(key, value);
+        customAlert.put(key, value);
+    }
+
+    private void removeAlert(final String key) {
+        alertLength += removeEntry(customAlert, key);
+    }
+
+    private static int removeEntry(final Map<String, Object> map, final String key) {
+        if (!map.containsKey(key)) {
+            return 0;
+        }
+        return -JsonEncoding.entryLength(key, map.remove(key));
+    }
+
+    /**
+     * Compiles the payload into a template, see {@link PayloadTemplate}.
+     *
+     * @return the compiled template
+     */
+    public PayloadTemplate toTemplate() {
+        return PayloadTemplate.compile(this);
     }
 
     /**
@@ -0,0 +1,327 @@
+/*
+ *  Copyright 2009, Mahmood Ali.
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions are
+ *  met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ *      copyright notice, this list of conditions and the following disclaimer
+ *      in the documentation and/or other materials provided with the
+ *      distribution.
+ *    * Neither the name of Mahmood Ali. nor the names of its
+ *      contributors may be used to endorse or promote products derived from
+ *      this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ *  A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ *  OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ *  SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ *  LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ *  OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.notnoop.apns;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import com.notnoop.apns.internal.JsonEncoding;
+
+/**
+ * A payload compiled once into its encoded form, with placeholders to be
+ * filled in for every notification.
+ *
+ * Placeholders are set as ordinary values of the {@link PayloadBuilder}:
+ * <ul>
+ *   <li>{@code ${name}} anywhere within a String value is replaced by the
+ *   escaped text of the value passed for {@code name}</li>
+ *   <li>{@code #{name}} as a whole String value is replaced by the number
+ *   passed for {@code name}, without quotes (e.g. for badges set through
+ *   {@code customField})</li>
+ * </ul>
+ * Placeholders are only recognised in values; keys must be fixed.
+ *
+ * <pre>
+ *   PayloadTemplate template = APNS.newPayload()
+ *           .alertBody("Hi ${name}, your order has shipped")
+ *           .customField("order", "#{order}")
+ *           .toTemplate();
+ *
+ *   byte[] payload = template.render("Tim", 42);
+ * </pre>
+ *
+ * Values are passed in the order of {@link #getSlotNames()}.  Rendering
+ * only copies the precompiled fragments and encodes the values, so no
+ * intermediate objects are created.  Instances are immutable and may be
+ * shared between threads.
+ */
+public final class PayloadTemplate {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final byte[][] fragments;
+    private final int[] slots;
+    private final boolean[] numeric;
+    private final List<String> names;
+    private final int fixedLength;
+
+    private PayloadTemplate(final byte[][] fragments, final int[] slots,
+            final boolean[] numeric, final List<String> names) {
+        this.fragments = fragments;
+        this.slots = slots;
+        this.numeric = numeric;
+        this.names = Collections.unmodifiableList(names);
+        int length = 0;
+        for (final byte[] fragment : fragments) {
+            length += fragment.length;
+        }
+        this.fixedLength = length;
+    }
+
+    /**
+     * Compiles the payload currently described by the builder.  Later
+     * modifications of the builder don't affect the template.
+     *
+     * @param builder the payload containing the placeholders
+     * @return the compiled template
+     * @throws IllegalArgumentException if a placeholder name is used both
+     *          as a text and as a numeric placeholder, or if a placeholder
+     *          appears in a key
+     */
+    public static PayloadTemplate compile(final PayloadBuilder builder) {
+        final byte[] encoded = builder.copy().buildBytes();
+
+        final List<byte[]> fragments = new ArrayList<byte[]>();
+        final List<Integer> slots = new ArrayList<Integer>();
+        final List<Boolean> numeric = new ArrayList<Boolean>();
+        final List<String> names = new ArrayList<String>();
+
+        // The open objects and arrays, and the last byte outside strings;
+        // the encoding has no whitespace, so a string is a key exactly
+        // when it directly follows '{' or ',' within an object
+        final StringBuilder containers = new StringBuilder();
+        byte previous = 0;
+        boolean inString = false;
+        boolean inKey = false;
+
+        int start = 0;
+        int i = 0;
+        while (i < encoded.length) {
+            final byte b = encoded[i];
+            if (inString) {
+                if (b == '\\') {
+                    i += 2;
+                    continue;
+                }
+                if (b == '"') {
+                    inString = false;
+                    previous = b;
+                } else if (b == '$') {
+                    final int end = nameEnd(encoded, i + 1);
+                    if (end >= 0) {
+                        final String name = new String(encoded, i + 2, end - i - 2, UTF8);
+                        checkValuePosition(inKey, name);
+                        fragments.add(Arrays.copyOfRange(encoded, start, i));
+                        addSlot(name, false, slots, numeric, names);
+                        start = i = end + 1;
+                        continue;
+                    }
+                }
+                i++;
+                continue;
+            }
+
+            if (b == '"') {
+                final int depth = containers.length();
+                inKey = depth > 0 && containers.charAt(depth - 1) == '{' && (previous == '{' || previous == ',');
+                inString = true;
+                if (i + 1 < encoded.length && encoded[i + 1] == '#') {
+                    final int end = nameEnd(encoded, i + 2);
+                    if (end >= 0 && end + 1 < encoded.length && encoded[end + 1] == '"') {
+                        // A whole "#{name}" string is replaced, quotes included
+                        final String name = new String(encoded, i + 3, end - i - 3, UTF8);
+                        checkValuePosition(inKey, name);
+                        fragments.add(Arrays.copyOfRange(encoded, start, i));
+                        addSlot(name, true, slots, numeric, names);
+                        start = i = end + 2;
+                        inString = false;
+                        previous = '"';
+                        continue;
+                    }
+                }
+            } else if (b == '{' || b == '[') {
+                containers.append((char) b);
+            } else if ((b == '}' || b == ']') && containers.length() > 0) {
+                containers.setLength(containers.length() - 1);
+            }
+            previous = b;
+            i++;
+        }
+        fragments.add(Arrays.copyOfRange(encoded, start, encoded.length));
+
+        final int[] slotArray = new int[slots.size()];
+        final boolean[] numericArray = new boolean[slots.size()];
+        for (int j = 0; j < slotArray.length; j++) {
+            slotArray[j] = slots.get(j);
+            numericArray[j] = numeric.get(j);
+        }
+        return new PayloadTemplate(fragments.toArray(new byte[fragments.size()][]),
+                slotArray, numericArray, names);
+    }
+
+    private static void checkValuePosition(final boolean inKey, final String name) {
+        if (inKey) {
+            throw new IllegalArgumentException("Placeholders are not supported in keys: " + name);
+        }
+    }
+
+    private static void addSlot(final String name, final boolean isNumber, final List<Integer> slots,
+            final List<Boolean> numeric, final List<String> names) {
+        int slot = names.indexOf(name);
+        if (slot < 0) {
+            slot = names.size();
+            names.add(name);
+        } else {
+            for (int j = 0; j < slots.size(); j++) {
+                if (slots.get(j) == slot && numeric.get(j) != isNumber) {
+                    throw new IllegalArgumentException("Placeholder used both as text and number: " + name);
+                }
+            }
+        }
+        slots.add(slot);
+        numeric.add(isNumber);
+    }
+
+    /**
+     * Returns the index of the closing brace of a {@code {name}}
+     * placeholder starting at {@code i}, or -1 if there is none.
+     */
+    private static int nameEnd(final byte[] encoded, final int i) {
+        if (i >= encoded.length || encoded[i] != '{') {
+            return -1;
+        }
+        for (int j = i + 1; j < encoded.length; j++) {
+            final byte b = encoded[j];
+            if (b == '}') {
+                return j > i + 1 ? j : -1;
+            }
+            if (!(b >= 'a' && b <= 'z' || b >= 'A' && b <= 'Z'
+                    || b >= '0' && b <= '9' || b == '_' || b == '.' || b == '-')) {
+                return -1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the names of the placeholders, in the order their values are
+     * expected by {@link #length(Object...)} and {@link #render(Object...)}.
+     *
+     * @return the placeholder names
+     */
+    public List<String> getSlotNames() {
+        return names;
+    }
+
+    /**
+     * Returns the exact length of the payload rendered with the given
+     * values.
+     *
+     * @param values the placeholder values
+     * @return the length in bytes
+     */
+    public int length(final Object... values) {
+        checkValues(values);
+        int length = fixedLength;
+        for (int i = 0; i < slots.length; i++) {
+            final Object value = values[slots[i]];
+            length += numeric[i] ? JsonEncoding.longLength(toLong(value))
+                    : JsonEncoding.escapedLength(toText(value));
+        }
+        return length;
+    }
+
+    /**
+     * Renders the payload with the given values.
+     *
+     * @param values the placeholder values
+     * @return the payload bytes
+     */
+    public byte[] render(final Object... values) {
+        final byte[] result = new byte[length(values)];
+        renderTo(result, 0, values);
+        return result;
+    }
+
+    /**
+     * Renders the payload with the given values into {@code dst}, which must
+     * have room for {@link #length(Object...)} bytes from {@code offset}.
+     *
+     * @param dst the destination array
+     * @param offset the position of the first byte in {@code dst}
+     * @param values the placeholder values
+     * @return the number of bytes written
+     */
+    public int renderTo(final byte[] dst, final int offset, final Object... values) {
+        checkValues(values);
+        int pos = offset;
+        for (int i = 0; i < slots.length; i++) {
+            pos = copy(fragments[i], dst, pos);
+            final Object value = values[slots[i]];
+            if (numeric[i]) {
+                pos = JsonEncoding.writeLong(toLong(value), dst, pos);
+            } else {
+                pos = JsonEncoding.writeEscaped(toText(value), dst, pos);
+            }
+        }
+        pos = copy(fragments[slots.length], dst, pos);
+        return pos - offset;
+    }
+
+    private static int copy(final byte[] fragment, final byte[] dst, final int pos) {
+        System.arraycopy(fragment, 0, dst, pos, fragment.length);
+        return pos + fragment.length;
+    }
+
+    private void checkValues(final Object[] values) {
+        if (values.length != names.size()) {
+            throw new IllegalArgumentException("Expected " + names.size()
+                    + " values for " + names + " but got " + values.length);
+        }
+    }
+
+    private static CharSequence toText(final Object value) {
+        if (value == null) {
+            throw new IllegalArgumentException("Placeholder value cannot be null");
+        }
+        return value instanceof CharSequence ? (CharSequence) value : value.toString();
+    }
+
+    private static long toLong(final Object value) {
+        if (value instanceof Integer || value instanceof Long
+                || value instanceof Short || value instanceof Byte) {
+            return ((Number) value).longValue();
+        }
+        throw new IllegalArgumentException("Numeric placeholder requires an integral number: " + value);
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < slots.length; i++) {
+            sb.append(new String(fragments[i], UTF8));
+            sb.append(numeric[i] ? "#{" : "${").append(names.get(slots[i])).append('}');
+        }
+        sb.append(new String(fragments[slots.length], UTF8));
+        return sb.toString();
+    }
+}
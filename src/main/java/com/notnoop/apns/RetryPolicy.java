@@ -0,0 +1,105 @@
+/*
+ *  Copyright 2009, Mahmood Ali.
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions are
+ *  met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ *      copyright notice, this list of conditions and the following disclaimer
+ *      in the documentation and/or other materials provided with the
+ *      distribution.
+ *    * Neither the name of Mahmood Ali. nor the names of its
+ *      contributors may be used to endorse or promote products derived from
+ *      this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ *  A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ *  OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ *  SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ *  LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ *  OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.notnoop.apns;
+
+import com.notnoop.apns.internal.RetryPolicies;
+
+/**
+ * Represents the policy for resending notifications that were rejected
+ * by the APNS server.
+ *
+ * When error detection is enabled, the library learns which notification
+ * caused the server to close the connection.  The policy decides, based
+ * on the reported {@link DeliveryError}, whether that notification is
+ * sent again with the rest of the resend buffer, or reported to
+ * {@link ApnsDelegate#messageSendFailed(ApnsNotification, Throwable)}.
+ *
+ * The library keeps track of the attempts itself, so implementations
+ * are expected to be immutable and may be shared between connections.
+ */
+public interface RetryPolicy {
+    /**
+     * Returns {@code true} if the library should send the rejected
+     * notification again.
+     *
+     * @param error  the error reported by the server
+     * @param attempts  the number of times the notification has been
+     *                  rejected so far, starting with 1
+     * @return true if the notification should be resent
+     */
+    public boolean shouldRetry(DeliveryError error, int attempts);
+
+    /**
+     * Returns the delay in milliseconds to wait before resending the
+     * rejected notification.
+     *
+     * @param error  the error reported by the server
+     * @param attempts  the number of times the notification has been
+     *                  rejected so far, starting with 1
+     * @return the delay in milliseconds
+     */
+    public int getRetryDelay(DeliveryError error, int attempts);
+
+    /**
+     * Types of the library provided retry policies.
+     */
+    public enum Provided {
+        /**
+         * Never resend a rejected notification.
+         * <p>
+         * This is the default, and matches the behaviour of previous
+         * versions of the library.
+         */
+        NEVER {
+            @Override
+            public RetryPolicy newObject() {
+                return new RetryPolicies.Never();
+            }
+        },
+
+        /**
+         * Resends notifications rejected with the transient
+         * {@link DeliveryError#PROCESSING_ERROR} up to three times,
+         * waiting one second longer before each attempt.
+         * <p>
+         * Notifications rejected for any other reason, e.g. an invalid
+         * token, are reported as failed right away.
+         */
+        TRANSIENT_ERRORS {
+            @Override
+            public RetryPolicy newObject() {
+                return new RetryPolicies.OnErrors(3, 1000, DeliveryError.PROCESSING_ERROR);
+            }
+        };
+
+        abstract RetryPolicy newObject();
+    }
+}
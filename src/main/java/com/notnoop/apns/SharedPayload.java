@@ -0,0 +1,138 @@
+/*
+ *  Copyright 2009, Mahmood Ali.
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions are
+ *  met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ *      copyright notice, this list of conditions and the following disclaimer
+ *      in the documentation and/or other materials provided with the
+ *      distribution.
+ *    * Neither the name of Mahmood Ali. nor the names of its
+ *      contributors may be used to endorse or promote products derived from
+ *      this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ *  A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ *  OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ *  SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ *  LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ *  OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.notnoop.apns;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+import com.notnoop.apns.internal.Utilities;
+
+/**
+ * A payload encoded once as the tail of the enhanced notification frame,
+ * its length followed by its bytes, and shared by all the notifications
+ * sending it.  Pass one to
+ * {@link EnhancedApnsNotification#EnhancedApnsNotification(int, int, byte[], SharedPayload)}
+ * to send the same payload to many devices without copying it for each.
+ *
+ * Instances are immutable: the payload is copied once when created and
+ * never exposed afterwards.
+ */
+public final class SharedPayload {
+    private final byte[] tail;
+    private final int hash;
+
+    private SharedPayload(final byte[] tail) {
+        this.tail = tail;
+        this.hash = Arrays.hashCode(payload());
+    }
+
+    /**
+     * Copies the payload into a new shared frame tail.
+     *
+     * @param payload the payload bytes
+     * @return the shared payload
+     */
+    public static SharedPayload of(final byte[] payload) {
+        final byte[] tail = new byte[2 + payload.length];
+        tail[0] = (byte) (payload.length >>> 8);
+        tail[1] = (byte) payload.length;
+        System.arraycopy(payload, 0, tail, 2, payload.length);
+        return new SharedPayload(tail);
+    }
+
+    /**
+     * Encodes the payload with a {@code UTF-8} encoding.
+     *
+     * @param payload the payload message
+     * @return the shared payload
+     */
+    public static SharedPayload of(final String payload) {
+        return of(Utilities.toUTF8Bytes(payload));
+    }
+
+    /**
+     * Returns the payload length, excluding the length prefix
+     *
+     * @return the length in bytes
+     */
+    public int length() {
+        return tail.length - 2;
+    }
+
+    /**
+     * Returns a copy of the payload bytes
+     *
+     * @return the payload bytes
+     */
+    public byte[] payload() {
+        return Utilities.copyOfRange(tail, 2, tail.length);
+    }
+
+    /**
+     * Writes the length prefixed payload.
+     *
+     * @param out the stream to write to
+     * @throws IOException if the stream fails
+     */
+    public void writeTo(final OutputStream out) throws IOException {
+        out.write(tail);
+    }
+
+    /**
+     * Copies the length prefixed payload into {@code dst}.
+     *
+     * @param dst the destination array
+     * @param pos the position of the first byte in {@code dst}
+     * @return the offset following the last byte written
+     */
+    public int writeTo(final byte[] dst, final int pos) {
+        System.arraycopy(tail, 0, dst, pos, tail.length);
+        return pos + tail.length;
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof SharedPayload)) {
+            return false;
+        }
+        final SharedPayload o = (SharedPayload) obj;
+        return hash == o.hash && Arrays.equals(tail, o.tail);
+    }
+}
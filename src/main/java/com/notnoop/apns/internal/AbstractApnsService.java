@@ -33,33 +33,49 @@ package com.notnoop.apns.internal;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import com.notnoop.apns.ApnsNotification;
 import com.notnoop.apns.ApnsService;
+import com.notnoop.apns.BulkPushSummary;
+import com.notnoop.apns.DeviceToken;
 import com.notnoop.apns.EnhancedApnsNotification;
+import com.notnoop.apns.InactiveDeviceListener;
+import com.notnoop.apns.PackedDeviceTokens;
+import com.notnoop.apns.SharedPayload;
 import com.notnoop.exceptions.NetworkIOException;
 
 abstract class AbstractApnsService implements ApnsService {
     private ApnsFeedbackConnection feedback;
     private AtomicInteger c = new AtomicInteger();
 
+    /** Number of notifications handed to sendAll() at once by streamed bulk pushes */
+    static final int BULK_CHUNK_SIZE = 1000;
+
     public AbstractApnsService(ApnsFeedbackConnection feedback) {
         this.feedback = feedback;
     }
 
     public EnhancedApnsNotification push(String deviceToken, String payload) throws NetworkIOException {
+        if (!acceptToken(deviceToken)) {
+            return null;
+        }
         EnhancedApnsNotification notification =
-            new EnhancedApnsNotification(c.incrementAndGet(), EnhancedApnsNotification.MAXIMUM_EXPIRY, deviceToken, payload);
+            new EnhancedApnsNotification(c.incrementAndGet(), EnhancedApnsNotification.MAXIMUM_EXPIRY, decodeToken(deviceToken), SharedPayload.of(payload));
         push(notification);
         return notification;
     }
 
     public EnhancedApnsNotification push(String deviceToken, String payload, Date expiry) throws NetworkIOException {
+        if (!acceptToken(deviceToken)) {
+            return null;
+        }
         EnhancedApnsNotification notification =
-            new EnhancedApnsNotification(c.incrementAndGet(), (int)(expiry.getTime() / 1000), deviceToken, payload);
+            new EnhancedApnsNotification(c.incrementAndGet(), (int)(expiry.getTime() / 1000), decodeToken(deviceToken), SharedPayload.of(payload));
         push(notification);
         return notification;
     }
@@ -78,57 +94,255 @@ abstract class AbstractApnsService implements ApnsService {
         return notification;
     }
 
+    public EnhancedApnsNotification push(DeviceToken deviceToken, byte[] payload) throws NetworkIOException {
+        EnhancedApnsNotification notification =
+            new EnhancedApnsNotification(c.incrementAndGet(), EnhancedApnsNotification.MAXIMUM_EXPIRY, deviceToken, payload);
+        push(notification);
+        return notification;
+    }
+
+    public EnhancedApnsNotification push(DeviceToken deviceToken, byte[] payload, int expiry) throws NetworkIOException {
+        EnhancedApnsNotification notification =
+            new EnhancedApnsNotification(c.incrementAndGet(), expiry, deviceToken, payload);
+        push(notification);
+        return notification;
+    }
+
     public Collection<EnhancedApnsNotification> push(Collection<String> deviceTokens, String payload) throws NetworkIOException {
-        byte[] messageBytes = Utilities.toUTF8Bytes(payload);
+        SharedPayload sharedPayload = SharedPayload.of(payload);
         List<EnhancedApnsNotification> notifications = new ArrayList<EnhancedApnsNotification>(deviceTokens.size());
         for (String deviceToken : deviceTokens) {
-            byte[] dtBytes = Utilities.decodeHex(deviceToken);
+            if (!acceptToken(deviceToken)) {
+                continue;
+            }
+            byte[] dtBytes = decodeToken(deviceToken);
             EnhancedApnsNotification notification =
-                new EnhancedApnsNotification(c.incrementAndGet(), EnhancedApnsNotification.MAXIMUM_EXPIRY, dtBytes, messageBytes);
+                new EnhancedApnsNotification(c.incrementAndGet(), EnhancedApnsNotification.MAXIMUM_EXPIRY, dtBytes, sharedPayload);
             notifications.add(notification);
-            push(notification);
         }
+        pushAll(notifications);
         return notifications;
     }
 
     public Collection<EnhancedApnsNotification> push(Collection<String> deviceTokens, String payload, Date expiry) throws NetworkIOException {
-        byte[] messageBytes = Utilities.toUTF8Bytes(payload);
+        SharedPayload sharedPayload = SharedPayload.of(payload);
         List<EnhancedApnsNotification> notifications = new ArrayList<EnhancedApnsNotification>(deviceTokens.size());
         for (String deviceToken : deviceTokens) {
-            byte[] dtBytes = Utilities.decodeHex(deviceToken);
+            if (!acceptToken(deviceToken)) {
+                continue;
+            }
+            byte[] dtBytes = decodeToken(deviceToken);
             EnhancedApnsNotification notification =
-                new EnhancedApnsNotification(c.incrementAndGet(), (int)(expiry.getTime() / 1000), dtBytes, messageBytes);
+                new EnhancedApnsNotification(c.incrementAndGet(), (int)(expiry.getTime() / 1000), dtBytes, sharedPayload);
             notifications.add(notification);
-            push(notification);
         }
+        pushAll(notifications);
         return notifications;
     }
 
     public Collection<EnhancedApnsNotification> push(Collection<byte[]> deviceTokens, byte[] payload) throws NetworkIOException {
+        SharedPayload sharedPayload = SharedPayload.of(payload);
         List<EnhancedApnsNotification> notifications = new ArrayList<EnhancedApnsNotification>(deviceTokens.size());
         for (byte[] deviceToken : deviceTokens) {
             EnhancedApnsNotification notification =
-                new EnhancedApnsNotification(c.incrementAndGet(), EnhancedApnsNotification.MAXIMUM_EXPIRY, deviceToken, payload);
+                new EnhancedApnsNotification(c.incrementAndGet(), EnhancedApnsNotification.MAXIMUM_EXPIRY, deviceToken, sharedPayload);
             notifications.add(notification);
-            push(notification);
         }
+        pushAll(notifications);
         return notifications;
     }
 
     public Collection<EnhancedApnsNotification> push(Collection<byte[]> deviceTokens, byte[] payload, int expiry) throws NetworkIOException {
+        SharedPayload sharedPayload = SharedPayload.of(payload);
         List<EnhancedApnsNotification> notifications = new ArrayList<EnhancedApnsNotification>(deviceTokens.size());
         for (byte[] deviceToken : deviceTokens) {
             EnhancedApnsNotification notification =
-                new EnhancedApnsNotification(c.incrementAndGet(), expiry, deviceToken, payload);
+                new EnhancedApnsNotification(c.incrementAndGet(), expiry, deviceToken, sharedPayload);
             notifications.add(notification);
-            push(notification);
         }
+        pushAll(notifications);
         return notifications;
     }
 
-    public abstract void push(ApnsNotification message) throws NetworkIOException;
+    public BulkPushSummary push(Iterator<String> deviceTokens, String payload) throws NetworkIOException {
+        return push(new HexTokens(deviceTokens), SharedPayload.of(payload), EnhancedApnsNotification.MAXIMUM_EXPIRY);
+    }
+
+    public BulkPushSummary push(Iterator<String> deviceTokens, String payload, Date expiry) throws NetworkIOException {
+        return push(new HexTokens(deviceTokens), SharedPayload.of(payload), (int)(expiry.getTime() / 1000));
+    }
+
+    public BulkPushSummary push(Iterator<byte[]> deviceTokens, byte[] payload) throws NetworkIOException {
+        return push(deviceTokens, SharedPayload.of(payload), EnhancedApnsNotification.MAXIMUM_EXPIRY);
+    }
+
+    public BulkPushSummary push(Iterator<byte[]> deviceTokens, byte[] payload, int expiry) throws NetworkIOException {
+        return push(deviceTokens, SharedPayload.of(payload), expiry);
+    }
+
+    public BulkPushSummary push(PackedDeviceTokens deviceTokens, byte[] payload) throws NetworkIOException {
+        return push(new PackedTokens(deviceTokens), SharedPayload.of(payload), EnhancedApnsNotification.MAXIMUM_EXPIRY);
+    }
+
+    public BulkPushSummary push(PackedDeviceTokens deviceTokens, byte[] payload, int expiry) throws NetworkIOException {
+        return push(new PackedTokens(deviceTokens), SharedPayload.of(payload), expiry);
+    }
+
+    private BulkPushSummary push(Iterator<byte[]> deviceTokens, SharedPayload payload, int expiry) throws NetworkIOException {
+        List<EnhancedApnsNotification> chunk = new ArrayList<EnhancedApnsNotification>(BULK_CHUNK_SIZE);
+        long count = 0;
+        int first = 0;
+        int last = 0;
+        while (deviceTokens.hasNext()) {
+            last = c.incrementAndGet();
+            if (count++ == 0) {
+                first = last;
+            }
+            chunk.add(new EnhancedApnsNotification(last, expiry, deviceTokens.next(), payload));
+            if (chunk.size() == BULK_CHUNK_SIZE) {
+                pushAll(chunk);
+                chunk.clear();
+            }
+        }
+        if (!chunk.isEmpty()) {
+            pushAll(chunk);
+        }
+        return new BulkPushSummary(count, first, last);
+    }
+
+    /**
+     * Sends the notification if {@link #accept(ApnsNotification)} accepts
+     * it.
+     */
+    public void push(ApnsNotification message) throws NetworkIOException {
+        if (accept(message)) {
+            send(message);
+        }
+    }
+
+    /**
+     * Checks the notification before it is sent.  A rejected notification
+     * isn't sent, and should be reported to the delegate by this method.
+     *
+     * @return true if the notification is to be sent
+     */
+    protected boolean accept(ApnsNotification message) {
+        return true;
+    }
+
+    /**
+     * Sends, or hands off for sending, an accepted notification.
+     */
+    protected abstract void send(ApnsNotification message) throws NetworkIOException;
+
+    /**
+     * Sends the accepted notifications of a bulk push.
+     */
+    void pushAll(List<? extends ApnsNotification> messages) throws NetworkIOException {
+        List<ApnsNotification> accepted = new ArrayList<ApnsNotification>(messages.size());
+        for (ApnsNotification message : messages) {
+            if (accept(message)) {
+                accepted.add(message);
+            }
+        }
+        sendAll(accepted);
+    }
+
+    /**
+     * Sends all the accepted notifications of a bulk push, returning once
+     * they have all been sent or handed off.  Services able to send them
+     * more efficiently than one at a time, e.g. concurrently, override this.
+     */
+    protected void sendAll(List<? extends ApnsNotification> messages) throws NetworkIOException {
+        for (ApnsNotification message : messages) {
+            send(message);
+        }
+    }
+
+    /**
+     * Checks a device token pushed as Hex before it is decoded.  No
+     * notification is built for a rejected token, which should be
+     * reported to the delegate by this method.
+     *
+     * @return true if the token is to be decoded and pushed
+     */
+    protected boolean acceptToken(String deviceToken) {
+        return true;
+    }
+
+    /**
+     * Decodes a Hex device token.
+     */
+    protected byte[] decodeToken(String hex) {
+        return Utilities.decodeHex(hex);
+    }
+
+    /**
+     * Reads the packed device tokens into the same array, which is fine
+     * as notifications copy the token they're given.
+     */
+    private static final class PackedTokens implements Iterator<byte[]> {
+        private final PackedDeviceTokens tokens;
+        private final byte[] token = new byte[DeviceToken.LENGTH];
+        private int index;
+
+        PackedTokens(PackedDeviceTokens tokens) {
+            this.tokens = tokens;
+        }
+
+        public boolean hasNext() {
+            return index < tokens.size();
+        }
+
+        public byte[] next() {
+            tokens.get(index++, token);
+            return token;
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    /**
+     * Decodes the Hex device tokens as they are iterated, skipping the
+     * ones {@link #acceptToken(String)} rejects
+     */
+    private final class HexTokens implements Iterator<byte[]> {
+        private final Iterator<String> tokens;
+        private String next;
+        private boolean found;
+
+        HexTokens(Iterator<String> tokens) {
+            this.tokens = tokens;
+        }
+
+        public boolean hasNext() {
+            while (!found && tokens.hasNext()) {
+                next = tokens.next();
+                found = acceptToken(next);
+            }
+            return found;
+        }
+
+        public byte[] next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            found = false;
+            return decodeToken(next);
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
 
     public Map<String, Date> getInactiveDevices() throws NetworkIOException {
         return feedback.getInactiveDevices();
     }
+
+    public int getInactiveDevices(InactiveDeviceListener listener, int batchSize) throws NetworkIOException {
+        return feedback.getInactiveDevices(listener, batchSize);
+    }
 }
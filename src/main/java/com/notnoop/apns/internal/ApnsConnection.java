@@ -31,6 +31,7 @@
 package com.notnoop.apns.internal;
 
 import java.io.Closeable;
+import java.util.Collection;
 
 import com.notnoop.apns.ApnsNotification;
 import com.notnoop.exceptions.NetworkIOException;
@@ -42,6 +43,12 @@ public interface ApnsConnection extends Closeable {
 
     void sendMessage(ApnsNotification m) throws NetworkIOException;
 
+    /**
+     * Sends all the messages, possibly concurrently, returning once they
+     * have all been sent.
+     */
+    void sendMessages(Collection<? extends ApnsNotification> messages) throws NetworkIOException;
+
     void testConnection() throws NetworkIOException;
 
     ApnsConnection copy();
@@ -30,28 +30,44 @@
  */
 package com.notnoop.apns.internal;
 
+import java.io.BufferedOutputStream;
 import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.InetSocketAddress;
 import java.net.Proxy;
 import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Queue;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.net.SocketFactory;
+import javax.net.ssl.HandshakeCompletedEvent;
+import javax.net.ssl.HandshakeCompletedListener;
 import javax.net.ssl.SSLHandshakeException;
+import javax.net.ssl.SSLSocket;
 import javax.net.ssl.SSLSocketFactory;
 import com.notnoop.apns.ApnsDelegate;
+import com.notnoop.apns.ApnsMetrics;
 import com.notnoop.apns.StartSendingApnsDelegate;
 import com.notnoop.apns.ApnsNotification;
 import com.notnoop.apns.DeliveryError;
 import com.notnoop.apns.EnhancedApnsNotification;
 import com.notnoop.apns.ReconnectPolicy;
+import com.notnoop.apns.RetryPolicy;
 import com.notnoop.exceptions.ApnsDeliveryErrorException;
 import com.notnoop.exceptions.NetworkIOException;
 import org.slf4j.Logger;
@@ -70,14 +86,28 @@ public class ApnsConnectionImpl implements ApnsConnection {
     private final String proxyUsername;
     private final String proxyPassword;
     private final ReconnectPolicy reconnectPolicy;
+    private final RetryPolicy retryPolicy;
+    private final InFlightWindow window;
+    private final ApnsMetrics metrics;
     private final ApnsDelegate delegate;
     private int cacheLength;
     private final boolean errorDetection;
     private final ThreadFactory threadFactory;
     private final boolean autoAdjustCacheLength;
-    private final ConcurrentLinkedQueue<ApnsNotification> cachedNotifications, notificationsBuffer;
+    private final ConcurrentLinkedQueue<Pending> cachedNotifications, notificationsBuffer;
+    /** The number of sends in the cache; the size of the queue takes a traversal */
+    private final AtomicInteger cached = new AtomicInteger();
+    private final AtomicLong duplicates = new AtomicLong();
     private Socket socket;
+    private Socket outputSocket;
+    private OutputStream output;
+    /** Reused for the head of every notification written, guarded by this */
+    private final byte[] head = new byte[EnhancedApnsNotification.HEAD_LENGTH];
     private final AtomicInteger threadId = new AtomicInteger(0);
+    /** Resends held back retries once due, created on first use; guarded by this */
+    private ScheduledExecutorService retryScheduler;
+    private ScheduledFuture<?> scheduledDrain;
+    private long scheduledDrainAt;
 
     public ApnsConnectionImpl(SocketFactory factory, String host, int port) {
         this(factory, host, port, new ReconnectPolicies.Never(), ApnsDelegate.EMPTY);
@@ -96,10 +126,21 @@ public class ApnsConnectionImpl implements ApnsConnection {
     public ApnsConnectionImpl(SocketFactory factory, String host, int port, Proxy proxy, String proxyUsername, String proxyPassword,
                               ReconnectPolicy reconnectPolicy, ApnsDelegate delegate, boolean errorDetection, ThreadFactory tf, int cacheLength,
                               boolean autoAdjustCacheLength, int readTimeout, int connectTimeout) {
+        this(factory, host, port, proxy, proxyUsername, proxyPassword, reconnectPolicy, delegate, errorDetection, tf, cacheLength,
+                autoAdjustCacheLength, readTimeout, connectTimeout, new RetryPolicies.Never(), null, null);
+    }
+
+    public ApnsConnectionImpl(SocketFactory factory, String host, int port, Proxy proxy, String proxyUsername, String proxyPassword,
+                              ReconnectPolicy reconnectPolicy, ApnsDelegate delegate, boolean errorDetection, ThreadFactory tf, int cacheLength,
+                              boolean autoAdjustCacheLength, int readTimeout, int connectTimeout, RetryPolicy retryPolicy,
+                              InFlightWindow window, ApnsMetrics metrics) {
         this.factory = factory;
         this.host = host;
         this.port = port;
         this.reconnectPolicy = reconnectPolicy;
+        this.retryPolicy = retryPolicy == null ? new RetryPolicies.Never() : retryPolicy;
+        this.window = window;
+        this.metrics = metrics;
         this.delegate = delegate == null ? ApnsDelegate.EMPTY : delegate;
         this.proxy = proxy;
         this.errorDetection = errorDetection;
@@ -110,8 +151,154 @@ public class ApnsConnectionImpl implements ApnsConnection {
         this.connectTimeout = connectTimeout;
         this.proxyUsername = proxyUsername;
         this.proxyPassword = proxyPassword;
-        cachedNotifications = new ConcurrentLinkedQueue<ApnsNotification>();
-        notificationsBuffer = new ConcurrentLinkedQueue<ApnsNotification>();
+        cachedNotifications = new ConcurrentLinkedQueue<Pending>();
+        notificationsBuffer = new ConcurrentLinkedQueue<Pending>();
+    }
+
+    /**
+     * A single send of a notification, tracked through the cache and the
+     * resend buffer.  The same notification object may be sent more than
+     * once, but each send is in at most one of the two queues.
+     */
+    private static final class Pending {
+        static final int NONE = 0, CACHED = 1, QUEUED = 2;
+
+        /** An updater rather than an AtomicInteger, saving an object per send */
+        private static final AtomicIntegerFieldUpdater<Pending> PLACE =
+                AtomicIntegerFieldUpdater.newUpdater(Pending.class, "place");
+
+        final ApnsNotification notification;
+        volatile int place = NONE;
+        /** Only accessed by monitoring threads, handed over through the queues */
+        int rejections;
+        /** When the notification was last written, if metrics are recorded */
+        volatile long writtenAt;
+        /** The System.nanoTime() before which a retry is held back, handed over through the buffer */
+        long dueAt;
+
+        Pending(ApnsNotification notification) {
+            this.notification = notification;
+        }
+
+        /**
+         * Moves this send from one queue to another, returning false if
+         * it is not where the caller found it.
+         */
+        boolean move(int from, int to) {
+            return PLACE.compareAndSet(this, from, to);
+        }
+    }
+
+    /**
+     * Moves a send from the cache to the resend buffer, unless it is
+     * already queued or in flight.
+     */
+    private boolean queueForResend(Pending pending) {
+        if (!move(pending, Pending.CACHED, Pending.QUEUED)) {
+            duplicate(pending);
+            return false;
+        }
+        notificationsBuffer.add(pending);
+        return true;
+    }
+
+    /**
+     * Moves a send between the cache and the resend buffer, keeping track
+     * of the number of cached notifications.
+     */
+    private boolean move(Pending pending, int from, int to) {
+        if (!pending.move(from, to)) {
+            return false;
+        }
+        if (from != to && (from == Pending.CACHED || to == Pending.CACHED)) {
+            int delta = to == Pending.CACHED ? 1 : -1;
+            cached.addAndGet(delta);
+            if (metrics != null) {
+                metrics.cached(delta);
+            }
+        }
+        return true;
+    }
+
+    private void duplicate(Pending pending) {
+        duplicates.incrementAndGet();
+        if (metrics != null) {
+            metrics.duplicateSuppressed();
+        }
+        logger.debug("Suppressed duplicate resend of message id {}", pending.notification.getIdentifier());
+    }
+
+    private void failed(ApnsNotification notification, Throwable e) {
+        if (metrics != null) {
+            metrics.failed();
+        }
+        delegate.messageSendFailed(notification, e);
+    }
+
+    /**
+     * Returns the number of duplicate resends suppressed, where the same
+     * send was found both in the cache and in the resend buffer.
+     */
+    public long getSuppressedDuplicates() {
+        return duplicates.get();
+    }
+
+    /**
+     * Consults the retry policy about a notification the server rejected,
+     * holding it back for the requested delay if it should be resent.
+     */
+    private boolean shouldRetry(Pending pending, DeliveryError error) {
+        ApnsNotification notification = pending.notification;
+        int attempts = ++pending.rejections;
+        if (!retryPolicy.shouldRetry(error, attempts)) {
+            return false;
+        }
+        int delay = retryPolicy.getRetryDelay(error, attempts);
+        logger.debug("Retrying message id {} after {} ms, attempt {}", new Object[] { notification.getIdentifier(), delay, attempts });
+        if (FlightRecorder.ENABLED) {
+            FlightRecorder.RETRY.commit(error.name(), notification.getIdentifier(), attempts, delay);
+        }
+        pending.dueAt = delay > 0 ? System.nanoTime() + delay * 1000000L : 0;
+        return true;
+    }
+
+    /**
+     * Schedules a drain of the resend buffer for when a held back retry is
+     * due, unless one is already scheduled by then, so that neither the
+     * monitoring thread nor the senders wait.
+     */
+    private synchronized void drainWhenDue(long dueAt) {
+        if (scheduledDrain != null) {
+            if (scheduledDrainAt - dueAt <= 0) {
+                return;
+            }
+            scheduledDrain.cancel(false);
+        }
+        if (retryScheduler == null) {
+            ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "ApnsRetryScheduler-" + threadId.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            // Don't keep a thread per idle connection
+            scheduler.setKeepAliveTime(1, TimeUnit.SECONDS);
+            scheduler.allowCoreThreadTimeOut(true);
+            retryScheduler = scheduler;
+        }
+        scheduledDrainAt = dueAt;
+        // In nanoseconds, as a delay rounded down to milliseconds could fire before the retry is due
+        scheduledDrain = retryScheduler.schedule(new Runnable() {
+            public void run() {
+                drainScheduled();
+            }
+        }, dueAt - System.nanoTime(), TimeUnit.NANOSECONDS);
+    }
+
+    private synchronized void drainScheduled() {
+        scheduledDrain = null;
+        drainBuffer();
     }
 
     private ThreadFactory defaultThreadFactory() {
@@ -128,8 +315,20 @@ public class ApnsConnectionImpl implements ApnsConnection {
         };
     }
 
+    /**
+     * Closes the socket and cancels the scheduled resend of held back
+     * retries; they are sent with the next notification, if any.
+     */
     public synchronized void close() {
         Utilities.close(socket);
+        if (scheduledDrain != null) {
+            scheduledDrain.cancel(false);
+            scheduledDrain = null;
+        }
+        if (retryScheduler != null) {
+            retryScheduler.shutdownNow();
+            retryScheduler = null;
+        }
     }
 
     private void monitorSocket(final Socket socketToMonitor) {
@@ -153,7 +352,9 @@ public class ApnsConnectionImpl implements ApnsConnection {
 
                     byte[] bytes = new byte[EXPECTED_SIZE];
                     while (in != null && readPacket(in, bytes)) {
-                        logger.debug("Error-response packet {}", Utilities.encodeHex(bytes));
+                        if (logger.isDebugEnabled()) {
+                            logger.debug("Error-response packet {}", Utilities.encodeHex(bytes));
+                        }
                         // Quickly close socket, so we won't ever try to send push notifications
                         // using the defective socket.
                         Utilities.close(socketToMonitor);
@@ -168,27 +369,48 @@ public class ApnsConnectionImpl implements ApnsConnection {
                         int id = Utilities.parseBytes(bytes[2], bytes[3], bytes[4], bytes[5]);
 
                         logger.debug("Closed connection cause={}; id={}", e, id);
+                        if (metrics != null) {
+                            metrics.errorResponse(e);
+                        }
+                        if (window != null) {
+                            window.clear();
+                        }
                         delegate.connectionClosed(e, id);
 
-                        Queue<ApnsNotification> tempCache = new LinkedList<ApnsNotification>();
-                        ApnsNotification notification = null;
+                        Queue<Pending> tempCache = new LinkedList<Pending>();
+                        Pending pending = null;
                         boolean foundNotification = false;
 
                         while (!cachedNotifications.isEmpty()) {
-                            notification = cachedNotifications.poll();
-                            logger.debug("Candidate for removal, message id {}", notification.getIdentifier());
-
-                            if (notification.getIdentifier() == id) {
-                                logger.debug("Bad message found {}", notification.getIdentifier());
+                            pending = cachedNotifications.poll();
+                            logger.debug("Candidate for removal, message id {}", pending.notification.getIdentifier());
+
+                            if (pending.notification.getIdentifier() == id) {
+                                logger.debug("Bad message found {}", pending.notification.getIdentifier());
+                                if (metrics != null) {
+                                    metrics.latency(ApnsMetrics.Stage.ERROR_RESPONSE, System.nanoTime() - pending.writtenAt);
+                                }
                                 foundNotification = true;
                                 break;
                             }
-                            tempCache.add(notification);
+                            tempCache.add(pending);
                         }
 
+                        Pending retry = null;
                         if (foundNotification) {
-                            logger.debug("delegate.messageSendFailed, message id {}", notification.getIdentifier());
-                            delegate.messageSendFailed(notification, new ApnsDeliveryErrorException(e));
+                            for (Pending delivered : tempCache) {
+                                move(delivered, Pending.CACHED, Pending.NONE);
+                            }
+                            if (shouldRetry(pending, e)) {
+                                retry = pending;
+                                if (metrics != null) {
+                                    metrics.retried();
+                                }
+                            } else {
+                                move(pending, Pending.CACHED, Pending.NONE);
+                                logger.debug("delegate.messageSendFailed, message id {}", pending.notification.getIdentifier());
+                                failed(pending.notification, new ApnsDeliveryErrorException(e));
+                            }
                         } else {
                             cachedNotifications.addAll(tempCache);
                             int resendSize = tempCache.size();
@@ -198,19 +420,27 @@ public class ApnsConnectionImpl implements ApnsConnection {
                                 delegate.cacheLengthExceeded(cacheLength);
                             }
                             logger.debug("delegate.messageSendFailed, unknown id");
-                            delegate.messageSendFailed(null, new ApnsDeliveryErrorException(e));
+                            failed(null, new ApnsDeliveryErrorException(e));
                         }
 
                         int resendSize = 0;
 
-                        while (!cachedNotifications.isEmpty()) {
-
+                        if (retry != null && queueForResend(retry)) {
                             resendSize++;
-                            final ApnsNotification resendNotification = cachedNotifications.poll();
-                            logger.debug("Queuing for resend {}", resendNotification.getIdentifier());
-                            notificationsBuffer.add(resendNotification);
+                            logger.debug("Queuing for retry {}", retry.notification.getIdentifier());
+                        }
+
+                        while (!cachedNotifications.isEmpty()) {
+                            final Pending resend = cachedNotifications.poll();
+                            if (queueForResend(resend)) {
+                                resendSize++;
+                                logger.debug("Queuing for resend {}", resend.notification.getIdentifier());
+                            }
                         }
                         logger.debug("resending {} notifications", resendSize);
+                        if (FlightRecorder.ENABLED) {
+                            FlightRecorder.ERROR_RESPONSE.commit(e.name(), id, foundNotification, resendSize);
+                        }
                         delegate.notificationsResent(resendSize);
                     }
                     logger.debug("Monitoring input stream closed by EOF");
@@ -260,12 +490,18 @@ public class ApnsConnectionImpl implements ApnsConnection {
     private synchronized Socket getOrCreateSocket(boolean resend) throws NetworkIOException {
         if (reconnectPolicy.shouldReconnect()) {
             logger.debug("Reconnecting due to reconnectPolicy dictating it");
+            if (FlightRecorder.ENABLED) {
+                FlightRecorder.RECONNECT.commit(host, port);
+            }
             Utilities.close(socket);
             socket = null;
         }
 
         if (socket == null || socket.isClosed()) {
             try {
+                final long connecting = System.nanoTime();
+                FlightRecorder.Event connect = FlightRecorder.CONNECT.begin();
+                final FlightRecorder.Event handshake = FlightRecorder.HANDSHAKE.begin();
                 if (proxy == null) {
                     socket = factory.createSocket(host, port);
                     logger.debug("Connected new socket {}", socket);
@@ -291,12 +527,32 @@ public class ApnsConnectionImpl implements ApnsConnection {
 
                 socket.setSoTimeout(readTimeout);
                 socket.setKeepAlive(true);
+                if (connect != null) {
+                    connect.commit(host, port, proxy != null);
+                }
+
+                if ((metrics != null || handshake != null) && socket instanceof SSLSocket) {
+                    // The handshake happens on the first write; time it without forcing it earlier
+                    ((SSLSocket) socket).addHandshakeCompletedListener(new HandshakeCompletedListener() {
+                        public void handshakeCompleted(HandshakeCompletedEvent event) {
+                            if (metrics != null) {
+                                metrics.latency(ApnsMetrics.Stage.HANDSHAKE, System.nanoTime() - connecting);
+                            }
+                            if (handshake != null) {
+                                handshake.commit(host, port);
+                            }
+                        }
+                    });
+                }
 
                 if (errorDetection) {
                     monitorSocket(socket);
                 }
 
                 reconnectPolicy.reconnected();
+                if (metrics != null) {
+                    metrics.reconnected();
+                }
                 logger.debug("Made a new connection to APNS");
             } catch (IOException e) {
                 logger.error("Couldn't connect to APNS server", e);
@@ -311,81 +567,171 @@ public class ApnsConnectionImpl implements ApnsConnection {
     private static final int RETRIES = 3;
 
     public synchronized void sendMessage(ApnsNotification m) throws NetworkIOException {
-        sendMessage(m, false);
+        sendMessage(new Pending(m), false);
         drainBuffer();
     }
 
-    private synchronized void sendMessage(ApnsNotification m, boolean fromBuffer) throws NetworkIOException {
-        logger.debug("sendMessage {} fromBuffer: {}", m, fromBuffer);
+    public synchronized void sendMessages(Collection<? extends ApnsNotification> messages) throws NetworkIOException {
+        for (ApnsNotification m : messages) {
+            sendMessage(m);
+        }
+    }
+
+    private synchronized void sendMessage(Pending pending, boolean fromBuffer) throws NetworkIOException {
+        final ApnsNotification m = pending.notification;
+        // Guarded, as bindings may allocate for the arguments even when disabled
+        if (logger.isDebugEnabled()) {
+            logger.debug("sendMessage {} fromBuffer: {}", m, fromBuffer);
+        }
 
         if (delegate instanceof StartSendingApnsDelegate) {
             ((StartSendingApnsDelegate) delegate).startSending(m, fromBuffer);
         }
 
+        if (window != null) {
+            window.reserve();
+        }
+
+        boolean written = false;
         int attempts = 0;
-        while (true) {
-            try {
-                attempts++;
-                Socket socket = getOrCreateSocket(fromBuffer);
-                socket.getOutputStream().write(m.marshall());
-                socket.getOutputStream().flush();
-                cacheNotification(m);
+        try {
+            while (true) {
+                try {
+                    attempts++;
+                    Socket socket = getOrCreateSocket(fromBuffer);
+                    FlightRecorder.Event write = FlightRecorder.WRITE.begin();
+                    long start = metrics != null ? System.nanoTime() : 0;
+                    OutputStream out = outputStream(socket);
+                    if (m instanceof EnhancedApnsNotification) {
+                        ((EnhancedApnsNotification) m).writeTo(out, head);
+                    } else {
+                        out.write(m.marshall());
+                    }
+                    out.flush();
+                    written = true;
+                    if (window != null) {
+                        window.sent();
+                    }
+                    if (write != null) {
+                        write.commit(m.getIdentifier(), fromBuffer, attempts);
+                    }
+                    if (metrics != null) {
+                        pending.writtenAt = System.nanoTime();
+                        metrics.written(pending.writtenAt - start);
+                        metrics.sent(fromBuffer);
+                    }
+                    cacheNotification(pending);
 
-                delegate.messageSent(m, fromBuffer);
+                    delegate.messageSent(m, fromBuffer);
 
-                //logger.debug("Message \"{}\" sent", m);
-                attempts = 0;
-                break;
-            } catch (SSLHandshakeException e) {
-                // No use retrying this, it's dead Jim
-                throw new NetworkIOException(e);
-            } catch (IOException e) {
-                Utilities.close(socket);
-                if (attempts >= RETRIES) {
-                    logger.error("Couldn't send message after " + RETRIES + " retries." + m, e);
-                    delegate.messageSendFailed(m, e);
-                    Utilities.wrapAndThrowAsRuntimeException(e);
-                }
-                // The first failure might be due to closed connection (which in turn might be caused by
-                // a message containing a bad token), so don't delay for the first retry.
-                //
-                // Additionally we don't want to spam the log file in this case, only after the second retry
-                // which uses the delay.
-
-                if (attempts != 1) {
-                    logger.info("Failed to send message " + m + "... trying again after delay", e);
-                    Utilities.sleep(DELAY_IN_MS);
+                    //logger.debug("Message \"{}\" sent", m);
+                    attempts = 0;
+                    break;
+                } catch (SSLHandshakeException e) {
+                    // No use retrying this, it's dead Jim
+                    throw new NetworkIOException(e, fromBuffer);
+                } catch (IOException e) {
+                    Utilities.close(socket);
+                    if (attempts >= RETRIES) {
+                        logger.error("Couldn't send message after " + RETRIES + " retries." + m, e);
+                        failed(m, e);
+                        Utilities.wrapAndThrowAsRuntimeException(e);
+                    }
+                    // The first failure might be due to closed connection (which in turn might be caused by
+                    // a message containing a bad token), so don't delay for the first retry.
+                    //
+                    // Additionally we don't want to spam the log file in this case, only after the second retry
+                    // which uses the delay.
+
+                    if (attempts != 1) {
+                        logger.info("Failed to send message " + m + "... trying again after delay", e);
+                        Utilities.sleep(DELAY_IN_MS);
+                    }
                 }
             }
+        } finally {
+            if (!written && window != null) {
+                window.cancel();
+            }
         }
     }
 
+    /**
+     * Returns a buffered stream for the socket, so that a notification is
+     * written to the socket as a whole, even when written in parts.
+     */
+    private OutputStream outputStream(Socket socket) throws IOException {
+        if (socket != outputSocket) {
+            output = new BufferedOutputStream(socket.getOutputStream());
+            outputSocket = socket;
+        }
+        return output;
+    }
+
+    /**
+     * Resends the buffered notifications, but for the retries that are not
+     * due yet, which stay in the buffer until a scheduled drain.
+     */
     private synchronized void drainBuffer() {
-        logger.debug("draining buffer");
+        if (logger.isDebugEnabled()) {
+            logger.debug("draining buffer");
+        }
+        List<Pending> heldBack = null;
+        long nextDue = 0;
         while (!notificationsBuffer.isEmpty()) {
-            final ApnsNotification notification = notificationsBuffer.poll();
+            final Pending pending = notificationsBuffer.poll();
+            if (pending.dueAt != 0 && pending.dueAt - System.nanoTime() > 0) {
+                if (heldBack == null) {
+                    heldBack = new ArrayList<Pending>(1);
+                    nextDue = pending.dueAt;
+                } else if (pending.dueAt - nextDue < 0) {
+                    nextDue = pending.dueAt;
+                }
+                heldBack.add(pending);
+                continue;
+            }
+            if (!move(pending, Pending.QUEUED, Pending.NONE)) {
+                duplicate(pending);
+                continue;
+            }
             try {
-                sendMessage(notification, true);
+                sendMessage(pending, true);
             }
             catch (NetworkIOException ex) {
                 // at this point we are retrying the submission of messages but failing to connect to APNS, therefore
                 // notify the client of this
-                delegate.messageSendFailed(notification, ex);
+                failed(pending.notification, ex);
             }
         }
+        if (heldBack != null) {
+            notificationsBuffer.addAll(heldBack);
+            drainWhenDue(nextDue);
+        }
     }
 
-    private void cacheNotification(ApnsNotification notification) {
-        cachedNotifications.add(notification);
-        while (cachedNotifications.size() > cacheLength) {
-            cachedNotifications.poll();
-            logger.debug("Removing notification from cache " + notification);
+    private void cacheNotification(Pending pending) {
+        if (!move(pending, Pending.NONE, Pending.CACHED)) {
+            duplicate(pending);
+            return;
+        }
+        cachedNotifications.add(pending);
+        while (cached.get() > cacheLength) {
+            Pending evicted = cachedNotifications.poll();
+            if (evicted == null) {
+                // The rest are held by the monitoring thread
+                break;
+            }
+            move(evicted, Pending.CACHED, Pending.NONE);
+            if (logger.isDebugEnabled()) {
+                logger.debug("Removing notification from cache {}", evicted.notification);
+            }
         }
     }
 
     public ApnsConnectionImpl copy() {
         return new ApnsConnectionImpl(factory, host, port, proxy, proxyUsername, proxyPassword, reconnectPolicy.copy(), delegate,
-                errorDetection, threadFactory, cacheLength, autoAdjustCacheLength, readTimeout, connectTimeout);
+                errorDetection, threadFactory, cacheLength, autoAdjustCacheLength, readTimeout, connectTimeout, retryPolicy,
+                window == null ? null : window.copy(), metrics);
     }
 
     public void testConnection() throws NetworkIOException {
@@ -36,11 +36,14 @@ import java.net.InetSocketAddress;
 import java.net.Proxy;
 import java.net.Socket;
 import java.util.Date;
+import java.util.List;
 import java.util.Map;
 import javax.net.SocketFactory;
 import javax.net.ssl.SSLSocketFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import com.notnoop.apns.InactiveDevice;
+import com.notnoop.apns.InactiveDeviceListener;
 import com.notnoop.exceptions.NetworkIOException;
 
 public class ApnsFeedbackConnection {
@@ -98,18 +101,10 @@ public class ApnsFeedbackConnection {
         Socket proxySocket = null;
         Socket socket = null;
         try {
-            if (proxy == null) {
-                socket = factory.createSocket(host, port);
-            } else if (proxy.type() == Proxy.Type.HTTP) {
-                TlsTunnelBuilder tunnelBuilder = new TlsTunnelBuilder();
-                socket = tunnelBuilder.build((SSLSocketFactory) factory, proxy, proxyUsername, proxyPassword, host, port);
-            } else {
+            if (proxy != null && proxy.type() != Proxy.Type.HTTP) {
                 proxySocket = new Socket(proxy);
-                proxySocket.connect(new InetSocketAddress(host, port), connectTimeout);
-                socket = ((SSLSocketFactory) factory).createSocket(proxySocket, host, port, false);
             }
-            socket.setSoTimeout(readTimeout);
-            socket.setKeepAlive(true);
+            socket = openSocket(proxySocket);
             final InputStream stream = socket.getInputStream();
             return Utilities.parseFeedbackStream(stream);
         } finally {
@@ -118,4 +113,82 @@ public class ApnsFeedbackConnection {
         }
     }
 
+    /**
+     * Streams the inactive devices to the listener in batches of at most
+     * {@code batchSize}, without collecting them in memory.
+     *
+     * Apple removes the records from the feedback service as they are
+     * read, so when a retry is needed after a failure only the records not
+     * yet delivered to the listener are reported.  Only I/O failures are
+     * retried; an exception thrown by the listener is propagated at once.
+     *
+     * @return the number of inactive devices reported to the listener
+     */
+    public int getInactiveDevices(final InactiveDeviceListener listener, final int batchSize) throws NetworkIOException {
+        int attempts = 0;
+        int count = 0;
+        while (true) {
+            final CountingListener counting = new CountingListener(listener);
+            try {
+                attempts++;
+                getInactiveDevicesImpl(counting, batchSize);
+                return count + counting.count;
+            } catch (final IOException e) {
+                count += counting.count;
+                logger.warn("Failed to retrieve invalid devices", e);
+                if (attempts >= RETRIES) {
+                    logger.error("Couldn't get feedback connection", e);
+                    Utilities.wrapAndThrowAsRuntimeException(e);
+                }
+                Utilities.sleep(DELAY_IN_MS);
+            }
+        }
+    }
+
+    public int getInactiveDevicesImpl(final InactiveDeviceListener listener, final int batchSize) throws IOException {
+        Socket proxySocket = null;
+        Socket socket = null;
+        try {
+            if (proxy != null && proxy.type() != Proxy.Type.HTTP) {
+                proxySocket = new Socket(proxy);
+            }
+            socket = openSocket(proxySocket);
+            final InputStream stream = socket.getInputStream();
+            return Utilities.parseFeedbackStream(stream, listener, batchSize);
+        } finally {
+            Utilities.close(socket);
+            Utilities.close(proxySocket);
+        }
+    }
+
+    private Socket openSocket(final Socket proxySocket) throws IOException {
+        final Socket socket;
+        if (proxy == null) {
+            socket = factory.createSocket(host, port);
+        } else if (proxy.type() == Proxy.Type.HTTP) {
+            TlsTunnelBuilder tunnelBuilder = new TlsTunnelBuilder();
+            socket = tunnelBuilder.build((SSLSocketFactory) factory, proxy, proxyUsername, proxyPassword, host, port);
+        } else {
+            proxySocket.connect(new InetSocketAddress(host, port), connectTimeout);
+            socket = ((SSLSocketFactory) factory).createSocket(proxySocket, host, port, false);
+        }
+        socket.setSoTimeout(readTimeout);
+        socket.setKeepAlive(true);
+        return socket;
+    }
+
+    private static class CountingListener implements InactiveDeviceListener {
+        private final InactiveDeviceListener listener;
+        private int count;
+
+        CountingListener(final InactiveDeviceListener listener) {
+            this.listener = listener;
+        }
+
+        public void inactiveDevices(final List<InactiveDevice> devices) {
+            listener.inactiveDevices(devices);
+            count += devices.size();
+        }
+    }
+
 }
@@ -30,7 +30,12 @@
  */
 package com.notnoop.apns.internal;
 
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 import java.util.concurrent.*;
+import com.notnoop.apns.ApnsMetrics;
 import com.notnoop.apns.ApnsNotification;
 import com.notnoop.exceptions.NetworkIOException;
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
@@ -45,14 +50,20 @@ public class ApnsPooledConnection implements ApnsConnection {
 
     private final ExecutorService executors;
     private final ConcurrentLinkedQueue<ApnsConnection> prototypes;
+    private final ApnsMetrics metrics;
 
     public ApnsPooledConnection(ApnsConnection prototype, int max) {
         this(prototype, max, Executors.newFixedThreadPool(max));
     }
 
     public ApnsPooledConnection(ApnsConnection prototype, int max, ExecutorService executors) {
+        this(prototype, max, executors, null);
+    }
+
+    public ApnsPooledConnection(ApnsConnection prototype, int max, ExecutorService executors, ApnsMetrics metrics) {
         this.prototype = prototype;
         this.max = max;
+        this.metrics = metrics;
 
         this.executors = executors;
         this.prototypes = new ConcurrentLinkedQueue<ApnsConnection>();
@@ -68,7 +79,7 @@ public class ApnsPooledConnection implements ApnsConnection {
     };
 
     public void sendMessage(final ApnsNotification m) throws NetworkIOException {
-        Future<Void> future = executors.submit(new Callable<Void>() {
+        Future<Void> future = submit(new Callable<Void>() {
             public Void call() throws Exception {
                 uniquePrototype.get().sendMessage(m);
                 return null;
@@ -85,10 +96,90 @@ public class ApnsPooledConnection implements ApnsConnection {
         }
     }
 
+    /**
+     * Splits the messages into one chunk per pooled connection, and sends
+     * the chunks concurrently.  Each chunk is copied before it is handed to
+     * the pool, so the caller is free to reuse {@code messages} as soon as
+     * this method returns, even when it returns by throwing.
+     *
+     * @throws NetworkIOException if a chunk failed to send, or if the calling
+     *         thread was interrupted while waiting for the chunks; in the
+     *         latter case chunks that have not started yet are cancelled and
+     *         the interrupt flag is restored.
+     */
+    public void sendMessages(Collection<? extends ApnsNotification> messages) throws NetworkIOException {
+        final List<? extends ApnsNotification> list = messages instanceof List
+                ? (List<? extends ApnsNotification>) messages
+                : new ArrayList<ApnsNotification>(messages);
+        final int chunks = Math.min(max, list.size());
+
+        List<Future<Void>> futures = new ArrayList<Future<Void>>(chunks);
+        for (int i = 0; i < chunks; i++) {
+            final List<ApnsNotification> chunk = new ArrayList<ApnsNotification>(
+                    list.subList(i * list.size() / chunks, (i + 1) * list.size() / chunks));
+            futures.add(submit(new Callable<Void>() {
+                public Void call() throws Exception {
+                    ApnsConnection connection = uniquePrototype.get();
+                    for (ApnsNotification m : chunk) {
+                        connection.sendMessage(m);
+                    }
+                    return null;
+                }
+            }));
+        }
+
+        Throwable failure = null;
+        for (Future<Void> future : futures) {
+            try {
+                future.get();
+            } catch (InterruptedException ie) {
+                for (Future<Void> pending : futures) {
+                    pending.cancel(false);
+                }
+                Thread.currentThread().interrupt();
+                throw new NetworkIOException(new InterruptedIOException("interrupted while sending messages"));
+            } catch (ExecutionException ee) {
+                if (failure == null) {
+                    failure = ee.getCause();
+                } else {
+                    logger.warn("Further failure while sending messages", ee.getCause());
+                }
+            }
+        }
+        if (failure instanceof Error) {
+            throw (Error) failure;
+        } else if (failure != null) {
+            Utilities.wrapAndThrowAsRuntimeException((Exception) failure);
+        }
+    }
+
+    private Future<Void> submit(final Callable<Void> task) {
+        if (metrics == null) {
+            return executors.submit(task);
+        }
+        metrics.pooled(1);
+        final long submitted = System.nanoTime();
+        try {
+            return executors.submit(new Callable<Void>() {
+                public Void call() throws Exception {
+                    metrics.latency(ApnsMetrics.Stage.DISPATCH, System.nanoTime() - submitted);
+                    try {
+                        return task.call();
+                    } finally {
+                        metrics.pooled(-1);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            metrics.pooled(-1);
+            throw e;
+        }
+    }
+
     public ApnsConnection copy() {
         // TODO: Should copy executor properly.... What should copy do
         // really?!
-        return new ApnsPooledConnection(prototype, max);
+        return new ApnsPooledConnection(prototype, max, Executors.newFixedThreadPool(max), metrics);
     }
 
     public void close() {
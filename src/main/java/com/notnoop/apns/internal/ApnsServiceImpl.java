@@ -30,6 +30,8 @@
  */
 package com.notnoop.apns.internal;
 
+import java.util.List;
+
 import com.notnoop.apns.ApnsNotification;
 import com.notnoop.exceptions.NetworkIOException;
 
@@ -42,10 +44,15 @@ public class ApnsServiceImpl extends AbstractApnsService {
     }
 
     @Override
-    public void push(ApnsNotification msg) throws NetworkIOException {
+    protected void send(ApnsNotification msg) throws NetworkIOException {
         connection.sendMessage(msg);
     }
 
+    @Override
+    protected void sendAll(List<? extends ApnsNotification> messages) throws NetworkIOException {
+        connection.sendMessages(messages);
+    }
+
     public void start() {
     }
 
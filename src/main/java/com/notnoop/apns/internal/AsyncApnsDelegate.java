@@ -0,0 +1,289 @@
+/*
+ *  Copyright 2009, Mahmood Ali.
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions are
+ *  met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ *      copyright notice, this list of conditions and the following disclaimer
+ *      in the documentation and/or other materials provided with the
+ *      distribution.
+ *    * Neither the name of Mahmood Ali. nor the names of its
+ *      contributors may be used to endorse or promote products derived from
+ *      this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ *  A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ *  OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ *  SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ *  LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ *  OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.notnoop.apns.internal;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.notnoop.apns.ApnsDelegate;
+import com.notnoop.apns.ApnsNotification;
+import com.notnoop.apns.BatchApnsDelegate;
+import com.notnoop.apns.DeliveryError;
+import com.notnoop.apns.StartSendingApnsDelegate;
+
+/**
+ * Dispatches delegate callbacks on a separate thread, so that a slow
+ * delegate doesn't hold up sending.
+ *
+ * Callbacks are put into a bounded queue, and delivered in order by a
+ * single thread.  Consecutive sent notifications are reported to a
+ * {@link BatchApnsDelegate} in one call.  If the queue is full, the
+ * sending thread waits for room, rather than dropping callbacks, even if
+ * interrupted; its interrupt is restored once the callback is queued.  It
+ * only gives up, dropping the callback, once the delegate is closed or the
+ * dispatching thread is gone.  Interrupting the dispatching thread closes
+ * the delegate.
+ */
+public class AsyncApnsDelegate implements StartSendingApnsDelegate, Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(AsyncApnsDelegate.class);
+
+    private static final int SENT = 0, START_SENDING = 1, SEND_FAILED = 2, CONNECTION_CLOSED = 3,
+            CACHE_LENGTH_EXCEEDED = 4, RESENT = 5, STOP = 6;
+
+    /** How long a sender waits for room before checking the dispatcher is still there */
+    private static final long OFFER_WAIT_MILLIS = 100;
+
+    private static final class Event {
+        final int type;
+        final ApnsNotification message;
+        final boolean resent;
+        final Throwable error;
+        final DeliveryError deliveryError;
+        final int value;
+
+        Event(int type, ApnsNotification message, boolean resent, Throwable error, DeliveryError deliveryError, int value) {
+            this.type = type;
+            this.message = message;
+            this.resent = resent;
+            this.error = error;
+            this.deliveryError = deliveryError;
+            this.value = value;
+        }
+    }
+
+    private final ApnsDelegate delegate;
+    private final boolean startSending;
+    private final BlockingQueue<Event> queue;
+    private final Thread thread;
+    private volatile boolean closed;
+
+    public AsyncApnsDelegate(ApnsDelegate delegate, int capacity, ThreadFactory tf) {
+        this.delegate = delegate;
+        this.startSending = delegate instanceof StartSendingApnsDelegate;
+        this.queue = new ArrayBlockingQueue<Event>(capacity);
+        this.thread = (tf == null ? defaultThreadFactory() : tf).newThread(new Runnable() {
+            public void run() {
+                dispatchLoop();
+            }
+        });
+        thread.start();
+    }
+
+    private static ThreadFactory defaultThreadFactory() {
+        return new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "ApnsDelegateDispatcher");
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+
+    public void messageSent(ApnsNotification message, boolean resent) {
+        enqueue(new Event(SENT, message, resent, null, null, 0));
+    }
+
+    public void startSending(ApnsNotification message, boolean resent) {
+        if (startSending) {
+            enqueue(new Event(START_SENDING, message, resent, null, null, 0));
+        }
+    }
+
+    public void messageSendFailed(ApnsNotification message, Throwable e) {
+        enqueue(new Event(SEND_FAILED, message, false, e, null, 0));
+    }
+
+    public void connectionClosed(DeliveryError e, int messageIdentifier) {
+        enqueue(new Event(CONNECTION_CLOSED, null, false, null, e, messageIdentifier));
+    }
+
+    public void cacheLengthExceeded(int newCacheLength) {
+        enqueue(new Event(CACHE_LENGTH_EXCEEDED, null, false, null, null, newCacheLength));
+    }
+
+    public void notificationsResent(int resendCount) {
+        enqueue(new Event(RESENT, null, false, null, null, resendCount));
+    }
+
+    /**
+     * Delivers the callbacks already queued and stops the dispatching
+     * thread.  Callbacks arriving afterwards are dropped.
+     */
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (offer(new Event(STOP, null, false, null, null, 0), false)) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void enqueue(Event event) {
+        if (closed) {
+            logger.debug("Dropping delegate callback after close");
+            return;
+        }
+        if (!offer(event, true)) {
+            logger.warn("Dropping delegate callback, the dispatcher is closed");
+        }
+    }
+
+    /**
+     * Waits for room in the queue while the dispatching thread runs, and
+     * unless {@code untilClosed} is set and the delegate gets closed.  Keeps
+     * waiting when interrupted, as dispatching on this thread would call the
+     * delegate concurrently and out of order.
+     *
+     * @return true if the event was queued
+     */
+    private boolean offer(Event event, boolean untilClosed) {
+        boolean interrupted = false;
+        try {
+            while (!(untilClosed && closed) && thread.isAlive()) {
+                try {
+                    if (queue.offer(event, OFFER_WAIT_MILLIS, TimeUnit.MILLISECONDS)) {
+                        return true;
+                    }
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            return false;
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void dispatchLoop() {
+        try {
+            dispatchEvents();
+        } finally {
+            closed = true;
+        }
+    }
+
+    private void dispatchEvents() {
+        List<Event> events = new ArrayList<Event>();
+        List<ApnsNotification> sent = new ArrayList<ApnsNotification>();
+        boolean stopping = false;
+        while (!stopping) {
+            try {
+                events.add(queue.take());
+            } catch (InterruptedException e) {
+                logger.warn("Delegate dispatcher interrupted, delivering the queued callbacks and stopping");
+                closed = true;
+                stopping = true;
+            }
+            queue.drainTo(events);
+
+            boolean resent = false;
+            for (Event event : events) {
+                if (event.type != SENT || event.resent != resent) {
+                    flush(sent, resent);
+                    resent = event.resent;
+                }
+                if (event.type == STOP) {
+                    return;
+                }
+                dispatch(event, sent);
+            }
+            flush(sent, resent);
+            events.clear();
+        }
+        Thread.currentThread().interrupt();
+    }
+
+    private void dispatch(Event event, List<ApnsNotification> sent) {
+        try {
+            switch (event.type) {
+                case SENT:
+                    sent.add(event.message);
+                    break;
+                case START_SENDING:
+                    ((StartSendingApnsDelegate) delegate).startSending(event.message, event.resent);
+                    break;
+                case SEND_FAILED:
+                    delegate.messageSendFailed(event.message, event.error);
+                    break;
+                case CONNECTION_CLOSED:
+                    delegate.connectionClosed(event.deliveryError, event.value);
+                    break;
+                case CACHE_LENGTH_EXCEEDED:
+                    delegate.cacheLengthExceeded(event.value);
+                    break;
+                case RESENT:
+                    delegate.notificationsResent(event.value);
+                    break;
+                default:
+                    break;
+            }
+        } catch (Throwable e) {
+            logger.warn("Delegate threw an exception", e);
+        }
+    }
+
+    private void flush(List<ApnsNotification> sent, boolean resent) {
+        if (sent.isEmpty()) {
+            return;
+        }
+        if (delegate instanceof BatchApnsDelegate) {
+            try {
+                ((BatchApnsDelegate) delegate).messagesSent(sent, resent);
+            } catch (Throwable e) {
+                logger.warn("Delegate threw an exception", e);
+            }
+        } else {
+            for (ApnsNotification message : sent) {
+                try {
+                    delegate.messageSent(message, resent);
+                } catch (Throwable e) {
+                    logger.warn("Delegate threw an exception", e);
+                }
+            }
+        }
+        sent.clear();
+    }
+}
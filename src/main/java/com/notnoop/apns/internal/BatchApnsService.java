@@ -40,6 +40,7 @@ import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 
+import com.notnoop.apns.ApnsMetrics;
 import com.notnoop.apns.ApnsNotification;
 import com.notnoop.exceptions.NetworkIOException;
 import org.slf4j.Logger;
@@ -74,6 +75,8 @@ public class BatchApnsService extends AbstractApnsService {
 
 	private Runnable batchRunner = new SendMessagesBatch();
 
+	private final ApnsMetrics metrics;
+
     public BatchApnsService(ApnsConnection prototype, ApnsFeedbackConnection feedback, int batchWaitTimeInSec, int maxBachWaitTimeInSec, ThreadFactory tf) {
         this(prototype, feedback, batchWaitTimeInSec, maxBachWaitTimeInSec,
                 new ScheduledThreadPoolExecutor(1,
@@ -81,7 +84,13 @@ public class BatchApnsService extends AbstractApnsService {
     }
 
     public BatchApnsService(ApnsConnection prototype, ApnsFeedbackConnection feedback, int batchWaitTimeInSec, int maxBachWaitTimeInSec, ScheduledExecutorService executor) {
+        this(prototype, feedback, batchWaitTimeInSec, maxBachWaitTimeInSec, executor, null);
+    }
+
+    public BatchApnsService(ApnsConnection prototype, ApnsFeedbackConnection feedback, int batchWaitTimeInSec, int maxBachWaitTimeInSec, ScheduledExecutorService executor,
+                            ApnsMetrics metrics) {
 		super(feedback);
+		this.metrics = metrics;
 		this.prototype = prototype;
 		this.batchWaitTimeInSec = batchWaitTimeInSec;
 		this.maxBatchWaitTimeInSec = maxBachWaitTimeInSec;
@@ -105,7 +114,7 @@ public class BatchApnsService extends AbstractApnsService {
 	}
 
 	@Override
-	public void push(ApnsNotification message) throws NetworkIOException {
+	protected void send(ApnsNotification message) throws NetworkIOException {
 		if (batch.isEmpty()) {
 			firstMessageArrivedTime = System.nanoTime();
 		}
@@ -117,6 +126,9 @@ public class BatchApnsService extends AbstractApnsService {
 		}
 		
 		batch.add(message);
+		if (metrics != null) {
+			metrics.batched(1);
+		}
 		
 		if (taskFuture == null || taskFuture.isDone()) {
 			taskFuture = scheduleService.schedule(batchRunner, batchWaitTimeInSec, TimeUnit.SECONDS);
@@ -129,6 +141,9 @@ public class BatchApnsService extends AbstractApnsService {
 			try {
 				ApnsNotification msg;
 				while ((msg = batch.poll()) != null) {
+					if (metrics != null) {
+						metrics.batched(-1);
+					}
 					try {
 						newConnection.sendMessage(msg);
 					} catch (NetworkIOException e) {
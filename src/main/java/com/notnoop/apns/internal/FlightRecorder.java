@@ -0,0 +1,224 @@
+/*
+ *  Copyright 2009, Mahmood Ali.
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions are
+ *  met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ *      copyright notice, this list of conditions and the following disclaimer
+ *      in the documentation and/or other materials provided with the
+ *      distribution.
+ *    * Neither the name of Mahmood Ali. nor the names of its
+ *      contributors may be used to endorse or promote products derived from
+ *      this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ *  A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ *  OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ *  SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ *  LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ *  OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.notnoop.apns.internal;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Emits Java Flight Recorder events for the activity of the connections and
+ * the queued service, so that recordings can be correlated with what the
+ * library was doing.
+ *
+ * The events are disabled unless the {@code com.notnoop.apns.flightRecorder}
+ * system property is {@code true} and the JVM provides the
+ * {@code jdk.jfr.EventFactory} API (Java 8u262 and later).  The API is
+ * reached through reflection as the library targets Java 6; when the events
+ * are disabled, {@link EventType#begin()} returns null and callers skip
+ * building the values of instant events by checking {@link #ENABLED}.
+ */
+final class FlightRecorder {
+    private static final Logger logger = LoggerFactory.getLogger(FlightRecorder.class);
+
+    static final String PROPERTY = "com.notnoop.apns.flightRecorder";
+
+    private static final Api API = Boolean.getBoolean(PROPERTY) ? Api.load() : null;
+
+    /** Whether the events are emitted */
+    static final boolean ENABLED = API != null;
+
+    static final EventType CONNECT = define("Connect", "APNS Connect",
+            "host", String.class, "port", int.class, "proxied", boolean.class);
+    static final EventType HANDSHAKE = define("Handshake", "APNS TLS Handshake",
+            "host", String.class, "port", int.class);
+    static final EventType RECONNECT = define("Reconnect", "APNS Reconnect Policy",
+            "host", String.class, "port", int.class);
+    static final EventType WRITE = define("Write", "APNS Write",
+            "identifier", int.class, "resend", boolean.class, "attempts", int.class);
+    static final EventType ERROR_RESPONSE = define("ErrorResponse", "APNS Error Response",
+            "error", String.class, "identifier", int.class, "found", boolean.class, "resendSize", int.class);
+    static final EventType RETRY = define("Retry", "APNS Retry",
+            "error", String.class, "identifier", int.class, "attempt", int.class, "delayMillis", int.class);
+    static final EventType QUEUE = define("Queue", "APNS Queue Wait",
+            "depth", int.class);
+
+    private FlightRecorder() {
+        throw new AssertionError("Uninstantiable class");
+    }
+
+    private static EventType define(String name, String label, Object... fields) {
+        return new EventType(API, name, label, fields);
+    }
+
+    static final class EventType {
+        private final Api api;
+        private final Object factory;
+
+        /**
+         * Defines an event type named {@code com.notnoop.apns.<name>}, with
+         * the fields given as pairs of names and types.  The type is disabled
+         * if {@code api} is null.
+         */
+        EventType(Api api, String name, String label, Object... fields) {
+            this.factory = api == null ? null : api.define(name, label, fields);
+            this.api = factory == null ? null : api;
+        }
+
+        /**
+         * Begins timing an event, or returns null if the events are disabled.
+         */
+        Event begin() {
+            if (factory == null) {
+                return null;
+            }
+            Event event = new Event(api, api.invoke(api.newEvent, factory));
+            api.invoke(api.begin, event.event);
+            return event;
+        }
+
+        /**
+         * Emits an instant event with the values of its fields.
+         */
+        void commit(Object... values) {
+            Event event = begin();
+            if (event != null) {
+                event.commit(values);
+            }
+        }
+    }
+
+    static final class Event {
+        private final Api api;
+        private final Object event;
+
+        private Event(Api api, Object event) {
+            this.api = api;
+            this.event = event;
+        }
+
+        /**
+         * Ends the event and emits it with the values of its fields, unless
+         * the recording settings filter it out.
+         */
+        void commit(Object... values) {
+            api.invoke(api.end, event);
+            if (!Boolean.TRUE.equals(api.invoke(api.shouldCommit, event))) {
+                return;
+            }
+            for (int i = 0; i < values.length; i++) {
+                api.invoke(api.set, event, i, values[i]);
+            }
+            api.invoke(api.commit, event);
+        }
+    }
+
+    /**
+     * The reflective handles on the {@code jdk.jfr} API.
+     */
+    static final class Api {
+        private final Constructor<?> annotationElement;
+        private final Constructor<?> valueDescriptor;
+        private final Class<?> nameAnnotation;
+        private final Class<?> labelAnnotation;
+        private final Class<?> categoryAnnotation;
+        private final Method create;
+        final Method newEvent;
+        final Method begin;
+        final Method end;
+        final Method shouldCommit;
+        final Method set;
+        final Method commit;
+
+        private Api() throws Exception {
+            Class<?> element = Class.forName("jdk.jfr.AnnotationElement");
+            Class<?> descriptor = Class.forName("jdk.jfr.ValueDescriptor");
+            Class<?> factory = Class.forName("jdk.jfr.EventFactory");
+            Class<?> event = Class.forName("jdk.jfr.Event");
+            annotationElement = element.getConstructor(Class.class, Object.class);
+            valueDescriptor = descriptor.getConstructor(Class.class, String.class);
+            nameAnnotation = Class.forName("jdk.jfr.Name");
+            labelAnnotation = Class.forName("jdk.jfr.Label");
+            categoryAnnotation = Class.forName("jdk.jfr.Category");
+            create = factory.getMethod("create", List.class, List.class);
+            newEvent = factory.getMethod("newEvent");
+            begin = event.getMethod("begin");
+            end = event.getMethod("end");
+            shouldCommit = event.getMethod("shouldCommit");
+            set = event.getMethod("set", int.class, Object.class);
+            commit = event.getMethod("commit");
+        }
+
+        static Api load() {
+            try {
+                return new Api();
+            } catch (Exception e) {
+                logger.warn("Flight Recorder events requested, but the jdk.jfr API is not available", e);
+                return null;
+            } catch (LinkageError e) {
+                logger.warn("Flight Recorder events requested, but the jdk.jfr API is not available", e);
+                return null;
+            }
+        }
+
+        Object define(String name, String label, Object... fields) {
+            try {
+                List<Object> annotations = Arrays.asList(
+                        annotationElement.newInstance(nameAnnotation, "com.notnoop.apns." + name),
+                        annotationElement.newInstance(labelAnnotation, label),
+                        annotationElement.newInstance(categoryAnnotation, new String[] { "APNS" }));
+                List<Object> descriptors = new ArrayList<Object>();
+                for (int i = 0; i < fields.length; i += 2) {
+                    descriptors.add(valueDescriptor.newInstance(fields[i + 1], fields[i]));
+                }
+                return create.invoke(null, annotations, descriptors);
+            } catch (Exception e) {
+                logger.warn("Couldn't define the Flight Recorder event " + name, e);
+                return null;
+            }
+        }
+
+        Object invoke(Method method, Object target, Object... args) {
+            try {
+                return method.invoke(target, args);
+            } catch (Exception e) {
+                // Never let the recording get in the way of sending
+                logger.debug("Couldn't emit a Flight Recorder event", e);
+                return null;
+            }
+        }
+    }
+}
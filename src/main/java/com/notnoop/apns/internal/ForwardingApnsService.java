@@ -0,0 +1,90 @@
+/*
+ *  Copyright 2009, Mahmood Ali.
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions are
+ *  met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ *      copyright notice, this list of conditions and the following disclaimer
+ *      in the documentation and/or other materials provided with the
+ *      distribution.
+ *    * Neither the name of Mahmood Ali. nor the names of its
+ *      contributors may be used to endorse or promote products derived from
+ *      this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ *  A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ *  OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ *  SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ *  LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ *  OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.notnoop.apns.internal;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import com.notnoop.apns.ApnsNotification;
+import com.notnoop.apns.ApnsService;
+import com.notnoop.apns.InactiveDeviceListener;
+import com.notnoop.exceptions.NetworkIOException;
+
+/**
+ * Base of the services decorating another service, e.g. checking
+ * notifications before passing them on.  Bulk pushes are passed on as a
+ * whole, so that the wrapped service can still send them concurrently.
+ */
+abstract class ForwardingApnsService extends AbstractApnsService {
+    protected final ApnsService service;
+
+    ForwardingApnsService(ApnsService service) {
+        super(null);
+        this.service = service;
+    }
+
+    @Override
+    protected void send(ApnsNotification msg) throws NetworkIOException {
+        service.push(msg);
+    }
+
+    @Override
+    protected void sendAll(List<? extends ApnsNotification> messages) throws NetworkIOException {
+        if (service instanceof AbstractApnsService) {
+            ((AbstractApnsService) service).pushAll(messages);
+        } else {
+            super.sendAll(messages);
+        }
+    }
+
+    public void start() {
+        service.start();
+    }
+
+    public void stop() {
+        service.stop();
+    }
+
+    public void testConnection() throws NetworkIOException {
+        service.testConnection();
+    }
+
+    @Override
+    public Map<String, Date> getInactiveDevices() throws NetworkIOException {
+        return service.getInactiveDevices();
+    }
+
+    @Override
+    public int getInactiveDevices(InactiveDeviceListener listener, int batchSize) throws NetworkIOException {
+        return service.getInactiveDevices(listener, batchSize);
+    }
+}
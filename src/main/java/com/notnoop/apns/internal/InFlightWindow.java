@@ -0,0 +1,176 @@
+/*
+ *  Copyright 2009, Mahmood Ali.
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions are
+ *  met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ *      copyright notice, this list of conditions and the following disclaimer
+ *      in the documentation and/or other materials provided with the
+ *      distribution.
+ *    * Neither the name of Mahmood Ali. nor the names of its
+ *      contributors may be used to endorse or promote products derived from
+ *      this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ *  A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ *  OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ *  SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ *  LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ *  OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.notnoop.apns.internal;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits the number of notifications in flight on a connection.
+ *
+ * A notification is in flight from the moment it is written until Apple
+ * had enough time to reject it, the error-response horizon.  Once the
+ * window is full, senders are blocked until the oldest notification ages
+ * past the horizon, or until an error response confirms everything sent
+ * before it.
+ *
+ * A sender reserves its slot before connecting and writing, and only
+ * starts its ageing once the notification is flushed, so that a slow
+ * reconnection doesn't use up the horizon before the notification is on
+ * the wire.
+ *
+ * Keeping the window within the notification cache guarantees that a late
+ * error response never names a notification that already fell out of the
+ * cache.
+ */
+public class InFlightWindow {
+    private final int size;
+    private final long horizonNanos;
+
+    /** Send times, oldest first, as a ring buffer */
+    private final long[] sent;
+    private int head, count;
+    /** Slots reserved for notifications being written */
+    private int reserved;
+
+    public InFlightWindow(int size, int horizonMillis) {
+        if (size < 1 || horizonMillis < 0) {
+            throw new IllegalArgumentException("size must be positive and horizonMillis must not be negative");
+        }
+        this.size = size;
+        this.horizonNanos = TimeUnit.MILLISECONDS.toNanos(horizonMillis);
+        this.sent = new long[size];
+    }
+
+    /**
+     * Takes a slot for a notification sent right away, waiting for one
+     * to be released if the window is full.
+     *
+     * @see #reserve()
+     */
+    public synchronized void acquire() {
+        reserve();
+        sent();
+    }
+
+    /**
+     * Reserves a slot for a notification about to be written, waiting for
+     * one to be released if the window is full.  The slot is then either
+     * {@link #sent() used} or {@link #cancel() given back}.
+     *
+     * If the thread is interrupted while waiting, the slot is taken
+     * anyway and the interrupt status is restored.
+     */
+    public synchronized void reserve() {
+        long now = System.nanoTime();
+        expire(now);
+        while (count + reserved >= size) {
+            try {
+                if (count == 0) {
+                    // Every slot is being written, wait for a write to end
+                    wait();
+                } else {
+                    long wait = sent[head] + horizonNanos - now;
+                    if (wait > 0) {
+                        TimeUnit.NANOSECONDS.timedWait(this, wait);
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            now = System.nanoTime();
+            expire(now);
+        }
+        reserved++;
+    }
+
+    /**
+     * Starts the ageing of a reserved slot, once its notification is
+     * written.
+     */
+    public synchronized void sent() {
+        if (reserved > 0) {
+            reserved--;
+        }
+        if (count == size) {
+            head = (head + 1) % size;
+            count--;
+        }
+        sent[(head + count) % size] = System.nanoTime();
+        count++;
+        notifyAll();
+    }
+
+    /**
+     * Gives back a reserved slot whose notification couldn't be written.
+     */
+    public synchronized void cancel() {
+        if (reserved > 0) {
+            reserved--;
+        }
+        notifyAll();
+    }
+
+    /**
+     * Releases all slots, as an error response confirms or resends every
+     * notification in flight.  Slots reserved for notifications being
+     * written are kept.
+     */
+    public synchronized void clear() {
+        head = 0;
+        count = 0;
+        notifyAll();
+    }
+
+    /**
+     * Returns the number of notifications currently in flight or being
+     * written.
+     */
+    public synchronized int getInFlight() {
+        expire(System.nanoTime());
+        return count + reserved;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public InFlightWindow copy() {
+        return new InFlightWindow(size, (int) TimeUnit.NANOSECONDS.toMillis(horizonNanos));
+    }
+
+    private void expire(long now) {
+        while (count > 0 && now - sent[head] >= horizonNanos) {
+            head = (head + 1) % size;
+            count--;
+        }
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ *  Copyright 2009, Mahmood Ali.
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions are
+ *  met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ *      copyright notice, this list of conditions and the following disclaimer
+ *      in the documentation and/or other materials provided with the
+ *      distribution.
+ *    * Neither the name of Mahmood Ali. nor the names of its
+ *      contributors may be used to endorse or promote products derived from
+ *      this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ *  A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ *  OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ *  SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ *  LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ *  OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.notnoop.apns.internal;
+
+import com.notnoop.apns.ApnsDelegate;
+import com.notnoop.apns.ApnsNotification;
+import com.notnoop.apns.DeliveryError;
+import com.notnoop.apns.InvalidTokenIndex;
+import com.notnoop.apns.StartSendingApnsDelegate;
+import com.notnoop.exceptions.ApnsDeliveryErrorException;
+
+/**
+ * Delegate recording the tokens Apple rejects with
+ * {@link DeliveryError#INVALID_TOKEN} in an {@link InvalidTokenIndex},
+ * before passing every event on to the application delegate.
+ */
+public class InvalidTokenDelegate implements StartSendingApnsDelegate {
+    private final ApnsDelegate delegate;
+    private final InvalidTokenIndex index;
+
+    public InvalidTokenDelegate(ApnsDelegate delegate, InvalidTokenIndex index) {
+        this.delegate = delegate == null ? ApnsDelegate.EMPTY : delegate;
+        this.index = index;
+    }
+
+    public void startSending(ApnsNotification message, boolean resent) {
+        if (delegate instanceof StartSendingApnsDelegate) {
+            ((StartSendingApnsDelegate) delegate).startSending(message, resent);
+        }
+    }
+
+    public void messageSent(ApnsNotification message, boolean resent) {
+        delegate.messageSent(message, resent);
+    }
+
+    public void messageSendFailed(ApnsNotification message, Throwable e) {
+        if (message != null && e instanceof ApnsDeliveryErrorException
+                && ((ApnsDeliveryErrorException) e).getDeliveryError() == DeliveryError.INVALID_TOKEN) {
+            index.add(message.getDeviceToken(), (int) (System.currentTimeMillis() / 1000));
+        }
+        delegate.messageSendFailed(message, e);
+    }
+
+    public void connectionClosed(DeliveryError e, int messageIdentifier) {
+        delegate.connectionClosed(e, messageIdentifier);
+    }
+
+    public void cacheLengthExceeded(int newCacheLength) {
+        delegate.cacheLengthExceeded(newCacheLength);
+    }
+
+    public void notificationsResent(int resendCount) {
+        delegate.notificationsResent(resendCount);
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ *  Copyright 2009, Mahmood Ali.
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions are
+ *  met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ *      copyright notice, this list of conditions and the following disclaimer
+ *      in the documentation and/or other materials provided with the
+ *      distribution.
+ *    * Neither the name of Mahmood Ali. nor the names of its
+ *      contributors may be used to endorse or promote products derived from
+ *      this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ *  A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ *  OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ *  SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ *  LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ *  OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.notnoop.apns.internal;
+
+import java.io.IOException;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import com.notnoop.apns.ApnsDelegate;
+import com.notnoop.apns.ApnsNotification;
+import com.notnoop.apns.ApnsService;
+import com.notnoop.apns.DeliveryError;
+import com.notnoop.apns.InactiveDevice;
+import com.notnoop.apns.InactiveDeviceListener;
+import com.notnoop.apns.InvalidTokenIndex;
+import com.notnoop.exceptions.ApnsDeliveryErrorException;
+import com.notnoop.exceptions.NetworkIOException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Service that fails notifications to tokens in an {@link InvalidTokenIndex}
+ * locally, and passes all other notifications on to the wrapped service.
+ *
+ * When a poll period is given, the service also polls the feedback service
+ * periodically and adds the reported devices to the index.  Devices
+ * retrieved through {@link #getInactiveDevices()} are indexed as well, as
+ * Apple reports each of them only once.
+ */
+public class InvalidTokenFilteringApnsService extends ForwardingApnsService {
+    private static final Logger logger = LoggerFactory.getLogger(InvalidTokenFilteringApnsService.class);
+
+    private final InvalidTokenIndex index;
+    private final ApnsDelegate delegate;
+    private final int pollPeriodInSec;
+    private final ScheduledExecutorService scheduleService;
+    private ScheduledFuture<?> pollFuture;
+
+    public InvalidTokenFilteringApnsService(ApnsService service, InvalidTokenIndex index, ApnsDelegate delegate) {
+        this(service, index, delegate, 0, null);
+    }
+
+    public InvalidTokenFilteringApnsService(ApnsService service, InvalidTokenIndex index, ApnsDelegate delegate,
+                                            int pollPeriodInSec, ScheduledExecutorService scheduleService) {
+        super(service);
+        this.index = index;
+        this.delegate = delegate == null ? ApnsDelegate.EMPTY : delegate;
+        this.pollPeriodInSec = pollPeriodInSec;
+        this.scheduleService = scheduleService;
+    }
+
+    @Override
+    protected boolean accept(ApnsNotification msg) {
+        if (!index.contains(msg.getDeviceToken())) {
+            return true;
+        }
+        logger.debug("Suppressing notification to invalid token {}", msg);
+        delegate.messageSendFailed(msg, new ApnsDeliveryErrorException(DeliveryError.INVALID_TOKEN));
+        return false;
+    }
+
+    public void start() {
+        try {
+            index.load();
+        } catch (IOException e) {
+            logger.warn("Couldn't load invalid token index", e);
+        }
+        service.start();
+        if (pollPeriodInSec > 0) {
+            pollFuture = scheduleService.scheduleWithFixedDelay(new PollFeedback(), 0, pollPeriodInSec, TimeUnit.SECONDS);
+        }
+    }
+
+    public void stop() {
+        if (pollFuture != null) {
+            pollFuture.cancel(true);
+        }
+        if (scheduleService != null) {
+            scheduleService.shutdownNow();
+        }
+        service.stop();
+        save();
+    }
+
+    @Override
+    public Map<String, Date> getInactiveDevices() throws NetworkIOException {
+        Map<String, Date> inactiveDevices = service.getInactiveDevices();
+        for (Map.Entry<String, Date> entry : inactiveDevices.entrySet()) {
+            index.add(Utilities.decodeHex(entry.getKey()), (int) (entry.getValue().getTime() / 1000));
+        }
+        return inactiveDevices;
+    }
+
+    @Override
+    public int getInactiveDevices(final InactiveDeviceListener listener, int batchSize) throws NetworkIOException {
+        return service.getInactiveDevices(new InactiveDeviceListener() {
+            public void inactiveDevices(List<InactiveDevice> devices) {
+                index.inactiveDevices(devices);
+                listener.inactiveDevices(devices);
+            }
+        }, batchSize);
+    }
+
+    private void save() {
+        try {
+            index.save();
+        } catch (IOException e) {
+            logger.warn("Couldn't save invalid token index", e);
+        }
+    }
+
+    class PollFeedback implements Runnable {
+        public void run() {
+            try {
+                int count = service.getInactiveDevices(index, Utilities.FEEDBACK_BATCH_SIZE);
+                logger.debug("Feedback poll reported {} inactive devices", count);
+                if (count > 0) {
+                    save();
+                }
+            } catch (Exception e) {
+                // an exception would cancel the scheduled task, so keep polling
+                logger.warn("Feedback poll failed", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,357 @@
+/*
+ *  Copyright 2009, Mahmood Ali.
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions are
+ *  met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ *      copyright notice, this list of conditions and the following disclaimer
+ *      in the documentation and/or other materials provided with the
+ *      distribution.
+ *    * Neither the name of Mahmood Ali. nor the names of its
+ *      contributors may be used to endorse or promote products derived from
+ *      this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ *  A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ *  OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ *  SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ *  LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ *  OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.notnoop.apns.internal;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Computes the size of values once encoded as UTF-8 JSON, and writes them
+ * directly as UTF-8 bytes.  The output is identical to Jackson's.
+ *
+ * Only the value types used by the payload builder are supported:
+ * {@code null}, {@code String}, integral numbers, {@code Boolean}, and
+ * collections, arrays and String keyed maps of these.
+ */
+public final class JsonEncoding {
+    private JsonEncoding() { throw new AssertionError("Uninstantiable class"); }
+
+    /**
+     * Returned by {@link #valueLength(Object)} for unsupported values
+     */
+    public static final int UNKNOWN = -1;
+
+    /**
+     * Returns true if the value is supported and cannot change once stored.
+     */
+    public static boolean isImmutable(final Object value) {
+        return value == null || value instanceof String || value instanceof Boolean
+                || value instanceof Integer || value instanceof Long
+                || value instanceof Short || value instanceof Byte;
+    }
+
+    /**
+     * Returns the encoded size of the String, including the quotes.
+     */
+    public static int stringLength(final CharSequence s) {
+        return 2 + escapedLength(s);
+    }
+
+    /**
+     * Returns the encoded size of the String contents, without the quotes.
+     *
+     * Control characters, quotes and backslashes are escaped, everything
+     * else is written as UTF-8; an unpaired surrogate is written as
+     * {@code '?'}.
+     */
+    public static int escapedLength(final CharSequence s) {
+        final int length = s.length();
+        int result = length;
+        for (int i = 0; i < length; i++) {
+            final char c = s.charAt(i);
+            if (c < 0x80) {
+                if (c < 0x20) {
+                    result += isShortEscape(c) ? 1 : 5;
+                } else if (c == '"' || c == '\\') {
+                    result += 1;
+                }
+            } else if (c < 0x800) {
+                result += 1;
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(s.charAt(i + 1))) {
+                // four bytes for the two chars of the pair
+                result += 2;
+                i++;
+            } else if (c < Character.MIN_SURROGATE || c > Character.MAX_SURROGATE) {
+                result += 2;
+            }
+        }
+        return result;
+    }
+
+    static boolean isShortEscape(final char c) {
+        return c == '\b' || c == '\t' || c == '\n' || c == '\f' || c == '\r';
+    }
+
+    private static final byte[] HEX = {'0','1','2','3','4','5','6','7','8','9','A','B','C','D','E','F'};
+
+    /**
+     * Writes the String contents, escaped and encoded as UTF-8, without the
+     * quotes.  The array must have room for {@link #escapedLength(CharSequence)}
+     * bytes.
+     *
+     * @return the offset following the last byte written
+     */
+    public static int writeEscaped(final CharSequence s, final byte[] dst, int pos) {
+        final int length = s.length();
+        for (int i = 0; i < length; i++) {
+            final char c = s.charAt(i);
+            if (c < 0x80) {
+                if (c < 0x20) {
+                    dst[pos++] = '\\';
+                    if (isShortEscape(c)) {
+                        dst[pos++] = (byte) shortEscape(c);
+                    } else {
+                        dst[pos++] = 'u';
+                        dst[pos++] = '0';
+                        dst[pos++] = '0';
+                        dst[pos++] = HEX[c >> 4];
+                        dst[pos++] = HEX[c & 0xF];
+                    }
+                } else if (c == '"' || c == '\\') {
+                    dst[pos++] = '\\';
+                    dst[pos++] = (byte) c;
+                } else {
+                    dst[pos++] = (byte) c;
+                }
+            } else if (c < 0x800) {
+                dst[pos++] = (byte) (0xC0 | c >> 6);
+                dst[pos++] = (byte) (0x80 | c & 0x3F);
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(s.charAt(i + 1))) {
+                final int cp = Character.toCodePoint(c, s.charAt(++i));
+                dst[pos++] = (byte) (0xF0 | cp >> 18);
+                dst[pos++] = (byte) (0x80 | cp >> 12 & 0x3F);
+                dst[pos++] = (byte) (0x80 | cp >> 6 & 0x3F);
+                dst[pos++] = (byte) (0x80 | cp & 0x3F);
+            } else if (c < Character.MIN_SURROGATE || c > Character.MAX_SURROGATE) {
+                dst[pos++] = (byte) (0xE0 | c >> 12);
+                dst[pos++] = (byte) (0x80 | c >> 6 & 0x3F);
+                dst[pos++] = (byte) (0x80 | c & 0x3F);
+            } else {
+                dst[pos++] = '?';
+            }
+        }
+        return pos;
+    }
+
+    private static char shortEscape(final char c) {
+        switch (c) {
+            case '\b': return 'b';
+            case '\t': return 't';
+            case '\n': return 'n';
+            case '\f': return 'f';
+            default:   return 'r';
+        }
+    }
+
+    /**
+     * Writes the decimal representation of the number.  The array must
+     * have room for {@link #longLength(long)} bytes.
+     *
+     * @return the offset following the last byte written
+     */
+    public static int writeLong(final long value, final byte[] dst, final int pos) {
+        final int end = pos + longLength(value);
+        if (value == Long.MIN_VALUE) {
+            final byte[] digits = Utilities.toUTF8Bytes(Long.toString(value));
+            System.arraycopy(digits, 0, dst, pos, digits.length);
+            return end;
+        }
+        long v = Math.abs(value);
+        int i = end;
+        do {
+            dst[--i] = (byte) ('0' + v % 10);
+            v /= 10;
+        } while (v != 0);
+        if (value < 0) {
+            dst[--i] = '-';
+        }
+        return end;
+    }
+
+    /**
+     * Returns the encoded size of the value, or {@link #UNKNOWN} if the value
+     * is not supported.
+     */
+    public static int valueLength(final Object value) {
+        if (value == null) {
+            return 4;
+        } else if (value instanceof String) {
+            return stringLength((String) value);
+        } else if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            return intLength(((Number) value).intValue());
+        } else if (value instanceof Long) {
+            return longLength((Long) value);
+        } else if (value instanceof Boolean) {
+            return ((Boolean) value) ? 4 : 5;
+        } else if (value instanceof Collection) {
+            int result = 2;
+            boolean first = true;
+            for (final Object element : (Collection<?>) value) {
+                final int length = valueLength(element);
+                if (length == UNKNOWN) {
+                    return UNKNOWN;
+                }
+                result += first ? length : length + 1;
+                first = false;
+            }
+            return result;
+        } else if (value instanceof Object[]) {
+            final Object[] array = (Object[]) value;
+            int result = 2 + Math.max(array.length - 1, 0);
+            for (final Object element : array) {
+                final int length = valueLength(element);
+                if (length == UNKNOWN) {
+                    return UNKNOWN;
+                }
+                result += length;
+            }
+            return result;
+        } else if (value instanceof Map) {
+            final Map<?, ?> map = (Map<?, ?>) value;
+            int result = 2 + Math.max(map.size() - 1, 0);
+            for (final Map.Entry<?, ?> entry : map.entrySet()) {
+                if (!(entry.getKey() instanceof String)) {
+                    return UNKNOWN;
+                }
+                final int length = valueLength(entry.getValue());
+                if (length == UNKNOWN) {
+                    return UNKNOWN;
+                }
+                result += stringLength((String) entry.getKey()) + 1 + length;
+            }
+            return result;
+        }
+        return UNKNOWN;
+    }
+
+    /**
+     * Writes the value as UTF-8 JSON.  The value must be supported, i.e.
+     * {@link #valueLength(Object)} must not be {@link #UNKNOWN}, and the array
+     * must have room for that many bytes.
+     *
+     * @return the offset following the last byte written
+     */
+    public static int writeValue(final Object value, final byte[] dst, int pos) {
+        if (value == null) {
+            return writeAscii("null", dst, pos);
+        } else if (value instanceof String) {
+            return writeString((String) value, dst, pos);
+        } else if (value instanceof Integer || value instanceof Short
+                || value instanceof Byte || value instanceof Long) {
+            return writeLong(((Number) value).longValue(), dst, pos);
+        } else if (value instanceof Boolean) {
+            return writeAscii(((Boolean) value) ? "true" : "false", dst, pos);
+        } else if (value instanceof Collection) {
+            dst[pos++] = '[';
+            boolean first = true;
+            for (final Object element : (Collection<?>) value) {
+                if (!first) {
+                    dst[pos++] = ',';
+                }
+                pos = writeValue(element, dst, pos);
+                first = false;
+            }
+            dst[pos++] = ']';
+            return pos;
+        } else if (value instanceof Object[]) {
+            dst[pos++] = '[';
+            final Object[] array = (Object[]) value;
+            for (int i = 0; i < array.length; i++) {
+                if (i > 0) {
+                    dst[pos++] = ',';
+                }
+                pos = writeValue(array[i], dst, pos);
+            }
+            dst[pos++] = ']';
+            return pos;
+        } else if (value instanceof Map) {
+            dst[pos++] = '{';
+            boolean first = true;
+            for (final Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                if (!first) {
+                    dst[pos++] = ',';
+                }
+                pos = writeString((String) entry.getKey(), dst, pos);
+                dst[pos++] = ':';
+                pos = writeValue(entry.getValue(), dst, pos);
+                first = false;
+            }
+            dst[pos++] = '}';
+            return pos;
+        }
+        throw new IllegalArgumentException("Unsupported value: " + value);
+    }
+
+    /**
+     * Writes the String as a quoted JSON string.
+     *
+     * @return the offset following the last byte written
+     */
+    public static int writeString(final CharSequence s, final byte[] dst, int pos) {
+        dst[pos++] = '"';
+        pos = writeEscaped(s, dst, pos);
+        dst[pos++] = '"';
+        return pos;
+    }
+
+    private static int writeAscii(final String s, final byte[] dst, int pos) {
+        for (int i = 0; i < s.length(); i++) {
+            dst[pos++] = (byte) s.charAt(i);
+        }
+        return pos;
+    }
+
+    /**
+     * Returns the encoded size of a {@code "key":value} object member.
+     */
+    public static int entryLength(final String key, final Object value) {
+        final int length = valueLength(value);
+        return length == UNKNOWN ? UNKNOWN : stringLength(key) + 1 + length;
+    }
+
+    public static int intLength(final int value) {
+        if (value == Integer.MIN_VALUE) {
+            return 11;
+        }
+        if (value < 0) {
+            return 1 + intLength(-value);
+        }
+        int result = 1;
+        for (int v = value; v >= 10; v /= 10) {
+            result++;
+        }
+        return result;
+    }
+
+    public static int longLength(final long value) {
+        if (value == Long.MIN_VALUE) {
+            return 20;
+        }
+        if (value < 0) {
+            return 1 + longLength(-value);
+        }
+        int result = 1;
+        for (long v = value; v >= 10; v /= 10) {
+            result++;
+        }
+        return result;
+    }
+}
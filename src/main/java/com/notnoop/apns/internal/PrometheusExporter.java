@@ -0,0 +1,220 @@
+/*
+ *  Copyright 2009, Mahmood Ali.
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions are
+ *  met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ *      copyright notice, this list of conditions and the following disclaimer
+ *      in the documentation and/or other materials provided with the
+ *      distribution.
+ *    * Neither the name of Mahmood Ali. nor the names of its
+ *      contributors may be used to endorse or promote products derived from
+ *      this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ *  A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ *  OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ *  SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ *  LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ *  OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.notnoop.apns.internal;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import com.notnoop.apns.ApnsMetrics;
+import com.notnoop.apns.DeliveryError;
+import com.notnoop.apns.LatencyHistogram;
+import com.notnoop.exceptions.RuntimeIOException;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Serves {@link ApnsMetrics} in the Prometheus text format at
+ * {@code /metrics}, using the HTTP server built into the JDK.
+ *
+ * A scrape only reads the counters and histogram buckets, so it never
+ * blocks sending.
+ */
+public class PrometheusExporter implements Closeable {
+    private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    /** Upper bounds of the exported histogram buckets, in seconds */
+    private static final double[] BOUNDS = {
+        0.0001, 0.00025, 0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10
+    };
+
+    private final ApnsMetrics metrics;
+    private final String labels;
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    /**
+     * Starts serving the metrics.
+     *
+     * @param metrics  the metrics to export
+     * @param service  the value of the {@code service} label, or null for none
+     * @param address  the address to listen on
+     */
+    public PrometheusExporter(ApnsMetrics metrics, String service, InetSocketAddress address) {
+        this.metrics = metrics;
+        this.labels = service == null ? "" : "service=\"" + escape(service) + "\"";
+        try {
+            server = HttpServer.create(address, 0);
+        } catch (IOException e) {
+            throw new RuntimeIOException(e);
+        }
+        server.createContext("/metrics", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                serve(exchange);
+            }
+        });
+        executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "ApnsPrometheusExporter");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    public InetSocketAddress getAddress() {
+        return server.getAddress();
+    }
+
+    public void close() {
+        server.stop(0);
+        executor.shutdown();
+    }
+
+    private void serve(HttpExchange exchange) throws IOException {
+        try {
+            String method = exchange.getRequestMethod();
+            if (!"GET".equals(method) && !"HEAD".equals(method)) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            byte[] body = Utilities.toUTF8Bytes(scrape());
+            exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+            if ("HEAD".equals(method)) {
+                exchange.sendResponseHeaders(200, -1);
+                return;
+            }
+            exchange.sendResponseHeaders(200, body.length);
+            OutputStream out = exchange.getResponseBody();
+            out.write(body);
+            out.close();
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Returns the metrics in the Prometheus text format.
+     */
+    public String scrape() {
+        StringBuilder sb = new StringBuilder(4096);
+        counter(sb, "apns_notifications_sent_total", "Notifications written to Apple, not counting resends",
+                metrics.getSent());
+        counter(sb, "apns_notifications_resent_total", "Notifications written again after an error response",
+                metrics.getResent());
+        counter(sb, "apns_notifications_failed_total", "Notifications reported to the delegate as failed",
+                metrics.getFailed());
+        counter(sb, "apns_notifications_rejected_locally_total", "Notifications rejected by the client-side validation",
+                metrics.getRejectedLocally());
+        counter(sb, "apns_retries_total", "Rejected notifications resent by the retry policy",
+                metrics.getRetries());
+        counter(sb, "apns_duplicates_suppressed_total", "Duplicate resends suppressed",
+                metrics.getDuplicatesSuppressed());
+        counter(sb, "apns_reconnects_total", "Connections made to Apple", metrics.getReconnects());
+
+        header(sb, "apns_error_responses_total", "Error responses received from Apple", "counter");
+        for (DeliveryError error : DeliveryError.values()) {
+            sample(sb, "apns_error_responses_total", "error=\"" + error.name() + "\"",
+                    Long.toString(metrics.getErrorResponses(error)));
+        }
+
+        gauge(sb, "apns_cached_notifications", "Notifications held in the resend caches",
+                metrics.getCachedNotifications());
+        gauge(sb, "apns_queued_notifications", "Notifications waiting in the queue of a queued service",
+                metrics.getQueuedNotifications());
+        gauge(sb, "apns_batched_notifications", "Notifications waiting for the next batch",
+                metrics.getBatchedNotifications());
+        gauge(sb, "apns_pooled_tasks", "Sends submitted to a connection pool and not completed yet",
+                metrics.getPooledTasks());
+
+        header(sb, "apns_latency_seconds", "Latency of the stages of sending a notification", "histogram");
+        for (ApnsMetrics.Stage stage : ApnsMetrics.Stage.values()) {
+            histogram(sb, "stage=\"" + stage.name().toLowerCase(Locale.ENGLISH) + "\"",
+                    metrics.getLatency(stage).snapshot());
+        }
+        return sb.toString();
+    }
+
+    private void counter(StringBuilder sb, String name, String help, long value) {
+        header(sb, name, help, "counter");
+        sample(sb, name, null, Long.toString(value));
+    }
+
+    private void gauge(StringBuilder sb, String name, String help, long value) {
+        header(sb, name, help, "gauge");
+        sample(sb, name, null, Long.toString(value));
+    }
+
+    private void histogram(StringBuilder sb, String stage, LatencyHistogram.Snapshot snapshot) {
+        for (double bound : BOUNDS) {
+            long nanos = (long) (bound * TimeUnit.SECONDS.toNanos(1));
+            sample(sb, "apns_latency_seconds_bucket", stage + ",le=\"" + bound + "\"",
+                    Long.toString(snapshot.getCountAtOrBelow(nanos)));
+        }
+        sample(sb, "apns_latency_seconds_bucket", stage + ",le=\"+Inf\"", Long.toString(snapshot.getCount()));
+        double sum = snapshot.getMean() * snapshot.getCount() / TimeUnit.SECONDS.toNanos(1);
+        sample(sb, "apns_latency_seconds_sum", stage, Double.toString(sum));
+        sample(sb, "apns_latency_seconds_count", stage, Long.toString(snapshot.getCount()));
+    }
+
+    private static void header(StringBuilder sb, String name, String help, String type) {
+        sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private void sample(StringBuilder sb, String name, String extraLabels, String value) {
+        sb.append(name);
+        if (labels.length() != 0 || extraLabels != null) {
+            sb.append('{').append(labels);
+            if (labels.length() != 0 && extraLabels != null) {
+                sb.append(',');
+            }
+            if (extraLabels != null) {
+                sb.append(extraLabels);
+            }
+            sb.append('}');
+        }
+        sb.append(' ').append(value).append('\n');
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
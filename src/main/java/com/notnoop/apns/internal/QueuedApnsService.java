@@ -41,8 +41,10 @@ import java.util.concurrent.ThreadFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.notnoop.apns.ApnsMetrics;
 import com.notnoop.apns.ApnsNotification;
 import com.notnoop.apns.ApnsService;
+import com.notnoop.apns.InactiveDeviceListener;
 import com.notnoop.exceptions.NetworkIOException;
 
 public class QueuedApnsService extends AbstractApnsService {
@@ -50,27 +52,48 @@ public class QueuedApnsService extends AbstractApnsService {
 	private static final Logger logger = LoggerFactory.getLogger(QueuedApnsService.class);
 	
     private ApnsService service;
-    private BlockingQueue<ApnsNotification> queue;
+    private BlockingQueue<Queued> queue;
     private AtomicBoolean started = new AtomicBoolean(false);
+    private final ApnsMetrics metrics;
 
     public QueuedApnsService(ApnsService service) {
         this(service, null);
     }
 
     public QueuedApnsService(ApnsService service, final ThreadFactory tf) {
+        this(service, tf, null);
+    }
+
+    public QueuedApnsService(ApnsService service, final ThreadFactory tf, ApnsMetrics metrics) {
         super(null);
+        this.metrics = metrics;
         this.service = service;
-        this.queue = new LinkedBlockingQueue<ApnsNotification>();
+        this.queue = new LinkedBlockingQueue<Queued>();
         this.threadFactory = tf == null ? Executors.defaultThreadFactory() : tf;
         this.thread = null;
     }
 
     @Override
-    public void push(ApnsNotification msg) {
+    protected void send(ApnsNotification msg) {
         if (!started.get()) {
             throw new IllegalStateException("service hasn't be started or was closed");
         }
-        queue.add(msg);
+        queue.add(new Queued(msg, metrics != null ? System.nanoTime() : 0, FlightRecorder.QUEUE.begin()));
+        if (metrics != null) {
+            metrics.queued(1);
+        }
+    }
+
+    private static final class Queued {
+        final ApnsNotification msg;
+        final long enqueued;
+        final FlightRecorder.Event event;
+
+        Queued(ApnsNotification msg, long enqueued, FlightRecorder.Event event) {
+            this.msg = msg;
+            this.enqueued = enqueued;
+            this.event = event;
+        }
     }
 
     private final ThreadFactory threadFactory;
@@ -91,8 +114,15 @@ public class QueuedApnsService extends AbstractApnsService {
             public void run() {
                 while (shouldContinue) {
                     try {
-                        ApnsNotification msg = queue.take();
-                        service.push(msg);
+                        Queued queued = queue.take();
+                        if (metrics != null) {
+                            metrics.queued(-1);
+                            metrics.latency(ApnsMetrics.Stage.QUEUE, System.nanoTime() - queued.enqueued);
+                        }
+                        if (queued.event != null) {
+                            queued.event.commit(queue.size());
+                        }
+                        service.push(queued.msg);
                     } catch (InterruptedException e) {
                     	// ignore
                     } catch (NetworkIOException e) {
@@ -119,6 +149,11 @@ public class QueuedApnsService extends AbstractApnsService {
         return service.getInactiveDevices();
     }
 
+    @Override
+    public int getInactiveDevices(InactiveDeviceListener listener, int batchSize) throws NetworkIOException {
+        return service.getInactiveDevices(listener, batchSize);
+    }
+
     public void testConnection() throws NetworkIOException {
         service.testConnection();
     }
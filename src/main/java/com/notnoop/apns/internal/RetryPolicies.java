@@ -0,0 +1,73 @@
+/*
+ *  Copyright 2009, Mahmood Ali.
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions are
+ *  met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ *      copyright notice, this list of conditions and the following disclaimer
+ *      in the documentation and/or other materials provided with the
+ *      distribution.
+ *    * Neither the name of Mahmood Ali. nor the names of its
+ *      contributors may be used to endorse or promote products derived from
+ *      this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ *  A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ *  OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ *  SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ *  LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ *  OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.notnoop.apns.internal;
+
+import java.util.EnumSet;
+import java.util.Set;
+
+import com.notnoop.apns.DeliveryError;
+import com.notnoop.apns.RetryPolicy;
+
+public final class RetryPolicies {
+
+    public static class Never implements RetryPolicy {
+        public boolean shouldRetry(DeliveryError error, int attempts) { return false; }
+        public int getRetryDelay(DeliveryError error, int attempts) { return 0; }
+    }
+
+    /**
+     * Retries notifications rejected with one of the given errors, up to
+     * {@code maxRetries} times.  The delay grows linearly with the number
+     * of attempts.
+     */
+    public static class OnErrors implements RetryPolicy {
+        private final Set<DeliveryError> errors;
+        private final int maxRetries;
+        private final int delayMillis;
+
+        public OnErrors(int maxRetries, int delayMillis, DeliveryError error, DeliveryError... errors) {
+            if (maxRetries < 0 || delayMillis < 0) {
+                throw new IllegalArgumentException("maxRetries and delayMillis must not be negative");
+            }
+            this.errors = EnumSet.of(error, errors);
+            this.maxRetries = maxRetries;
+            this.delayMillis = delayMillis;
+        }
+
+        public boolean shouldRetry(DeliveryError error, int attempts) {
+            return attempts <= maxRetries && errors.contains(error);
+        }
+
+        public int getRetryDelay(DeliveryError error, int attempts) {
+            return delayMillis * attempts;
+        }
+    }
+}
@@ -41,13 +41,17 @@ import java.io.UnsupportedEncodingException;
 import java.net.Socket;
 import java.security.GeneralSecurityException;
 import java.security.KeyStore;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.regex.Pattern;
 import javax.net.ssl.KeyManagerFactory;
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.TrustManagerFactory;
+import com.notnoop.apns.InactiveDevice;
+import com.notnoop.apns.InactiveDeviceListener;
 import com.notnoop.exceptions.InvalidSSLConfig;
 import com.notnoop.exceptions.NetworkIOException;
 import org.slf4j.Logger;
@@ -70,29 +74,64 @@ public final class Utilities {
 
     public static final int MAX_PAYLOAD_LENGTH = 2048;
 
+    public static final int FEEDBACK_BATCH_SIZE = 1000;
+
     private Utilities() { throw new AssertionError("Uninstantiable class"); }
 
-    private static final Pattern pattern = Pattern.compile("[ -]");
-    public static byte[] decodeHex(final String deviceToken) {
-        final String hex = pattern.matcher(deviceToken).replaceAll("");
+    private static final byte SEPARATOR = -2;
+    private static final byte[] HEX_VALUES = new byte[128];
+    static {
+        Arrays.fill(HEX_VALUES, (byte) -1);
+        for (int i = 0; i < 10; i++) {
+            HEX_VALUES['0' + i] = (byte) i;
+        }
+        for (int i = 0; i < 6; i++) {
+            HEX_VALUES['a' + i] = (byte) (10 + i);
+            HEX_VALUES['A' + i] = (byte) (10 + i);
+        }
+        HEX_VALUES[' '] = SEPARATOR;
+        HEX_VALUES['-'] = SEPARATOR;
+    }
 
-        final byte[] bts = new byte[hex.length() / 2];
-        for (int i = 0; i < bts.length; i++) {
-            bts[i] = (byte) (charVal(hex.charAt(2 * i)) * 16 + charVal(hex.charAt(2 * i + 1)));
+    /**
+     * Returns whether {@link #decodeHex(String)} decodes the String
+     * entirely: it has an even number of Hex digits, possibly separated
+     * by spaces or dashes.
+     */
+    public static boolean isHex(final String deviceToken) {
+        int digits = 0;
+        for (int i = 0; i < deviceToken.length(); i++) {
+            final char c = deviceToken.charAt(i);
+            final int value = c < HEX_VALUES.length ? HEX_VALUES[c] : -1;
+            if (value >= 0) {
+                digits++;
+            } else if (value != SEPARATOR) {
+                return false;
+            }
         }
-        return bts;
+        return digits % 2 == 0;
     }
 
-    private static int charVal(final char a) {
-        if ('0' <= a && a <= '9') {
-            return (a - '0');
-        } else if ('a' <= a && a <= 'f') {
-            return (a - 'a') + 10;
-        } else if ('A' <= a && a <= 'F') {
-            return (a - 'A') + 10;
-        } else {
-            throw new RuntimeException("Invalid hex character: " + a);
+    public static byte[] decodeHex(final String deviceToken) {
+        final int length = deviceToken.length();
+        final byte[] bts = new byte[length / 2];
+        int n = 0;
+        int high = -1;
+        for (int i = 0; i < length; i++) {
+            final char c = deviceToken.charAt(i);
+            final int value = c < HEX_VALUES.length ? HEX_VALUES[c] : -1;
+            if (value >= 0) {
+                if (high < 0) {
+                    high = value;
+                } else {
+                    bts[n++] = (byte) (high << 4 | value);
+                    high = -1;
+                }
+            } else if (value != SEPARATOR) {
+                throw new IllegalArgumentException("Invalid hex character: " + c);
+            }
         }
+        return n == bts.length ? bts : copyOfRange(bts, 0, n);
     }
 
     private static final char base[] = {'0','1','2','3','4','5','6','7','8','9','A','B','C','D','E','F'};
@@ -109,6 +148,15 @@ public final class Utilities {
         return new String(chars);
     }
 
+    public static StringBuilder encodeHex(final byte[] bytes, final StringBuilder sb) {
+        sb.ensureCapacity(sb.length() + bytes.length * 2);
+        for (final byte bt : bytes) {
+            final int b = bt & 0xFF;
+            sb.append(base[b >>> 4]).append(base[b & 0xF]);
+        }
+        return sb;
+    }
+
     public static byte[] toUTF8Bytes(final String s) {
         try {
             return s.getBytes("UTF-8");
@@ -178,19 +226,70 @@ public final class Utilities {
     public static Map<String, Date> parseFeedbackStream(final InputStream in) {
         final Map<String, Date> result = new HashMap<String, Date>();
 
-        final Map<byte[], Integer> raw = parseFeedbackStreamRaw(in);
-        for (final Map.Entry<byte[], Integer> entry : raw.entrySet()) {
-            final byte[] dtArray = entry.getKey();
-            final int time = entry.getValue(); // in seconds
-
-            final Date date = new Date(time * 1000L);    // in ms
-            final String dtString = encodeHex(dtArray);
-            result.put(dtString, date);
+        try {
+            parseFeedbackStream(in, new InactiveDeviceListener() {
+                public void inactiveDevices(final List<InactiveDevice> devices) {
+                    for (final InactiveDevice device : devices) {
+                        result.put(device.getDeviceTokenHex(), device.getInactiveSince());
+                    }
+                }
+            }, FEEDBACK_BATCH_SIZE);
+        } catch (final IOException e) {
+            throw new RuntimeException(e);
         }
 
         return result;
     }
 
+    /**
+     * Reads the feedback stream, handing the records to the listener in
+     * batches of at most {@code batchSize} as they are read.
+     *
+     * The records read before a failure are handed to the listener before
+     * the exception is thrown, as they cannot be read again.
+     *
+     * @return the number of records read
+     * @throws IOException if the stream fails before its end
+     */
+    public static int parseFeedbackStream(final InputStream in, final InactiveDeviceListener listener, final int batchSize)
+            throws IOException {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("batchSize must be positive: " + batchSize);
+        }
+
+        final DataInputStream data = new DataInputStream(in);
+        List<InactiveDevice> batch = new ArrayList<InactiveDevice>(batchSize);
+        int count = 0;
+
+        while (true) {
+            try {
+                final int time = data.readInt();
+                final int dtLength = data.readUnsignedShort();
+                final byte[] deviceToken = new byte[dtLength];
+                data.readFully(deviceToken);
+
+                batch.add(new InactiveDevice(deviceToken, time));
+                count++;
+                if (batch.size() == batchSize) {
+                    listener.inactiveDevices(batch);
+                    batch = new ArrayList<InactiveDevice>(batchSize);
+                }
+            } catch (final EOFException e) {
+                break;
+            } catch (final IOException e) {
+                if (!batch.isEmpty()) {
+                    listener.inactiveDevices(batch);
+                }
+                throw e;
+            }
+        }
+
+        if (!batch.isEmpty()) {
+            listener.inactiveDevices(batch);
+        }
+        return count;
+    }
+
     public static void close(final Closeable closeable) {
         logger.debug("close {}", closeable);
 
@@ -0,0 +1,98 @@
+/*
+ *  Copyright 2009, Mahmood Ali.
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions are
+ *  met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ *      copyright notice, this list of conditions and the following disclaimer
+ *      in the documentation and/or other materials provided with the
+ *      distribution.
+ *    * Neither the name of Mahmood Ali. nor the names of its
+ *      contributors may be used to endorse or promote products derived from
+ *      this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ *  A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ *  OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ *  SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ *  LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ *  OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.notnoop.apns.internal;
+
+import com.notnoop.apns.ApnsDelegate;
+import com.notnoop.apns.ApnsMetrics;
+import com.notnoop.apns.ApnsNotification;
+import com.notnoop.apns.ApnsService;
+import com.notnoop.apns.DeliveryError;
+import com.notnoop.apns.NotificationValidator;
+import com.notnoop.exceptions.ApnsDeliveryErrorException;
+import com.notnoop.exceptions.InvalidDeviceTokenException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Service that fails notifications rejected by a {@link NotificationValidator}
+ * locally, and passes all other notifications on to the wrapped service.
+ */
+public class ValidatingApnsService extends ForwardingApnsService {
+    private static final Logger logger = LoggerFactory.getLogger(ValidatingApnsService.class);
+
+    private final NotificationValidator validator;
+    private final ApnsDelegate delegate;
+    private final ApnsMetrics metrics;
+
+    public ValidatingApnsService(ApnsService service, NotificationValidator validator, ApnsDelegate delegate) {
+        this(service, validator, delegate, null);
+    }
+
+    public ValidatingApnsService(ApnsService service, NotificationValidator validator, ApnsDelegate delegate,
+                                 ApnsMetrics metrics) {
+        super(service);
+        this.validator = validator;
+        this.delegate = delegate == null ? ApnsDelegate.EMPTY : delegate;
+        this.metrics = metrics;
+    }
+
+    @Override
+    protected boolean accept(ApnsNotification msg) {
+        DeliveryError error = validator.validate(msg);
+        if (error == null) {
+            return true;
+        }
+        logger.debug("Rejecting invalid notification {}: {}", msg, error);
+        if (metrics != null) {
+            metrics.rejectedLocally();
+        }
+        delegate.messageSendFailed(msg, new ApnsDeliveryErrorException(error));
+        return false;
+    }
+
+    /**
+     * Rejects tokens that aren't valid Hex before they are decoded, rather
+     * than failing the whole push.
+     */
+    @Override
+    protected boolean acceptToken(String deviceToken) {
+        DeliveryError error = validator.validateToken(deviceToken);
+        if (error == null) {
+            return true;
+        }
+        logger.debug("Rejecting invalid device token {}", deviceToken);
+        if (metrics != null) {
+            metrics.rejectedLocally();
+        }
+        delegate.messageSendFailed(null, new InvalidDeviceTokenException(deviceToken));
+        return false;
+    }
+}
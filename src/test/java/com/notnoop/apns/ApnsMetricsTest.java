@@ -0,0 +1,156 @@
+/*
+ *  Copyright 2009, Mahmood Ali.
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions are
+ *  met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ *      copyright notice, this list of conditions and the following disclaimer
+ *      in the documentation and/or other materials provided with the
+ *      distribution.
+ *    * Neither the name of Mahmood Ali. nor the names of its
+ *      contributors may be used to endorse or promote products derived from
+ *      this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ *  A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ *  OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ *  SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ *  LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ *  OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.notnoop.apns;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.net.SocketFactory;
+import javax.net.ssl.SSLContext;
+
+import org.junit.Test;
+
+import com.notnoop.apns.internal.ApnsConnectionImpl;
+import com.notnoop.apns.internal.ApnsServiceImpl;
+import com.notnoop.apns.internal.MBeanRegistration;
+import com.notnoop.apns.internal.ReconnectPolicies;
+import com.notnoop.apns.internal.RetryPolicies;
+import com.notnoop.apns.internal.StripedCounter;
+import com.notnoop.exceptions.RuntimeIOException;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.*;
+import static org.mockito.Mockito.*;
+
+public class ApnsMetricsTest {
+
+    @Test
+    public void countsSendsOfConnection() throws Exception {
+        Socket socket = mock(Socket.class);
+        when(socket.getOutputStream()).thenReturn(new ByteArrayOutputStream());
+        SocketFactory factory = mock(SocketFactory.class);
+        when(factory.createSocket(anyString(), anyInt())).thenReturn(socket);
+
+        ApnsMetrics metrics = new ApnsMetrics();
+        ApnsConnectionImpl connection = new ApnsConnectionImpl(factory, "localhost", 80, null, null, null,
+                new ReconnectPolicies.Never(), null, false, null, 2, false, 0, 0, new RetryPolicies.Never(), null, metrics);
+        ApnsService service = new ApnsServiceImpl(connection, null);
+        for (int i = 0; i < 3; i++) {
+            service.push(new EnhancedApnsNotification(i, 0, new byte[32], new byte[] { '{', '}' }));
+        }
+
+        assertEquals(3, metrics.getSent());
+        assertEquals(0, metrics.getResent());
+        assertEquals(1, metrics.getReconnects());
+        assertEquals(2, metrics.getCachedNotifications());
+        assertTrue(metrics.getAverageWriteMicros() > 0);
+        assertEquals(3, metrics.getLatency(ApnsMetrics.Stage.WRITE).snapshot().getCount());
+        assertEquals(0, metrics.getLatency(ApnsMetrics.Stage.QUEUE).snapshot().getCount());
+    }
+
+    @Test
+    public void exposesMBean() throws Exception {
+        ApnsMetrics metrics = new ApnsMetrics();
+        metrics.sent(false);
+        metrics.queued(2);
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        MBeanRegistration registration = new MBeanRegistration("com.notnoop.apns:type=ApnsService,name=test",
+                metrics, ApnsMetricsMBean.class);
+        ObjectName name = registration.getName();
+        assertEquals(1L, server.getAttribute(name, "Sent"));
+        assertEquals(2L, server.getAttribute(name, "QueuedNotifications"));
+
+        registration.close();
+        assertFalse(server.isRegistered(name));
+    }
+
+    @Test
+    public void failedBuildReleasesResources() throws Exception {
+        final List<Thread> threads = new ArrayList<Thread>();
+        ServerSocket taken = new ServerSocket(0, 1, InetAddress.getByName("127.0.0.1"));
+        try {
+            APNS.newService()
+                    .withSSLContext(SSLContext.getDefault())
+                    .withGatewayDestination("localhost", 2195)
+                    .withAsyncDelegate(16, new ThreadFactory() {
+                        public Thread newThread(Runnable r) {
+                            Thread thread = new Thread(r);
+                            thread.setDaemon(true);
+                            threads.add(thread);
+                            return thread;
+                        }
+                    })
+                    .withMetrics(new ApnsMetrics(), "failedBuild")
+                    .withPrometheusEndpoint(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), taken.getLocalPort()))
+                    .build();
+            fail("Expected RuntimeIOException");
+        } catch (RuntimeIOException expected) {
+            // the endpoint's port is taken
+        } finally {
+            taken.close();
+        }
+
+        assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(
+                new ObjectName("com.notnoop.apns:type=ApnsService,name=" + ObjectName.quote("failedBuild"))));
+        threads.get(0).join(5000);
+        assertFalse(threads.get(0).isAlive());
+    }
+
+    @Test
+    public void stripedCounterSumsAcrossThreads() throws InterruptedException {
+        final StripedCounter counter = new StripedCounter();
+        final CountDownLatch done = new CountDownLatch(4);
+        for (int t = 0; t < 4; t++) {
+            new Thread() {
+                public void run() {
+                    for (int i = 0; i < 10000; i++) {
+                        counter.increment();
+                    }
+                    counter.add(-5000);
+                    done.countDown();
+                }
+            }.start();
+        }
+        done.await();
+        assertEquals(20000, counter.sum());
+    }
+}
@@ -0,0 +1,234 @@
+/*
+ *  Copyright 2009, Mahmood Ali.
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions are
+ *  met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ *      copyright notice, this list of conditions and the following disclaimer
+ *      in the documentation and/or other materials provided with the
+ *      distribution.
+ *    * Neither the name of Mahmood Ali. nor the names of its
+ *      contributors may be used to endorse or promote products derived from
+ *      this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ *  A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ *  OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ *  SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ *  LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ *  OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.notnoop.apns;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.*;
+import static org.mockito.Mockito.*;
+
+public class CampaignTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final byte[] payload = { '{', '}' };
+    private final List<Integer> sent = new ArrayList<Integer>();
+    private ApnsService service;
+    private File checkpoint;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setUp() throws Exception {
+        checkpoint = new File(folder.getRoot(), "campaign.checkpoint");
+        service = mock(ApnsService.class);
+        when(service.push(any(PackedDeviceTokens.class), eq(payload), anyInt())).thenAnswer(new Answer<BulkPushSummary>() {
+            public BulkPushSummary answer(InvocationOnMock invocation) {
+                PackedDeviceTokens tokens = (PackedDeviceTokens) invocation.getArguments()[0];
+                for (int i = 0; i < tokens.size(); i++) {
+                    sent.add((int) tokens.get(i).toByteArray()[0]);
+                }
+                return new BulkPushSummary(tokens.size(), 0, 0);
+            }
+        });
+        when(service.push(any(Iterator.class), eq(payload), anyInt())).thenAnswer(new Answer<BulkPushSummary>() {
+            public BulkPushSummary answer(InvocationOnMock invocation) {
+                Iterator<byte[]> tokens = (Iterator<byte[]>) invocation.getArguments()[0];
+                int count = 0;
+                while (tokens.hasNext()) {
+                    sent.add((int) tokens.next()[0]);
+                    count++;
+                }
+                return new BulkPushSummary(count, 0, 0);
+            }
+        });
+    }
+
+    private static PackedDeviceTokens tokens(int count) {
+        byte[] packed = new byte[count * DeviceToken.LENGTH];
+        for (int i = 0; i < packed.length; i++) {
+            packed[i] = (byte) (i / DeviceToken.LENGTH);
+        }
+        return PackedDeviceTokens.wrap(packed);
+    }
+
+    private static Iterator<byte[]> iterator(final int count) {
+        List<byte[]> tokens = new ArrayList<byte[]>();
+        for (int i = 0; i < count; i++) {
+            byte[] token = new byte[DeviceToken.LENGTH];
+            token[0] = (byte) i;
+            tokens.add(token);
+        }
+        return tokens.iterator();
+    }
+
+    private void assertSent(int from, int to) {
+        assertEquals(to - from, sent.size());
+        for (int i = from; i < to; i++) {
+            assertEquals(i, (int) sent.get(i - from));
+        }
+    }
+
+    private long readCheckpoint() throws Exception {
+        return Long.parseLong(new java.util.Scanner(checkpoint).nextLine());
+    }
+
+    @Test
+    public void runToCompletion() throws Exception {
+        CampaignListener listener = mock(CampaignListener.class);
+        CampaignProgress progress = new Campaign(service, payload, checkpoint)
+                .withCheckpointInterval(7)
+                .withListener(listener)
+                .run(tokens(20));
+
+        assertSent(0, 20);
+        assertTrue(progress.isDone());
+        assertEquals(20, progress.getSent());
+        assertEquals(20, readCheckpoint());
+        verify(listener).progress(progress);
+    }
+
+    @Test
+    public void resumeFromCheckpoint() throws Exception {
+        FileOutputStream out = new FileOutputStream(checkpoint);
+        out.write("5\n".getBytes("UTF-8"));
+        out.close();
+
+        CampaignProgress progress = new Campaign(service, payload, checkpoint).run(tokens(12));
+
+        assertSent(5, 12);
+        assertEquals(5, progress.getResumedFrom());
+        assertEquals(12, readCheckpoint());
+    }
+
+    @Test
+    public void completedCampaignSendsNothing() throws Exception {
+        new Campaign(service, payload, checkpoint).run(tokens(3));
+        sent.clear();
+        new Campaign(service, payload, checkpoint).run(tokens(3));
+        assertTrue(sent.isEmpty());
+    }
+
+    @Test
+    public void iteratorOfUnknownSize() throws Exception {
+        CampaignProgress progress = new Campaign(service, payload, checkpoint)
+                .withCheckpointInterval(10)
+                .run(iterator(25), -1);
+
+        assertSent(0, 25);
+        assertEquals(25, progress.getSent());
+        assertEquals(25, readCheckpoint());
+
+        sent.clear();
+        new Campaign(service, payload, checkpoint).run(iterator(30), -1);
+        assertSent(25, 30);
+    }
+
+    @Test
+    public void stopAndResume() throws Exception {
+        final Campaign campaign = new Campaign(service, payload, checkpoint)
+                .withCheckpointInterval(1);
+        campaign.withListener(new CampaignListener() {
+            public void progress(CampaignProgress progress) {
+                if (progress.getSent() >= 3) {
+                    campaign.stop();
+                }
+            }
+        }, 0);
+
+        CampaignProgress progress = campaign.run(tokens(10));
+        assertEquals(3, progress.getSent());
+        assertEquals(3, readCheckpoint());
+
+        sent.clear();
+        progress = new Campaign(service, payload, checkpoint).run(tokens(10));
+        assertSent(3, 10);
+        assertEquals(10, progress.getSent());
+    }
+
+    @Test
+    public void failureIsNotHiddenByCheckpoint() throws Exception {
+        when(service.push(any(PackedDeviceTokens.class), eq(payload), anyInt()))
+                .thenReturn(new BulkPushSummary(10, 0, 0))
+                .thenThrow(new IllegalStateException("push failed"));
+        File unwritable = new File(new File(folder.getRoot(), "missing"), "campaign.checkpoint");
+
+        try {
+            new Campaign(service, payload, unwritable)
+                    .withRate(100)
+                    .run(tokens(20));
+            fail("Expected IllegalStateException");
+        } catch (IllegalStateException expected) {
+            assertEquals("push failed", expected.getMessage());
+        }
+    }
+
+    @Test
+    public void interruptStopsCampaign() throws Exception {
+        Thread.currentThread().interrupt();
+        CampaignProgress progress;
+        try {
+            progress = new Campaign(service, payload, checkpoint)
+                    .withRate(10)
+                    .run(tokens(100));
+        } finally {
+            assertTrue(Thread.interrupted());
+        }
+
+        assertSent(0, 1);
+        assertEquals(1, progress.getSent());
+        assertEquals(1, readCheckpoint());
+    }
+
+    @Test
+    public void rateLimited() throws Exception {
+        long start = System.currentTimeMillis();
+        CampaignProgress progress = new Campaign(service, payload, checkpoint)
+                .withRate(100)
+                .run(tokens(40));
+
+        assertSent(0, 40);
+        assertTrue(System.currentTimeMillis() - start >= 350);
+        assertTrue(progress.getThroughput() <= 120);
+    }
+}
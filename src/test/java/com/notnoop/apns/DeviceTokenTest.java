@@ -0,0 +1,92 @@
+/*
+ *  Copyright 2009, Mahmood Ali.
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions are
+ *  met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ *      copyright notice, this list of conditions and the following disclaimer
+ *      in the documentation and/or other materials provided with the
+ *      distribution.
+ *    * Neither the name of Mahmood Ali. nor the names of its
+ *      contributors may be used to endorse or promote products derived from
+ *      this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ *  A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ *  OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ *  SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ *  LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ *  OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.notnoop.apns;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class DeviceTokenTest {
+
+    String hex = "FEDFBCFB00112233445566778899AABBCCDDEEFF0123456789ABCDEF01234567";
+
+    @Test
+    public void parseAndFormat() {
+        DeviceToken token = DeviceToken.parse(hex.toLowerCase());
+        assertEquals(DeviceToken.LENGTH, token.length());
+        assertEquals(hex, token.toString());
+        assertEquals(hex, token.appendHex(new StringBuilder()).toString());
+    }
+
+    @Test
+    public void parseWithSeparators() {
+        DeviceToken token = DeviceToken.parse("fedf bcfb-0011");
+        assertArrayEquals(new byte[] { (byte)0xFE, (byte)0xDF, (byte)0xBC, (byte)0xFB, 0x00, 0x11 }, token.toByteArray());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void parseInvalid() {
+        DeviceToken.parse("fedg");
+    }
+
+    @Test
+    public void equality() {
+        DeviceToken a = DeviceToken.parse(hex);
+        DeviceToken b = DeviceToken.of(a.toByteArray());
+        assertEquals(a, b);
+        assertEquals(a.hashCode(), b.hashCode());
+        assertFalse(a.equals(DeviceToken.parse("00")));
+
+        Set<DeviceToken> set = new HashSet<DeviceToken>();
+        set.add(a);
+        assertTrue(set.contains(b));
+    }
+
+    @Test
+    public void isImmutable() {
+        byte[] bytes = new byte[] { 1, 2 };
+        DeviceToken token = DeviceToken.of(bytes);
+        bytes[0] = 0;
+        token.toByteArray()[1] = 0;
+        assertArrayEquals(new byte[] { 1, 2 }, token.toByteArray());
+    }
+
+    @Test
+    public void notificationSharesToken() {
+        DeviceToken token = DeviceToken.parse(hex);
+        EnhancedApnsNotification notification = new EnhancedApnsNotification(1,
+                EnhancedApnsNotification.MAXIMUM_EXPIRY, token, new byte[] { '{', '}' });
+        assertEquals(new EnhancedApnsNotification(1, EnhancedApnsNotification.MAXIMUM_EXPIRY, hex, "{}"), notification);
+    }
+}
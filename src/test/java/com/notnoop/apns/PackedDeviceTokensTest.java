@@ -0,0 +1,112 @@
+/*
+ *  Copyright 2009, Mahmood Ali.
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions are
+ *  met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ *      copyright notice, this list of conditions and the following disclaimer
+ *      in the documentation and/or other materials provided with the
+ *      distribution.
+ *    * Neither the name of Mahmood Ali. nor the names of its
+ *      contributors may be used to endorse or promote products derived from
+ *      this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ *  A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ *  OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ *  SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ *  LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ *  OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.notnoop.apns;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.ByteBuffer;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.*;
+
+public class PackedDeviceTokensTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static byte[] packed(int count) {
+        byte[] tokens = new byte[count * DeviceToken.LENGTH];
+        for (int i = 0; i < tokens.length; i++) {
+            tokens[i] = (byte) (i / DeviceToken.LENGTH);
+        }
+        return tokens;
+    }
+
+    private static void assertToken(int expected, PackedDeviceTokens tokens, int index) {
+        byte[] token = new byte[DeviceToken.LENGTH];
+        tokens.get(index, token);
+        for (byte b : token) {
+            assertEquals(expected, b);
+        }
+        assertArrayEquals(token, tokens.get(index).toByteArray());
+    }
+
+    @Test
+    public void wrapArray() {
+        PackedDeviceTokens tokens = PackedDeviceTokens.wrap(packed(3));
+        assertEquals(3, tokens.size());
+        assertToken(0, tokens, 0);
+        assertToken(2, tokens, 2);
+    }
+
+    @Test
+    public void wrapBufferFromPosition() {
+        ByteBuffer buffer = ByteBuffer.wrap(packed(3));
+        buffer.position(DeviceToken.LENGTH);
+        PackedDeviceTokens tokens = PackedDeviceTokens.wrap(buffer);
+        assertEquals(2, tokens.size());
+        assertToken(1, tokens, 0);
+    }
+
+    @Test
+    public void mapFile() throws Exception {
+        File file = folder.newFile("tokens");
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(packed(4));
+        out.close();
+
+        PackedDeviceTokens tokens = PackedDeviceTokens.map(file);
+        assertEquals(4, tokens.size());
+        assertToken(3, tokens, 3);
+    }
+
+    @Test
+    public void range() {
+        PackedDeviceTokens tokens = PackedDeviceTokens.wrap(packed(5)).range(1, 4);
+        assertEquals(3, tokens.size());
+        assertToken(1, tokens, 0);
+        assertToken(3, tokens, 2);
+        assertEquals(1, tokens.range(2, 3).size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void partialToken() {
+        PackedDeviceTokens.wrap(new byte[DeviceToken.LENGTH + 1]);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void indexOutOfBounds() {
+        PackedDeviceTokens.wrap(packed(2)).get(2);
+    }
+}
@@ -334,6 +334,75 @@ public class PayloadBuilderTest {
         assertFalse(builder.isTooLong());
     }
 
+    private void assertLength(final PayloadBuilder builder) {
+        assertEquals(builder.copy().buildBytes().length, builder.length());
+    }
+
+    @Test
+    public void lengthMatchesEncodedLength() {
+        final PayloadBuilder builder = new PayloadBuilder();
+        assertLength(builder);
+
+        builder.alertBody("quote \" backslash \\ tab \t nul \u0000 e\u00E9 \u20AC \uD83D\uDE00 lone \uD83D.");
+        assertLength(builder);
+        builder.badge(-12).sound("default").category("c");
+        assertLength(builder);
+        builder.alertTitle("title").localizedArguments("a", "b").noActionButton();
+        assertLength(builder);
+        builder.urlArgs("x", "y").instantDeliveryOrSilentNotification();
+        assertLength(builder);
+        builder.customField("long", Long.MIN_VALUE).customField("double", 1.5).customField("flag", true);
+        assertLength(builder);
+        builder.sound(null).category(null).alertBody("again");
+        assertLength(builder);
+        builder.customField("aps", "ignored");
+        assertLength(builder);
+        builder.build();
+        assertLength(builder);
+    }
+
+    @Test
+    public void lengthTracksMutableCustomFields() {
+        final Map<String, Object> custom = new java.util.HashMap<String, Object>();
+        final PayloadBuilder builder = new PayloadBuilder().alertBody("test").customField("custom", custom);
+        assertLength(builder);
+
+        custom.put("key", Arrays.asList(1, 2, 3));
+        assertLength(builder);
+
+        builder.customField("custom", "replaced");
+        assertLength(builder);
+        builder.customFields(java.util.Collections.singletonMap("other", new int[] { 1, 2 }));
+        assertLength(builder);
+    }
+
+    @Test
+    public void serializerMatchesJackson() throws Exception {
+        final PayloadBuilder builder = new PayloadBuilder()
+                .alertBody("quote \" backslash \\ control \n\u0001 utf8 \u00E9\u20AC\uD83D\uDE00")
+                .alertTitle("title")
+                .localizedArguments("a", "b")
+                .urlArgs("x", "y")
+                .badge(-12)
+                .sound(null)
+                .customField("long", Long.MAX_VALUE)
+                .customField("flag", false)
+                .customField("double", 1.5)
+                .customField("nested", java.util.Collections.singletonMap("list", Arrays.asList(1, "two", null)));
+
+        final String json = builder.build();
+        final ObjectMapper mapper = new ObjectMapper();
+        assertEquals(mapper.writeValueAsString(mapper.readValue(json, Map.class)), json);
+        assertArrayEquals(Utilities.toUTF8Bytes(json), builder.buildBytes());
+        assertLength(builder);
+    }
+
+    @Test
+    public void lengthOfMdm() {
+        final PayloadBuilder builder = new PayloadBuilder().mdm("123");
+        assertLength(builder);
+    }
+
     private String strOfLen(final int l) {
         final StringBuilder sb = new StringBuilder();
         for (int i = 0; i < l; ++i) {
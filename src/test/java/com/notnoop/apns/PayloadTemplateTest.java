@@ -0,0 +1,141 @@
+/*
+ *  Copyright 2009, Mahmood Ali.
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions are
+ *  met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ *      copyright notice, this list of conditions and the following disclaimer
+ *      in the documentation and/or other materials provided with the
+ *      distribution.
+ *    * Neither the name of Mahmood Ali. nor the names of its
+ *      contributors may be used to endorse or promote products derived from
+ *      this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ *  A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ *  OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ *  SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ *  LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ *  OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.notnoop.apns;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class PayloadTemplateTest {
+
+    @Test
+    public void textPlaceholders() {
+        PayloadTemplate template = APNS.newPayload()
+                .alertBody("Hi ${name}, ${name} has ${count} messages")
+                .toTemplate();
+        assertEquals(Arrays.asList("name", "count"), template.getSlotNames());
+
+        byte[] rendered = template.render("Tim", 3);
+        String expected = APNS.newPayload().alertBody("Hi Tim, Tim has 3 messages").build();
+        assertEquals(expected, new String(rendered));
+        assertEquals(rendered.length, template.length("Tim", 3));
+    }
+
+    @Test
+    public void numericPlaceholder() {
+        PayloadTemplate template = APNS.newPayload()
+                .alertBody("Order shipped")
+                .customField("order", "#{order}")
+                .toTemplate();
+
+        String expected = APNS.newPayload().alertBody("Order shipped")
+                .customField("order", -1234567890123L).build();
+        assertEquals(expected, new String(template.render(-1234567890123L)));
+    }
+
+    @Test
+    public void valuesAreEscaped() throws Exception {
+        PayloadTemplate template = APNS.newPayload()
+                .alertBody("Message from ${from}")
+                .toTemplate();
+
+        String from = "\"quoted\"\\ \n\u0001 é € 😀 \uD800";
+        byte[] expected = APNS.newPayload().alertBody("Message from " + from).buildBytes();
+        assertArrayEquals(expected, template.render(from));
+        assertEquals(expected.length, template.length(from));
+    }
+
+    @Test
+    public void renderToOffset() {
+        PayloadTemplate template = APNS.newPayload().alertBody("${a}").toTemplate();
+        byte[] dst = new byte[32];
+        int length = template.renderTo(dst, 5, "x");
+        assertEquals(template.length("x"), length);
+        assertEquals("{\"aps\":{\"alert\":\"x\"}}", new String(dst, 5, length));
+    }
+
+    @Test
+    public void builderChangesDoNotAffectTemplate() {
+        PayloadBuilder builder = APNS.newPayload().alertBody("${a}");
+        PayloadTemplate template = builder.toTemplate();
+        builder.sound("default");
+        assertEquals("{\"aps\":{\"alert\":\"b\"}}", new String(template.render("b")));
+    }
+
+    @Test
+    public void noPlaceholders() {
+        PayloadTemplate template = APNS.newPayload().alertBody("$ {x} #{y}").toTemplate();
+        assertTrue(template.getSlotNames().isEmpty());
+        assertEquals(APNS.newPayload().alertBody("$ {x} #{y}").build(), new String(template.render()));
+    }
+
+    @Test
+    public void numericPlaceholderInArray() {
+        PayloadTemplate template = APNS.newPayload()
+                .customField("ids", Arrays.asList("#{a}", "#{b}"))
+                .toTemplate();
+        assertEquals("{\"ids\":[1,2],\"aps\":{}}", new String(template.render(1, 2)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void numericPlaceholderKeyAfterComma() {
+        // {"a":1,"#{k}":2}
+        APNS.newPayload().customField("a", 1).customField("#{k}", 2).toTemplate();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void textPlaceholderKey() {
+        APNS.newPayload().customField("key-${k}", "value").toTemplate();
+    }
+
+    @Test
+    public void placeholderSyntaxInKeyWithoutName() {
+        PayloadTemplate template = APNS.newPayload().customField("$", "${v}").toTemplate();
+        assertEquals(Arrays.asList("v"), template.getSlotNames());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void wrongNumberOfValues() {
+        APNS.newPayload().alertBody("${a} ${b}").toTemplate().render("a");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void nonIntegralNumber() {
+        APNS.newPayload().customField("n", "#{n}").toTemplate().render("1");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void mixedPlaceholderKinds() {
+        APNS.newPayload().alertBody("${n}").customField("n", "#{n}").toTemplate();
+    }
+}
@@ -0,0 +1,283 @@
+/*
+ *  Copyright 2009, Mahmood Ali.
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions are
+ *  met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ *      copyright notice, this list of conditions and the following disclaimer
+ *      in the documentation and/or other materials provided with the
+ *      distribution.
+ *    * Neither the name of Mahmood Ali. nor the names of its
+ *      contributors may be used to endorse or promote products derived from
+ *      this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ *  A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ *  OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ *  SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ *  LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ *  OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.notnoop.apns.integration;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.SSLSocket;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.notnoop.apns.APNS;
+import com.notnoop.apns.ApnsNotification;
+import com.notnoop.apns.ApnsService;
+import com.notnoop.apns.ApnsServiceBuilder;
+import com.notnoop.apns.EnhancedApnsNotification;
+import com.notnoop.apns.internal.Utilities;
+import com.notnoop.apns.utils.FixedCertificates;
+import com.notnoop.apns.utils.Simulator.ApnsSimulatorWithVerification;
+import com.notnoop.apns.utils.Simulator.NioApnsServerSimulator;
+
+import static com.notnoop.apns.utils.FixedCertificates.LOCALHOST;
+import static com.notnoop.apns.utils.FixedCertificates.clientContext;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Measures the bytes allocated per notification once sending has reached a
+ * steady state, for each service mode, and fails when a mode goes over the
+ * budget recorded in {@code allocation-budgets.properties}.
+ *
+ * Only the threads of the client are counted: the test thread, which
+ * pushes, and the threads the service creates through the thread factories
+ * it is given.  The notifications are built before measuring, so what is
+ * left is the cost of sending them.  Most of that is the JDK encrypting a
+ * TLS record per flush, which varies with the JDK and the protocol version,
+ * so the same frames are first written and flushed one by one over a bare
+ * SSL socket, and only what the library allocates beyond that is held to
+ * the budget.  When an optimisation lowers a figure, lower the budget with
+ * it.
+ */
+public class ApnsAllocationTest {
+
+    final Logger logger = LoggerFactory.getLogger(ApnsAllocationTest.class);
+
+    private static final int WARMUP = 20000;
+    private static final int NOTIFICATIONS = 50000;
+    private static final byte[] PAYLOAD = Utilities.toUTF8Bytes("{\"aps\":{\"alert\":\"Hello\",\"badge\":1}}");
+
+    private static com.sun.management.ThreadMXBean threadBean;
+    private static Properties budgets;
+
+    private NioApnsServerSimulator server;
+    private RecordingThreadFactory threads;
+    private ApnsService service;
+
+    @BeforeClass
+    public static void setUpClass() throws IOException {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        threadBean = (com.sun.management.ThreadMXBean) bean;
+        assumeTrue(threadBean.isThreadAllocatedMemorySupported());
+        threadBean.setThreadAllocatedMemoryEnabled(true);
+
+        budgets = new Properties();
+        InputStream in = ApnsAllocationTest.class.getResourceAsStream("/allocation-budgets.properties");
+        try {
+            budgets.load(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    @Before
+    public void setUp() {
+        ThroughputHarness.quietLogging();
+        server = new NioApnsServerSimulator(FixedCertificates.serverContext(), 1);
+        server.start();
+        threads = new RecordingThreadFactory();
+    }
+
+    @After
+    public void tearDown() {
+        if (service != null) {
+            service.stop();
+        }
+        server.stop();
+    }
+
+    @Test
+    public void plain() throws Exception {
+        assertWithinBudget("plain", newService());
+    }
+
+    @Test
+    public void pooled() throws Exception {
+        assertWithinBudget("pooled", newService().asPool(Executors.newFixedThreadPool(2, threads), 2));
+    }
+
+    @Test
+    public void queued() throws Exception {
+        assertWithinBudget("queued", newService().asQueued(threads));
+    }
+
+    @Test
+    public void batched() throws Exception {
+        assertWithinBudget("batched", newService().asBatched(1, 1, threads));
+    }
+
+    private ApnsServiceBuilder newService() {
+        return APNS.newService()
+                .withSSLContext(clientContext())
+                .withGatewayDestination(LOCALHOST, server.getEffectiveGatewayPort())
+                .withFeedbackDestination(LOCALHOST, server.getEffectiveFeedbackPort())
+                .withErrorDetectionThreadFactory(threads);
+    }
+
+    private void assertWithinBudget(String mode, ApnsServiceBuilder builder) throws Exception {
+        ApnsNotification[] warmup = notifications(WARMUP, 1);
+        ApnsNotification[] measured = notifications(NOTIFICATIONS, WARMUP + 1);
+        long tls = tlsBytesPerNotification(warmup, measured);
+
+        long received = server.getReceived();
+        service = builder.build();
+        push(warmup);
+        awaitReceived(received + WARMUP);
+
+        long pusher = Thread.currentThread().getId();
+        Map<Long, Long> before = allocated(pusher);
+        push(measured);
+        Map<Long, Long> pushed = allocated(pusher);
+        awaitReceived(received + WARMUP + NOTIFICATIONS);
+        Map<Long, Long> after = allocated(pusher);
+        after.put(pusher, pushed.get(pusher));
+
+        long bytes = 0;
+        for (Map.Entry<Long, Long> entry : after.entrySet()) {
+            Long start = before.get(entry.getKey());
+            bytes += entry.getValue() - (start == null ? 0 : start);
+        }
+        long perNotification = bytes / NOTIFICATIONS - tls;
+        long budget = Long.parseLong(budgets.getProperty(mode));
+        logger.info("{} allocated {} bytes per notification beyond the {} of TLS, the budget is {}",
+                new Object[] { mode, perNotification, tls, budget });
+        assertTrue(mode + " allocated " + perNotification + " bytes per notification beyond the " + tls
+                + " of TLS, over the budget of " + budget, perNotification <= budget);
+    }
+
+    /**
+     * Returns the bytes allocated per notification by writing and flushing
+     * the frames of the notifications over a bare SSL socket.
+     */
+    private long tlsBytesPerNotification(ApnsNotification[] warmup, ApnsNotification[] measured) throws Exception {
+        byte[][] warmupFrames = frames(warmup);
+        byte[][] measuredFrames = frames(measured);
+        SSLSocket socket = (SSLSocket) clientContext().getSocketFactory()
+                .createSocket(LOCALHOST, server.getEffectiveGatewayPort());
+        try {
+            OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+            write(out, warmupFrames);
+            awaitReceived(WARMUP);
+            long thread = Thread.currentThread().getId();
+            long before = threadBean.getThreadAllocatedBytes(thread);
+            write(out, measuredFrames);
+            long bytes = threadBean.getThreadAllocatedBytes(thread) - before;
+            awaitReceived(WARMUP + NOTIFICATIONS);
+            return bytes / NOTIFICATIONS;
+        } finally {
+            socket.close();
+        }
+    }
+
+    private static byte[][] frames(ApnsNotification[] notifications) {
+        byte[][] frames = new byte[notifications.length][];
+        for (int i = 0; i < notifications.length; i++) {
+            frames[i] = notifications[i].marshall();
+        }
+        return frames;
+    }
+
+    private static void write(OutputStream out, byte[][] frames) throws IOException {
+        for (byte[] frame : frames) {
+            out.write(frame);
+            out.flush();
+        }
+    }
+
+    private ApnsNotification[] notifications(int count, int firstId) {
+        byte[] token = Utilities.decodeHex(ApnsSimulatorWithVerification.deviceTokenForId(1));
+        ApnsNotification[] notifications = new ApnsNotification[count];
+        for (int i = 0; i < count; i++) {
+            notifications[i] = new EnhancedApnsNotification(firstId + i, EnhancedApnsNotification.MAXIMUM_EXPIRY,
+                    token, PAYLOAD);
+        }
+        return notifications;
+    }
+
+    private void push(ApnsNotification[] notifications) {
+        for (ApnsNotification notification : notifications) {
+            service.push(notification);
+        }
+    }
+
+    private void awaitReceived(long count) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (server.getReceived() < count) {
+            if (System.nanoTime() > deadline) {
+                fail("received " + server.getReceived() + " of " + count);
+            }
+            Thread.sleep(10);
+        }
+    }
+
+    /** The bytes allocated so far by the pushing thread and the service's threads */
+    private Map<Long, Long> allocated(long pusher) {
+        Map<Long, Long> bytes = new HashMap<Long, Long>();
+        bytes.put(pusher, threadBean.getThreadAllocatedBytes(pusher));
+        for (Thread thread : threads.created) {
+            long allocated = threadBean.getThreadAllocatedBytes(thread.getId());
+            if (allocated >= 0) {
+                bytes.put(thread.getId(), allocated);
+            }
+        }
+        return bytes;
+    }
+
+    private static final class RecordingThreadFactory implements ThreadFactory {
+        final List<Thread> created = new CopyOnWriteArrayList<Thread>();
+        private final ThreadFactory delegate = Executors.defaultThreadFactory();
+
+        public Thread newThread(Runnable r) {
+            Thread thread = delegate.newThread(r);
+            thread.setDaemon(true);
+            created.add(thread);
+            return thread;
+        }
+    }
+}
@@ -38,6 +38,7 @@ import com.notnoop.apns.DeliveryError;
 import com.notnoop.apns.EnhancedApnsNotification;
 import com.notnoop.apns.integration.ApnsDelegateRecorder.MessageSentFailedRecord;
 import com.notnoop.apns.utils.FixedCertificates;
+import com.notnoop.apns.utils.ImpairmentProxy;
 import com.notnoop.apns.utils.Simulator.ApnsResponse;
 import com.notnoop.apns.utils.Simulator.ApnsSimulatorWithVerification;
 import com.notnoop.exceptions.ApnsDeliveryErrorException;
@@ -46,6 +47,7 @@ import org.junit.AfterClass;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.io.IOException;
 import java.util.List;
 
 import static com.notnoop.apns.utils.FixedCertificates.LOCALHOST;
@@ -59,15 +61,18 @@ public class ApnsConnectionResendTest {
     private static EnhancedApnsNotification NOTIFICATION_1 = buildNotification(1);
     private static EnhancedApnsNotification NOTIFICATION_2 = buildNotification(2);
     private static ApnsSimulatorWithVerification apnsSim;
+    private static ImpairmentProxy proxy;
 
     private ApnsDelegateRecorder delegateRecorder;
     private ApnsService testee;
 
     @Before
-    public void setUp() {
+    public void setUp() throws IOException {
         if (apnsSim == null) {
             apnsSim = new ApnsSimulatorWithVerification(FixedCertificates.serverContext().getServerSocketFactory());
             apnsSim.start();
+            // -Dapns.impairment.latency=... and friends run the gateway through an ImpairmentProxy
+            proxy = ImpairmentProxy.fromSystemProperties(LOCALHOST, apnsSim.getEffectiveGatewayPort());
         }
         apnsSim.reset();
         delegateRecorder = new ApnsDelegateRecorder();
@@ -76,6 +81,10 @@ public class ApnsConnectionResendTest {
 
     @AfterClass
     public static void tearDownClass() {
+        if (proxy != null) {
+            proxy.stop();
+            proxy = null;
+        }
         if (apnsSim != null) {
             apnsSim.stop();
             apnsSim = null;
@@ -128,7 +137,7 @@ public class ApnsConnectionResendTest {
         return APNS.newService()
                 .withConnectTimeout(1000)
                 .withSSLContext(clientContext())
-                .withGatewayDestination(LOCALHOST, apnsSim.getEffectiveGatewayPort())
+                .withGatewayDestination(LOCALHOST, proxy == null ? apnsSim.getEffectiveGatewayPort() : proxy.getPort())
                 .withFeedbackDestination(LOCALHOST, apnsSim.getEffectiveFeedbackPort())
                 .withDelegate(delegate).build();
     }
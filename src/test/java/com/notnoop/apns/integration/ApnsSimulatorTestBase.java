@@ -33,6 +33,7 @@ package com.notnoop.apns.integration;
 import com.notnoop.apns.*;
 import com.notnoop.apns.internal.Utilities;
 import com.notnoop.apns.utils.FixedCertificates;
+import com.notnoop.apns.utils.ImpairmentProxy;
 import com.notnoop.apns.utils.Simulator.ApnsServerSimulator;
 import com.notnoop.apns.utils.Simulator.FailingApnsServerSimulator;
 import org.hamcrest.BaseMatcher;
@@ -49,6 +50,7 @@ import uk.org.lidalia.slf4jext.Level;
 import uk.org.lidalia.slf4jtest.LoggingEvent;
 import uk.org.lidalia.slf4jtest.TestLoggerFactory;
 
+import java.io.IOException;
 import java.util.Random;
 import java.util.concurrent.TimeUnit;
 
@@ -67,12 +69,13 @@ public class ApnsSimulatorTestBase {
     @Rule
     public TestName name = new TestName();
     protected FailingApnsServerSimulator server;
+    private ImpairmentProxy proxy;
     protected ApnsDelegate delegate;
     private ApnsService service;
     private Random random;
 
     @Before
-    public void startup() {
+    public void startup() throws IOException {
         // http://projects.lidalia.org.uk/slf4j-test/
         TestLoggerFactory.getInstance().setPrintLevel(Level.DEBUG);
         TestLoggerFactory.clearAll();
@@ -82,11 +85,13 @@ public class ApnsSimulatorTestBase {
 
         server = new FailingApnsServerSimulator(FixedCertificates.serverContext().getServerSocketFactory());
         server.start();
+        // -Dapns.impairment.latency=... and friends run the gateway through an ImpairmentProxy
+        proxy = ImpairmentProxy.fromSystemProperties(LOCALHOST, server.getEffectiveGatewayPort());
         delegate = ApnsDelegate.EMPTY;
         delegate = mock(ApnsDelegate.class);
         service = APNS.newService()
                 .withSSLContext(clientContext())
-                .withGatewayDestination(LOCALHOST, server.getEffectiveGatewayPort())
+                .withGatewayDestination(LOCALHOST, proxy == null ? server.getEffectiveGatewayPort() : proxy.getPort())
                 .withFeedbackDestination(LOCALHOST, server.getEffectiveFeedbackPort())
                 .withDelegate(delegate).build();
         random = new Random();
@@ -94,6 +99,10 @@ public class ApnsSimulatorTestBase {
 
     @After
     public void tearDown() {
+        if (proxy != null) {
+            proxy.stop();
+            proxy = null;
+        }
         server.stop();
         server = null;
     }
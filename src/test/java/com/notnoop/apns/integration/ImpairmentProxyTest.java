@@ -0,0 +1,178 @@
+/*
+ *  Copyright 2009, Mahmood Ali.
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions are
+ *  met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ *      copyright notice, this list of conditions and the following disclaimer
+ *      in the documentation and/or other materials provided with the
+ *      distribution.
+ *    * Neither the name of Mahmood Ali. nor the names of its
+ *      contributors may be used to endorse or promote products derived from
+ *      this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ *  A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ *  OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ *  SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ *  LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ *  OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.notnoop.apns.integration;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.notnoop.apns.utils.ImpairmentProxy;
+
+import static com.notnoop.apns.utils.FixedCertificates.LOCALHOST;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ImpairmentProxyTest {
+
+    private ServerSocket target;
+    private ExecutorService executor;
+    private ImpairmentProxy proxy;
+
+    @Before
+    public void setUp() throws IOException {
+        target = new ServerSocket(0);
+        executor = Executors.newCachedThreadPool();
+        proxy = new ImpairmentProxy(LOCALHOST, target.getLocalPort());
+        proxy.start();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        proxy.stop();
+        target.close();
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void addsLatencyInEachDirection() throws Exception {
+        proxy.setLatency(100, TimeUnit.MILLISECONDS);
+        proxy.setJitter(20, TimeUnit.MILLISECONDS);
+        executor.submit(new Callable<Void>() {
+            public Void call() throws IOException {
+                Socket socket = target.accept();
+                try {
+                    socket.getOutputStream().write(socket.getInputStream().read());
+                } finally {
+                    socket.close();
+                }
+                return null;
+            }
+        });
+
+        Socket client = new Socket(LOCALHOST, proxy.getPort());
+        try {
+            long start = System.nanoTime();
+            client.getOutputStream().write(42);
+            assertEquals(42, client.getInputStream().read());
+            long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            assertTrue("round trip took " + elapsed + "ms", elapsed >= 200);
+        } finally {
+            client.close();
+        }
+    }
+
+    @Test
+    public void capsBandwidth() throws Exception {
+        proxy.setBandwidth(50000);
+        Future<byte[]> received = receiveAll();
+
+        Socket client = new Socket(LOCALHOST, proxy.getPort());
+        long start = System.nanoTime();
+        try {
+            client.getOutputStream().write(new byte[25000]);
+        } finally {
+            client.close();
+        }
+        assertEquals(25000, received.get(5, TimeUnit.SECONDS).length);
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue("25000 bytes took " + elapsed + "ms", elapsed >= 400);
+    }
+
+    @Test
+    public void dropsAfterBytes() throws Exception {
+        proxy.setDropAfter(100);
+        Future<byte[]> received = receiveAll();
+
+        Socket client = new Socket(LOCALHOST, proxy.getPort());
+        try {
+            client.getOutputStream().write(new byte[1000]);
+            assertEquals(-1, client.getInputStream().read());
+        } finally {
+            client.close();
+        }
+        assertEquals(100, received.get(5, TimeUnit.SECONDS).length);
+        assertEquals(1, proxy.getDrops());
+    }
+
+    @Test
+    public void resetsMidStream() throws Exception {
+        proxy.setResetProbability(1);
+        Future<byte[]> received = receiveAll();
+
+        Socket client = new Socket(LOCALHOST, proxy.getPort());
+        boolean reset = false;
+        try {
+            client.getOutputStream().write(new byte[1000]);
+            client.getInputStream().read();
+        } catch (IOException e) {
+            reset = true;
+        } finally {
+            client.close();
+        }
+        assertTrue(reset);
+        assertEquals(0, received.get(5, TimeUnit.SECONDS).length);
+        assertEquals(1, proxy.getResets());
+    }
+
+    /** Collects everything the proxy forwards on one connection */
+    private Future<byte[]> receiveAll() {
+        return executor.submit(new Callable<byte[]>() {
+            public byte[] call() throws IOException {
+                Socket socket = target.accept();
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                try {
+                    InputStream in = socket.getInputStream();
+                    byte[] buffer = new byte[4096];
+                    int n;
+                    while ((n = in.read(buffer)) != -1) {
+                        bytes.write(buffer, 0, n);
+                    }
+                } catch (IOException e) {
+                    // A reset ends the stream too
+                } finally {
+                    socket.close();
+                }
+                return bytes.toByteArray();
+            }
+        });
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ *  Copyright 2009, Mahmood Ali.
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions are
+ *  met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ *      copyright notice, this list of conditions and the following disclaimer
+ *      in the documentation and/or other materials provided with the
+ *      distribution.
+ *    * Neither the name of Mahmood Ali. nor the names of its
+ *      contributors may be used to endorse or promote products derived from
+ *      this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ *  A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ *  OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ *  SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ *  LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ *  OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.notnoop.apns.integration;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.notnoop.apns.APNS;
+import com.notnoop.apns.ApnsDelegate;
+import com.notnoop.apns.ApnsService;
+import com.notnoop.apns.DeliveryError;
+import com.notnoop.apns.EnhancedApnsNotification;
+import com.notnoop.apns.internal.Utilities;
+import com.notnoop.apns.utils.FixedCertificates;
+import com.notnoop.apns.utils.Simulator.ApnsSimulatorWithVerification;
+import com.notnoop.apns.utils.Simulator.NioApnsServerSimulator;
+import com.notnoop.exceptions.ApnsDeliveryErrorException;
+
+import static com.notnoop.apns.utils.FixedCertificates.LOCALHOST;
+import static com.notnoop.apns.utils.FixedCertificates.clientContext;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.isA;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+
+public class NioApnsServerSimulatorTest {
+
+    private static final byte[] PAYLOAD = Utilities.toUTF8Bytes("{\"aps\":{}}");
+    private static final byte[] GOOD = Utilities.decodeHex(ApnsSimulatorWithVerification.deviceTokenForId(1));
+    private static final byte[] BAD = Utilities.decodeHex(ApnsSimulatorWithVerification.deviceTokenForId(2));
+
+    private NioApnsServerSimulator server;
+    private ApnsDelegate delegate;
+    private ApnsService service;
+
+    @Before
+    public void setUp() {
+        server = new NioApnsServerSimulator(FixedCertificates.serverContext(), 2);
+        server.start();
+        delegate = mock(ApnsDelegate.class);
+        service = APNS.newService()
+                .withSSLContext(clientContext())
+                .withGatewayDestination(LOCALHOST, server.getEffectiveGatewayPort())
+                .withFeedbackDestination(LOCALHOST, server.getEffectiveFeedbackPort())
+                .withDelegate(delegate)
+                .build();
+    }
+
+    @After
+    public void tearDown() {
+        service.stop();
+        server.stop();
+    }
+
+    private void awaitReceived(long count) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (server.getReceived() < count && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(count, server.getReceived());
+    }
+
+    @Test
+    public void receivesNotifications() throws InterruptedException {
+        for (int i = 1; i <= 5000; i++) {
+            service.push(new EnhancedApnsNotification(i, 1, GOOD, PAYLOAD));
+        }
+        awaitReceived(5000);
+        assertEquals(0, server.getRejected());
+    }
+
+    @Test
+    public void rejectsProgrammedTokens() throws InterruptedException {
+        server.reject(BAD, DeliveryError.INVALID_TOKEN);
+        EnhancedApnsNotification bad = new EnhancedApnsNotification(2, 1, BAD, PAYLOAD);
+        service.push(new EnhancedApnsNotification(1, 1, GOOD, PAYLOAD));
+        service.push(bad);
+
+        verify(delegate, timeout(5000)).messageSendFailed(eq(bad), isA(ApnsDeliveryErrorException.class));
+        verify(delegate).connectionClosed(DeliveryError.INVALID_TOKEN, 2);
+        assertEquals(1, server.getRejected());
+    }
+
+    @Test
+    public void delaysResponses() throws InterruptedException {
+        server.reject(BAD, DeliveryError.INVALID_TOKEN);
+        server.setResponseDelay(300, TimeUnit.MILLISECONDS);
+        long start = System.nanoTime();
+        service.push(new EnhancedApnsNotification(2, 1, BAD, PAYLOAD));
+
+        verify(delegate, timeout(5000)).messageSendFailed(any(EnhancedApnsNotification.class), isA(ApnsDeliveryErrorException.class));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(300));
+    }
+
+    @Test
+    public void servesFeedback() {
+        server.addFeedback(BAD);
+        Map<String, ?> inactive = service.getInactiveDevices();
+        assertEquals(1, inactive.size());
+        assertTrue(inactive.containsKey(Utilities.encodeHex(BAD)));
+    }
+}
@@ -0,0 +1,421 @@
+/*
+ *  Copyright 2009, Mahmood Ali.
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions are
+ *  met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ *      copyright notice, this list of conditions and the following disclaimer
+ *      in the documentation and/or other materials provided with the
+ *      distribution.
+ *    * Neither the name of Mahmood Ali. nor the names of its
+ *      contributors may be used to endorse or promote products derived from
+ *      this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ *  A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ *  OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ *  SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ *  LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ *  OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.notnoop.apns.integration;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.junit.Test;
+import uk.org.lidalia.slf4jext.Level;
+import uk.org.lidalia.slf4jtest.TestLoggerFactory;
+
+import com.notnoop.apns.APNS;
+import com.notnoop.apns.ApnsMetrics;
+import com.notnoop.apns.ApnsService;
+import com.notnoop.apns.ApnsServiceBuilder;
+import com.notnoop.apns.DeliveryError;
+import com.notnoop.apns.EnhancedApnsNotification;
+import com.notnoop.apns.LatencyHistogram;
+import com.notnoop.apns.internal.ApnsConnection;
+import com.notnoop.apns.utils.FixedCertificates;
+import com.notnoop.apns.utils.Simulator.ApnsServerSimulator;
+import com.notnoop.apns.utils.Simulator.InputOutputSocket;
+import com.notnoop.apns.utils.Simulator.NioApnsServerSimulator;
+
+import static com.notnoop.apns.utils.FixedCertificates.LOCALHOST;
+import static com.notnoop.apns.utils.FixedCertificates.clientContext;
+
+/**
+ * Measures the throughput of the service modes against the simulator over
+ * TLS on this machine.  It is not part of the test suite; run it with
+ *
+ * <pre>
+ *     mvn test -Dtest=ThroughputHarness -Dapns.throughput.modes=plain,pool:8,queued,batched
+ * </pre>
+ *
+ * Every scenario, a mode with a number of pushing threads, pushes
+ * {@code apns.throughput.notifications} notifications with payloads of
+ * {@code apns.throughput.payloadBytes} bytes, of which the simulator
+ * rejects a fraction {@code apns.throughput.errorRate} with
+ * {@code INVALID_TOKEN}.  The scenario ends when every other notification
+ * has been received, or when nothing has been received for
+ * {@code apns.throughput.idleSeconds}: notifications written after a
+ * rejected one and evicted from the resend cache
+ * ({@code apns.throughput.cacheLength}) before the error response is read
+ * are lost, and reported as such.  The latency is measured from the push
+ * to the first receipt by the simulator, and the resend overhead counts
+ * the notifications received more than once.
+ *
+ * The simulator is {@link NioApnsServerSimulator} unless
+ * {@code apns.throughput.simulator} is {@code blocking}, which selects the
+ * thread per connection {@link ApnsServerSimulator}.
+ *
+ * The results are appended, one JSON object per line, to
+ * {@code apns.throughput.output} (target/throughput.jsonl by default), with
+ * {@code apns.throughput.label} to tell versions apart.
+ */
+public class ThroughputHarness {
+
+    private static final String[] QUIET_LOGGERS = {
+        "com.notnoop.apns.internal.ApnsConnectionImpl",
+        "com.notnoop.apns.internal.ApnsPooledConnection",
+        "com.notnoop.apns.internal.BatchApnsService",
+        "com.notnoop.apns.internal.QueuedApnsService",
+        "com.notnoop.apns.internal.Utilities",
+        "com.notnoop.apns.utils.Simulator.ApnsServerSimulator",
+        "com.notnoop.apns.utils.Simulator.InputOutputSocket",
+        "com.notnoop.apns.utils.Simulator.NioApnsServerSimulator",
+    };
+
+    @Test
+    public void run() throws Exception {
+        List<String> modes = Arrays.asList(System.getProperty("apns.throughput.modes", "plain,pool:8,queued,batched").split(","));
+        List<String> threads = Arrays.asList(System.getProperty("apns.throughput.threads", "1,4").split(","));
+        int notifications = Integer.getInteger("apns.throughput.notifications", 100000);
+        int warmup = Integer.getInteger("apns.throughput.warmup", 10000);
+        int payloadBytes = Integer.getInteger("apns.throughput.payloadBytes", 256);
+        double errorRate = Double.parseDouble(System.getProperty("apns.throughput.errorRate", "0"));
+        int cacheLength = Integer.getInteger("apns.throughput.cacheLength", ApnsConnection.DEFAULT_CACHE_LENGTH);
+        boolean nio = !"blocking".equals(System.getProperty("apns.throughput.simulator", "nio"));
+        File output = new File(System.getProperty("apns.throughput.output", "target/throughput.jsonl"));
+        String label = System.getProperty("apns.throughput.label", "current");
+
+        for (String mode : modes) {
+            for (String count : threads) {
+                int n = Integer.parseInt(count.trim());
+                if (warmup > 0) {
+                    run(new Scenario(mode.trim(), n, warmup, payloadBytes, errorRate, cacheLength, nio));
+                }
+                Result result = run(new Scenario(mode.trim(), n, notifications, payloadBytes, errorRate, cacheLength,
+                        nio));
+                System.out.println(result);
+                append(output, result.toJson(label));
+            }
+        }
+    }
+
+    static final class Scenario {
+        final String mode;
+        final int threads;
+        final int notifications;
+        final int payloadBytes;
+        final double errorRate;
+        final int cacheLength;
+        final boolean nio;
+
+        Scenario(String mode, int threads, int notifications, int payloadBytes, double errorRate, int cacheLength,
+                 boolean nio) {
+            this.mode = mode;
+            this.threads = threads;
+            this.notifications = notifications;
+            this.payloadBytes = payloadBytes;
+            this.errorRate = errorRate;
+            this.cacheLength = cacheLength;
+            this.nio = nio;
+        }
+
+        boolean isRejected(int index) {
+            if (errorRate <= 0) {
+                return false;
+            }
+            int period = Math.max(1, (int) Math.round(1 / errorRate));
+            return (index + 1) % period == 0;
+        }
+
+        ApnsServiceBuilder configure(ApnsServiceBuilder builder) {
+            builder.withCacheLength(cacheLength);
+            if (mode.equals("plain")) {
+                return builder;
+            } else if (mode.startsWith("pool:")) {
+                return builder.asPool(Integer.parseInt(mode.substring("pool:".length())));
+            } else if (mode.equals("queued")) {
+                return builder.asQueued();
+            } else if (mode.equals("batched")) {
+                // Flush every second, so the batching delay doesn't dominate
+                return builder.asBatched(1, 1);
+            }
+            throw new IllegalArgumentException("Unknown mode " + mode);
+        }
+    }
+
+    static final class Result {
+        final Scenario scenario;
+        final boolean complete;
+        final long nanos;
+        final int delivered;
+        final int rejected;
+        final long received;
+        final long duplicates;
+        final long resent;
+        final LatencyHistogram.Snapshot latency;
+
+        Result(Scenario scenario, boolean complete, long nanos, int delivered, int rejected, long received,
+               long duplicates, long resent, LatencyHistogram.Snapshot latency) {
+            this.scenario = scenario;
+            this.complete = complete;
+            this.nanos = nanos;
+            this.delivered = delivered;
+            this.rejected = rejected;
+            this.received = received;
+            this.duplicates = duplicates;
+            this.resent = resent;
+            this.latency = latency;
+        }
+
+        double getThroughput() {
+            return delivered / (nanos / 1e9);
+        }
+
+        int getLost() {
+            return scenario.notifications - rejected - delivered;
+        }
+
+        double getResendOverhead() {
+            long unique = received - duplicates;
+            return unique == 0 ? 0 : (double) duplicates / unique;
+        }
+
+        String toJson(String label) {
+            return String.format(Locale.ROOT, "{\"label\":\"%s\",\"timestamp\":%d,\"java\":\"%s\",\"cpus\":%d,"
+                    + "\"mode\":\"%s\",\"threads\":%d,\"notifications\":%d,\"payloadBytes\":%d,\"errorRate\":%s,"
+                    + "\"cacheLength\":%d,\"simulator\":\"%s\",\"complete\":%b,\"seconds\":%.3f,\"throughput\":%.1f,\"delivered\":%d,"
+                    + "\"lost\":%d,\"rejected\":%d,"
+                    + "\"received\":%d,\"duplicates\":%d,\"resent\":%d,\"resendOverhead\":%.5f,"
+                    + "\"latencyMicros\":{\"p50\":%d,\"p90\":%d,\"p99\":%d,\"p999\":%d,\"max\":%d}}",
+                    label, System.currentTimeMillis(), System.getProperty("java.version"),
+                    Runtime.getRuntime().availableProcessors(), scenario.mode, scenario.threads,
+                    scenario.notifications, scenario.payloadBytes, scenario.errorRate, scenario.cacheLength,
+                    scenario.nio ? "nio" : "blocking", complete,
+                    nanos / 1e9, getThroughput(), delivered, getLost(), rejected, received, duplicates, resent, getResendOverhead(),
+                    micros(50), micros(90), micros(99), micros(99.9), TimeUnit.NANOSECONDS.toMicros(latency.getMax()));
+        }
+
+        private long micros(double percentile) {
+            return TimeUnit.NANOSECONDS.toMicros(latency.getValueAtPercentile(percentile));
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "%-10s threads=%-3d %10.0f/s  %s  resendOverhead=%.4f%s",
+                    scenario.mode, scenario.threads, getThroughput(), latency, getResendOverhead(),
+                    complete ? "" : "  lost=" + getLost());
+        }
+    }
+
+    static Result run(Scenario scenario) throws Exception {
+        Level printLevel = TestLoggerFactory.getInstance().getPrintLevel();
+        quietLogging();
+
+        final int n = scenario.notifications;
+        final EnhancedApnsNotification[] notifications = new EnhancedApnsNotification[n];
+        final byte[] payload = payload(scenario.payloadBytes);
+        int rejected = 0;
+        for (int i = 0; i < n; i++) {
+            byte[] token = new byte[32];
+            token[0] = scenario.isRejected(i) ? Tally.REJECT : 0;
+            token[28] = (byte) (i >>> 24);
+            token[29] = (byte) (i >>> 16);
+            token[30] = (byte) (i >>> 8);
+            token[31] = (byte) i;
+            if (token[0] == Tally.REJECT) {
+                rejected++;
+            }
+            notifications[i] = new EnhancedApnsNotification(i + 1, EnhancedApnsNotification.MAXIMUM_EXPIRY, token, payload);
+        }
+
+        final Tally tally = new Tally(n, n - rejected);
+        NioApnsServerSimulator nio = null;
+        ApnsServerSimulator blocking = null;
+        int gatewayPort, feedbackPort;
+        if (scenario.nio) {
+            nio = new NioApnsServerSimulator(FixedCertificates.serverContext()) {
+                @Override
+                protected DeliveryError onNotification(int identifier, byte[] deviceToken) {
+                    return tally.receive(identifier, deviceToken) ? DeliveryError.INVALID_TOKEN : null;
+                }
+            };
+            nio.start();
+            gatewayPort = nio.getEffectiveGatewayPort();
+            feedbackPort = nio.getEffectiveFeedbackPort();
+        } else {
+            blocking = new ApnsServerSimulator(FixedCertificates.serverContext().getServerSocketFactory()) {
+                @Override
+                protected void onNotification(Notification notification, InputOutputSocket socket) throws IOException {
+                    if (tally.receive(notification.getIdentifier(), notification.getDeviceToken())) {
+                        fail((byte) DeliveryError.INVALID_TOKEN.code(), notification.getIdentifier(), socket);
+                    }
+                }
+            };
+            blocking.start();
+            gatewayPort = blocking.getEffectiveGatewayPort();
+            feedbackPort = blocking.getEffectiveFeedbackPort();
+        }
+        ApnsMetrics metrics = new ApnsMetrics();
+        final ApnsService service = scenario.configure(APNS.newService()
+                .withSSLContext(clientContext())
+                .withGatewayDestination(LOCALHOST, gatewayPort)
+                .withFeedbackDestination(LOCALHOST, feedbackPort)
+                .withMetrics(metrics))
+                .build();
+        try {
+            final AtomicLongArray sentAt = tally.sentAt;
+            Thread[] pushers = new Thread[scenario.threads];
+            long start = System.nanoTime();
+            for (int t = 0; t < pushers.length; t++) {
+                final int first = t;
+                final int step = pushers.length;
+                pushers[t] = new Thread(new Runnable() {
+                    public void run() {
+                        for (int i = first; i < n; i += step) {
+                            sentAt.set(i, System.nanoTime());
+                            service.push(notifications[i]);
+                        }
+                    }
+                }, "ThroughputPusher-" + t);
+                pushers[t].start();
+            }
+            for (Thread pusher : pushers) {
+                pusher.join();
+            }
+            long idle = TimeUnit.SECONDS.toNanos(Integer.getInteger("apns.throughput.idleSeconds", 3));
+            boolean complete;
+            while (!(complete = tally.delivered.await(100, TimeUnit.MILLISECONDS))) {
+                if (System.nanoTime() - tally.lastReceipt.get() > idle) {
+                    break;
+                }
+            }
+            long nanos = (complete ? tally.lastDelivery.get() : tally.lastReceipt.get()) - start;
+            int delivered = (int) (n - rejected - tally.delivered.getCount());
+            return new Result(scenario, complete, nanos, delivered, rejected, tally.received.get(),
+                    tally.duplicates.get(), metrics.getResent(), tally.latency.snapshot());
+        } finally {
+            service.stop();
+            if (nio != null) {
+                nio.stop();
+            } else {
+                blocking.stop();
+            }
+            TestLoggerFactory.getInstance().setPrintLevel(printLevel);
+        }
+    }
+
+    private static byte[] payload(int bytes) {
+        int empty = APNS.newPayload().alertBody("").buildBytes().length;
+        char[] body = new char[Math.max(0, bytes - empty)];
+        Arrays.fill(body, 'x');
+        return APNS.newPayload().alertBody(new String(body)).buildBytes();
+    }
+
+    static void quietLogging() {
+        TestLoggerFactory.getInstance().setPrintLevel(Level.ERROR);
+        for (String name : QUIET_LOGGERS) {
+            TestLoggerFactory.getTestLogger(name).setEnabledLevelsForAllThreads(Level.WARN, Level.ERROR);
+        }
+    }
+
+    private static void append(File output, String line) throws IOException {
+        File dir = output.getAbsoluteFile().getParentFile();
+        if (dir != null && !dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Couldn't create " + dir);
+        }
+        Writer writer = new OutputStreamWriter(new FileOutputStream(output, true), "UTF-8");
+        try {
+            writer.write(line);
+            writer.write('\n');
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Counts the notifications received by either simulator, recording the
+     * latency of the first receipt of each.
+     */
+    static final class Tally {
+        /** The first byte of the tokens to reject */
+        static final byte REJECT = (byte) 0xEE;
+
+        final AtomicLongArray sentAt;
+        final AtomicIntegerArray seen;
+        final CountDownLatch delivered;
+        final AtomicLong lastDelivery = new AtomicLong();
+        final AtomicLong lastReceipt = new AtomicLong(System.nanoTime());
+        final AtomicLong received = new AtomicLong();
+        final AtomicLong duplicates = new AtomicLong();
+        final LatencyHistogram latency = new LatencyHistogram();
+
+        Tally(int notifications, int expected) {
+            sentAt = new AtomicLongArray(notifications);
+            seen = new AtomicIntegerArray(notifications);
+            delivered = new CountDownLatch(expected);
+        }
+
+        /**
+         * Records the receipt of a notification, returning whether it
+         * should be rejected.
+         */
+        boolean receive(int identifier, byte[] deviceToken) {
+            long now = System.nanoTime();
+            lastReceipt.set(now);
+            received.incrementAndGet();
+            int index = identifier - 1;
+            boolean first = seen.getAndSet(index, 1) == 0;
+            if (first) {
+                latency.record(now - sentAt.get(index));
+            } else {
+                duplicates.incrementAndGet();
+            }
+            if (deviceToken[0] == REJECT) {
+                return true;
+            }
+            if (first) {
+                // Before counting down, so the time is set when the scenario ends
+                long last;
+                while ((last = lastDelivery.get()) < now && !lastDelivery.compareAndSet(last, now)) {
+                    // retry
+                }
+                delivered.countDown();
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ *  Copyright 2009, Mahmood Ali.
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions are
+ *  met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ *      copyright notice, this list of conditions and the following disclaimer
+ *      in the documentation and/or other materials provided with the
+ *      distribution.
+ *    * Neither the name of Mahmood Ali. nor the names of its
+ *      contributors may be used to endorse or promote products derived from
+ *      this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ *  A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ *  OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ *  SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ *  LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ *  OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.notnoop.apns.integration;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ThroughputHarnessTest {
+
+    private void assertDelivers(String mode) throws Exception {
+        assertDelivers(mode, true);
+    }
+
+    private void assertDelivers(String mode, boolean nio) throws Exception {
+        ThroughputHarness.Result result = ThroughputHarness.run(
+                new ThroughputHarness.Scenario(mode, 2, 2000, 256, 0, 100, nio));
+        assertTrue(result.toString(), result.complete);
+        assertEquals(2000, result.delivered);
+        assertEquals(0, result.getLost());
+        assertEquals(2000, result.latency.getCount());
+        assertTrue(result.toJson("test").startsWith("{\"label\":\"test\""));
+    }
+
+    @Test
+    public void plain() throws Exception {
+        assertDelivers("plain");
+    }
+
+    @Test
+    public void plainOverBlockingSimulator() throws Exception {
+        assertDelivers("plain", false);
+    }
+
+    @Test
+    public void pooled() throws Exception {
+        assertDelivers("pool:2");
+    }
+
+    @Test
+    public void queued() throws Exception {
+        assertDelivers("queued");
+    }
+
+    @Test
+    public void batched() throws Exception {
+        assertDelivers("batched");
+    }
+
+    @Test
+    public void accountsForRejected() throws Exception {
+        ThroughputHarness.Result result = ThroughputHarness.run(
+                new ThroughputHarness.Scenario("plain", 1, 1000, 256, 0.01, 1000, true));
+        assertEquals(10, result.rejected);
+        assertEquals(1000, result.rejected + result.delivered + result.getLost());
+        assertTrue(result.received >= result.rejected + result.delivered);
+    }
+}
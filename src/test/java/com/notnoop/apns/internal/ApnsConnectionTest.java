@@ -31,17 +31,33 @@
 package com.notnoop.apns.internal;
 
 import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.net.Socket;
 import javax.net.SocketFactory;
+import com.notnoop.apns.ApnsDelegate;
+import com.notnoop.apns.ApnsNotification;
+import com.notnoop.apns.DeliveryError;
+import com.notnoop.apns.EnhancedApnsNotification;
+import com.notnoop.apns.RetryPolicy;
 import com.notnoop.apns.SimpleApnsNotification;
+import com.notnoop.exceptions.ApnsDeliveryErrorException;
 import org.junit.Assert;
 import org.junit.Ignore;
 import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 import static com.notnoop.apns.internal.MockingUtils.*;
+import static org.mockito.Matchers.*;
+import static org.mockito.Mockito.*;
 
 
 @SuppressWarnings("deprecation")
 public class ApnsConnectionTest {
     private SimpleApnsNotification msg = new SimpleApnsNotification ("a87d8878d878a79", "{\"aps\":{}}");
+    private PipedOutputStream errors;
 
     @Test
     public void simpleSocket() {
@@ -82,6 +98,209 @@ public class ApnsConnectionTest {
         packetSentRegardless(factory, baos);
     }
 
+    @Test
+    public void failedWriteGivesBackWindowSlot() {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        SocketFactory factory = mockClosedThenOpenSocket(baos, null, false, 3);
+        InFlightWindow window = new InFlightWindow(1, 60000);
+        ApnsConnectionImpl connection = new ApnsConnectionImpl(factory, "localhost", 80, null, null, null,
+                new ReconnectPolicies.Never(), null, false, null, 100, false, 0, 0, new RetryPolicies.Never(), window, null);
+        connection.DELAY_IN_MS = 0;
+        try {
+            connection.sendMessage(msg);
+            Assert.fail("Expected the send to fail");
+        } catch (RuntimeException expected) {
+            // three failed attempts
+        }
+        Assert.assertEquals(0, window.getInFlight());
+    }
+
+    @Test
+    public void retriesTransientError() throws IOException {
+        ByteArrayOutputStream resent = new ByteArrayOutputStream();
+        ApnsDelegate delegate = mock(ApnsDelegate.class);
+        EnhancedApnsNotification notification = rejectedNotification(resent, delegate,
+                new RetryPolicies.OnErrors(1, 0, DeliveryError.PROCESSING_ERROR), DeliveryError.PROCESSING_ERROR);
+
+        // Mockito fails waits right away on calls with other arguments, so wait for any
+        verify(delegate, timeout(5000).times(2)).messageSent(eq(notification), anyBoolean());
+        verify(delegate).notificationsResent(1);
+        verify(delegate).messageSent(notification, true);
+        verify(delegate, never()).messageSendFailed(any(ApnsNotification.class), any(Throwable.class));
+        Assert.assertArrayEquals(notification.marshall(), resent.toByteArray());
+    }
+
+    @Test
+    public void delaysRetryWithoutResendingLaterSends() throws IOException {
+        PipedOutputStream errors = new PipedOutputStream();
+        ByteArrayOutputStream secondOut = new ByteArrayOutputStream();
+        Socket first = closeableSocket(new ByteArrayOutputStream(), new PipedInputStream(errors));
+        Socket second = closeableSocket(secondOut, new PipedInputStream(new PipedOutputStream()));
+        SocketFactory factory = mock(SocketFactory.class);
+        when(factory.createSocket(anyString(), anyInt())).thenReturn(first, second);
+        ApnsDelegate delegate = mock(ApnsDelegate.class);
+
+        ApnsConnectionImpl connection = new ApnsConnectionImpl(factory, "localhost", 80, null, null, null,
+                new ReconnectPolicies.Never(), delegate, true, null, 100, false, 0, 0,
+                new RetryPolicies.OnErrors(1, 1000, DeliveryError.PROCESSING_ERROR), null, null);
+        EnhancedApnsNotification rejected = new EnhancedApnsNotification(7, 0, "a87d8878d878a79", "{\"aps\":{}}");
+        EnhancedApnsNotification later = new EnhancedApnsNotification(8, 0, "a87d8878d878a79", "{\"aps\":{}}");
+        connection.sendMessage(rejected);
+
+        long start = System.currentTimeMillis();
+        errors.write(new byte[] { 8, (byte) DeliveryError.PROCESSING_ERROR.code(), 0, 0, 0, 7 });
+        errors.close();
+        // the monitoring thread is done with the error right away, the retry being held back
+        verify(delegate, timeout(5000)).notificationsResent(1);
+        Assert.assertTrue(System.currentTimeMillis() - start < 1000);
+
+        // sent while the retry waits, so cached but never resent
+        connection.sendMessage(later);
+        verify(delegate, timeout(5000).times(2)).messageSent(eq(rejected), anyBoolean());
+        Assert.assertTrue(System.currentTimeMillis() - start >= 900);
+
+        verify(delegate).messageSent(rejected, true);
+        verify(delegate).messageSent(later, false);
+        verify(delegate, times(1)).messageSent(any(ApnsNotification.class), eq(true));
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        expected.write(later.marshall());
+        expected.write(rejected.marshall());
+        Assert.assertArrayEquals(expected.toByteArray(), secondOut.toByteArray());
+        Assert.assertEquals(0, connection.getSuppressedDuplicates());
+    }
+
+    @Test
+    public void closeCancelsDelayedRetry() throws Exception {
+        ByteArrayOutputStream resent = new ByteArrayOutputStream();
+        ApnsDelegate delegate = mock(ApnsDelegate.class);
+        ApnsConnectionImpl connection = rejectingConnection(resent, delegate,
+                new RetryPolicies.OnErrors(1, 200, DeliveryError.PROCESSING_ERROR));
+        EnhancedApnsNotification notification = rejectedNotification(connection, DeliveryError.PROCESSING_ERROR);
+
+        verify(delegate, timeout(5000)).notificationsResent(1);
+        connection.close();
+        Thread.sleep(500);
+        verify(delegate, never()).messageSent(notification, true);
+        Assert.assertEquals(0, resent.size());
+    }
+
+    @Test
+    public void failsPermanentError() throws IOException {
+        ByteArrayOutputStream resent = new ByteArrayOutputStream();
+        ApnsDelegate delegate = mock(ApnsDelegate.class);
+        EnhancedApnsNotification notification = rejectedNotification(resent, delegate,
+                new RetryPolicies.OnErrors(3, 0, DeliveryError.PROCESSING_ERROR), DeliveryError.INVALID_TOKEN);
+
+        verify(delegate, timeout(5000)).notificationsResent(anyInt());
+        verify(delegate).messageSendFailed(eq(notification), any(ApnsDeliveryErrorException.class));
+        verify(delegate).notificationsResent(0);
+        Assert.assertEquals(0, resent.size());
+    }
+
+    @Test
+    public void resendsEachSendOnceAcrossErrors() throws IOException {
+        PipedOutputStream firstErrors = new PipedOutputStream();
+        PipedOutputStream secondErrors = new PipedOutputStream();
+        ByteArrayOutputStream secondOut = new ByteArrayOutputStream();
+        ByteArrayOutputStream thirdOut = new ByteArrayOutputStream();
+        Socket first = closeableSocket(new ByteArrayOutputStream(), new PipedInputStream(firstErrors));
+        Socket second = closeableSocket(secondOut, new PipedInputStream(secondErrors));
+        Socket third = closeableSocket(thirdOut, new PipedInputStream(new PipedOutputStream()));
+        SocketFactory factory = mock(SocketFactory.class);
+        when(factory.createSocket(anyString(), anyInt())).thenReturn(first, second, third);
+        ApnsDelegate delegate = mock(ApnsDelegate.class);
+
+        ApnsConnectionImpl connection = new ApnsConnectionImpl(factory, "localhost", 80, null, null, null,
+                new ReconnectPolicies.Never(), delegate, true, null, 100, false, 0, 0, new RetryPolicies.Never(), null, null);
+        EnhancedApnsNotification bad = new EnhancedApnsNotification(1, 0, "a87d8878d878a79", "{\"aps\":{}}");
+        EnhancedApnsNotification repeated = new EnhancedApnsNotification(2, 0, "a87d8878d878a79", "{\"aps\":{}}");
+        EnhancedApnsNotification last = new EnhancedApnsNotification(3, 0, "a87d8878d878a79", "{\"aps\":{}}");
+        connection.sendMessage(bad);
+        connection.sendMessage(repeated);
+        connection.sendMessage(repeated);
+        connection.sendMessage(last);
+
+        firstErrors.write(new byte[] { 8, 1, 0, 0, 0, 1 });
+        firstErrors.close();
+        verify(delegate, timeout(5000).times(2)).messageSent(eq(last), anyBoolean());
+        verify(delegate).notificationsResent(3);
+
+        secondErrors.write(new byte[] { 8, 1, 0, 0, 0, 2 });
+        secondErrors.close();
+        verify(delegate, timeout(5000).times(3)).messageSent(eq(last), anyBoolean());
+        verify(delegate).notificationsResent(2);
+
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        expected.write(repeated.marshall());
+        expected.write(repeated.marshall());
+        expected.write(last.marshall());
+        Assert.assertArrayEquals(expected.toByteArray(), secondOut.toByteArray());
+        expected.reset();
+        expected.write(repeated.marshall());
+        expected.write(last.marshall());
+        Assert.assertArrayEquals(expected.toByteArray(), thirdOut.toByteArray());
+        Assert.assertEquals(0, connection.getSuppressedDuplicates());
+    }
+
+    @Test
+    public void retryPolicyBounds() {
+        RetryPolicy policy = new RetryPolicies.OnErrors(2, 100, DeliveryError.PROCESSING_ERROR, DeliveryError.UNKNOWN);
+        Assert.assertTrue(policy.shouldRetry(DeliveryError.PROCESSING_ERROR, 1));
+        Assert.assertTrue(policy.shouldRetry(DeliveryError.UNKNOWN, 2));
+        Assert.assertFalse(policy.shouldRetry(DeliveryError.PROCESSING_ERROR, 3));
+        Assert.assertFalse(policy.shouldRetry(DeliveryError.INVALID_TOKEN, 1));
+        Assert.assertEquals(200, policy.getRetryDelay(DeliveryError.PROCESSING_ERROR, 2));
+        Assert.assertFalse(new RetryPolicies.Never().shouldRetry(DeliveryError.PROCESSING_ERROR, 1));
+    }
+
+    /**
+     * Sends a notification over a connection whose first socket then
+     * rejects it with the given error; later sockets write to {@code resent}.
+     */
+    private EnhancedApnsNotification rejectedNotification(ByteArrayOutputStream resent, ApnsDelegate delegate,
+                                                          RetryPolicy policy, DeliveryError error) throws IOException {
+        return rejectedNotification(rejectingConnection(resent, delegate, policy), error);
+    }
+
+    /**
+     * Returns a connection whose first socket reports the errors written
+     * to {@link #errors}; later sockets write to {@code resent}.
+     */
+    private ApnsConnectionImpl rejectingConnection(ByteArrayOutputStream resent, ApnsDelegate delegate,
+                                                   RetryPolicy policy) throws IOException {
+        errors = new PipedOutputStream();
+        Socket first = closeableSocket(new ByteArrayOutputStream(), new PipedInputStream(errors));
+        Socket second = closeableSocket(resent, new PipedInputStream(new PipedOutputStream()));
+        SocketFactory factory = mock(SocketFactory.class);
+        when(factory.createSocket(anyString(), anyInt())).thenReturn(first, second);
+
+        return new ApnsConnectionImpl(factory, "localhost", 80, null, null, null,
+                new ReconnectPolicies.Never(), delegate, true, null, 100, false, 0, 0, policy, null, null);
+    }
+
+    private EnhancedApnsNotification rejectedNotification(ApnsConnectionImpl connection, DeliveryError error)
+            throws IOException {
+        EnhancedApnsNotification notification = new EnhancedApnsNotification(7, 0, "a87d8878d878a79", "{\"aps\":{}}");
+        connection.sendMessage(notification);
+
+        errors.write(new byte[] { 8, (byte) error.code(), 0, 0, 0, 7 });
+        errors.close();
+        return notification;
+    }
+
+    private static Socket closeableSocket(ByteArrayOutputStream out, InputStream in) throws IOException {
+        final Socket socket = mock(Socket.class);
+        when(socket.getOutputStream()).thenReturn(out);
+        when(socket.getInputStream()).thenReturn(in);
+        doAnswer(new Answer<Void>() {
+            public Void answer(InvocationOnMock invocation) {
+                when(socket.isClosed()).thenReturn(true);
+                return null;
+            }
+        }).when(socket).close();
+        return socket;
+    }
+
     private void packetSentRegardless(SocketFactory sf, ByteArrayOutputStream baos) {
         ApnsConnectionImpl connection = new ApnsConnectionImpl(sf, "localhost", 80);
         connection.DELAY_IN_MS = 0;
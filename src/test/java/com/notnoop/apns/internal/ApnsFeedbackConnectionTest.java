@@ -31,14 +31,33 @@
 package com.notnoop.apns.internal;
 
 import java.io.ByteArrayInputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 import javax.net.SocketFactory;
 
 import org.junit.Test;
 
+import com.notnoop.apns.InactiveDevice;
+import com.notnoop.apns.InactiveDeviceListener;
+
 import static com.notnoop.apns.internal.ApnsFeedbackParsingUtils.*;
 import static com.notnoop.apns.internal.MockingUtils.mockClosedThenOpenSocket;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
 public class ApnsFeedbackConnectionTest {
 
@@ -66,6 +85,105 @@ public class ApnsFeedbackConnectionTest {
         checkParsedThree(Utilities.parseFeedbackStream(threeStream));
     }
 
+    /** Streaming **/
+    @Test
+    public void streamedSimple() throws IOException {
+        RecordingListener listener = new RecordingListener();
+        assertEquals(1, Utilities.parseFeedbackStream(simpleStream, listener, 10));
+        assertEquals(1, listener.batches.size());
+        checkParsedSimple(listener.toMap());
+    }
+
+    @Test
+    public void streamedThreeInBatches() throws IOException {
+        RecordingListener listener = new RecordingListener();
+        assertEquals(3, Utilities.parseFeedbackStream(threeStream, listener, 2));
+        assertEquals(2, listener.batches.size());
+        assertEquals(2, listener.batches.get(0).size());
+        assertEquals(1, listener.batches.get(1).size());
+        checkParsedThree(listener.toMap());
+    }
+
+    @Test
+    public void connectionStreamedThree() {
+        SocketFactory sf = MockingUtils.mockSocketFactory(null, threeStream);
+        ApnsFeedbackConnection connection = new ApnsFeedbackConnection(sf, "localhost", 80);
+        RecordingListener listener = new RecordingListener();
+        assertEquals(3, connection.getInactiveDevices(listener, 1));
+        assertEquals(3, listener.batches.size());
+        checkParsedThree(listener.toMap());
+    }
+
+    @Test
+    public void streamedAfterFailedRead() throws IOException {
+        Socket failed = mock(Socket.class);
+        when(failed.getInputStream()).thenThrow(new IOException("simulated IOException"));
+        Socket open = mock(Socket.class);
+        when(open.getInputStream()).thenReturn(simpleStream);
+        SocketFactory sf = mock(SocketFactory.class);
+        when(sf.createSocket(anyString(), anyInt())).thenReturn(failed, open);
+        ApnsFeedbackConnection connection = new ApnsFeedbackConnection(sf, "localhost", 80);
+        connection.DELAY_IN_MS = 0;
+        RecordingListener listener = new RecordingListener();
+        assertEquals(1, connection.getInactiveDevices(listener, 10));
+        checkParsedSimple(listener.toMap());
+    }
+
+    @Test
+    public void streamedFailureDeliversRecordsRead() {
+        InputStream failing = new SequenceInputStream(threeStream, new InputStream() {
+            @Override
+            public int read() throws IOException {
+                throw new IOException("connection reset");
+            }
+        });
+        RecordingListener listener = new RecordingListener();
+        try {
+            Utilities.parseFeedbackStream(failing, listener, 10);
+            fail("expected IOException");
+        } catch (IOException expected) {
+            // The records read before the failure can't be read again
+        }
+        assertEquals(1, listener.batches.size());
+        checkParsedThree(listener.toMap());
+    }
+
+    @Test
+    public void listenerFailureIsNotRetried() throws IOException {
+        SocketFactory sf = MockingUtils.mockSocketFactory(null, threeStream);
+        ApnsFeedbackConnection connection = new ApnsFeedbackConnection(sf, "localhost", 80);
+        connection.DELAY_IN_MS = 0;
+        try {
+            connection.getInactiveDevices(new InactiveDeviceListener() {
+                public void inactiveDevices(List<InactiveDevice> devices) {
+                    throw new IllegalStateException("listener failed");
+                }
+            }, 10);
+            fail("expected IllegalStateException");
+        } catch (IllegalStateException expected) {
+            // Propagated without reconnecting
+        }
+        verify(sf, times(1)).createSocket("localhost", 80);
+    }
+
+    static class RecordingListener implements InactiveDeviceListener {
+        final List<List<InactiveDevice>> batches = new ArrayList<List<InactiveDevice>>();
+
+        public void inactiveDevices(List<InactiveDevice> devices) {
+            batches.add(devices);
+        }
+
+        Map<String, Date> toMap() {
+            Map<String, Date> result = new HashMap<String, Date>();
+            for (List<InactiveDevice> batch : batches) {
+                for (InactiveDevice device : batch) {
+                    result.put(device.getDeviceTokenHex(), device.getInactiveSince());
+                }
+            }
+            return result;
+        }
+    }
+
     /** With Connection **/
     @Test
     public void connectionParsedOne() {
@@ -36,9 +36,19 @@ import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import static org.junit.Assert.*;
 import static org.mockito.Mockito.*;
 
 public class ApnsPooledConnectionTest {
@@ -89,6 +99,102 @@ public class ApnsPooledConnectionTest {
         verify(prototype, times(2)).close();
     }
 
+    @Test(expected = NetworkIOException.class)
+    public void testSendMessagesFailure() throws Exception {
+        ApnsPooledConnection conn = new ApnsPooledConnection(errorPrototype, 1, getSingleThreadExecutor());
+        conn.sendMessages(Arrays.asList(mock(ApnsNotification.class), mock(ApnsNotification.class)));
+    }
+
+    @Test
+    public void testSendMessagesConcurrently() throws Exception {
+        final int pool = 4;
+        final CountDownLatch allConnectionsSending = new CountDownLatch(pool);
+        final List<ApnsConnection> copies = Collections.synchronizedList(new ArrayList<ApnsConnection>());
+        when(prototype.copy()).thenAnswer(new Answer<ApnsConnection>() {
+            public ApnsConnection answer(InvocationOnMock invocation) throws Throwable {
+                ApnsConnection copy = mock(ApnsConnection.class);
+                doAnswer(new Answer<Void>() {
+                    public Void answer(InvocationOnMock invocation) throws Throwable {
+                        allConnectionsSending.countDown();
+                        allConnectionsSending.await(5, TimeUnit.SECONDS);
+                        return null;
+                    }
+                }).when(copy).sendMessage(any(ApnsNotification.class));
+                copies.add(copy);
+                return copy;
+            }
+        });
+
+        List<ApnsNotification> messages = new ArrayList<ApnsNotification>();
+        for (int i = 0; i < 102; i++) {
+            messages.add(mock(ApnsNotification.class));
+        }
+
+        executorService = Executors.newFixedThreadPool(pool);
+        ApnsPooledConnection conn = new ApnsPooledConnection(prototype, pool, executorService);
+        long start = System.currentTimeMillis();
+        conn.sendMessages(messages);
+
+        assertTrue(System.currentTimeMillis() - start < 5000);
+        assertEquals(pool, copies.size());
+        for (ApnsConnection copy : copies) {
+            verify(copy, atLeast(25)).sendMessage(any(ApnsNotification.class));
+        }
+        for (ApnsNotification message : messages) {
+            verifyZeroInteractions(message);
+        }
+    }
+
+    @Test
+    public void testSendMessagesInterrupted() throws Exception {
+        final CountDownLatch started = new CountDownLatch(2);
+        final CountDownLatch release = new CountDownLatch(1);
+        doAnswer(new Answer<Void>() {
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                started.countDown();
+                release.await(5, TimeUnit.SECONDS);
+                return null;
+            }
+        }).when(prototype).sendMessage(any(ApnsNotification.class));
+
+        List<ApnsNotification> messages = new ArrayList<ApnsNotification>();
+        for (int i = 0; i < 10; i++) {
+            messages.add(mock(ApnsNotification.class));
+        }
+
+        ApnsPooledConnection conn = new ApnsPooledConnection(prototype, 2, Executors.newFixedThreadPool(2));
+        final Thread caller = Thread.currentThread();
+        new Thread(new Runnable() {
+            public void run() {
+                try {
+                    started.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                caller.interrupt();
+            }
+        }).start();
+        try {
+            conn.sendMessages(messages);
+            fail("Expected NetworkIOException");
+        } catch (NetworkIOException expected) {
+            assertTrue(Thread.interrupted());
+        }
+
+        // the chunks were copied, so reusing the list can't disturb the senders
+        messages.clear();
+        release.countDown();
+        conn.close();
+        verify(prototype, times(10)).sendMessage(any(ApnsNotification.class));
+    }
+
+    @Test(expected = LinkageError.class)
+    public void testSendMessagesPropagatesErrors() throws Exception {
+        doThrow(new LinkageError("test")).when(prototype).sendMessage(any(ApnsNotification.class));
+        ApnsPooledConnection conn = new ApnsPooledConnection(prototype, 1, getSingleThreadExecutor());
+        conn.sendMessages(Arrays.asList(mock(ApnsNotification.class), mock(ApnsNotification.class)));
+    }
+
     private ExecutorService getSingleThreadExecutor() {
         executorService = Executors.newSingleThreadExecutor();
         return executorService;
@@ -30,11 +30,20 @@
  */
 package com.notnoop.apns.internal;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
 import org.junit.Test;
+import static org.junit.Assert.*;
 import static org.mockito.Mockito.*;
 
+import com.notnoop.apns.ApnsNotification;
 import com.notnoop.apns.ApnsService;
+import com.notnoop.apns.BulkPushSummary;
+import com.notnoop.apns.DeviceToken;
 import com.notnoop.apns.EnhancedApnsNotification;
+import com.notnoop.apns.PackedDeviceTokens;
 
 public class ApnsServiceImplTest {
 
@@ -61,6 +70,62 @@ public class ApnsServiceImplTest {
         verify(connection, times(1)).sendMessage(notification);
     }
 
+    @Test
+    public void pushIterator() {
+        ApnsConnection connection = mock(ApnsConnection.class);
+        ApnsService service = newService(connection, null);
+
+        BulkPushSummary summary = service.push(Arrays.asList("2342", "2343", "2344").iterator(), "{}");
+
+        assertEquals(3, summary.getCount());
+        assertEquals(summary.getFirstIdentifier() + 2, summary.getLastIdentifier());
+        verify(connection, never()).sendMessage(any(ApnsNotification.class));
+        verify(connection).sendMessages(Arrays.asList(
+                new EnhancedApnsNotification(summary.getFirstIdentifier(), EnhancedApnsNotification.MAXIMUM_EXPIRY, "2342", "{}"),
+                new EnhancedApnsNotification(summary.getFirstIdentifier() + 1, EnhancedApnsNotification.MAXIMUM_EXPIRY, "2343", "{}"),
+                new EnhancedApnsNotification(summary.getLastIdentifier(), EnhancedApnsNotification.MAXIMUM_EXPIRY, "2344", "{}")));
+    }
+
+    @Test
+    public void pushIteratorInChunks() {
+        ApnsConnection connection = mock(ApnsConnection.class);
+        ApnsService service = newService(connection, null);
+
+        List<byte[]> tokens = Collections.nCopies(AbstractApnsService.BULK_CHUNK_SIZE * 2 + 1, new byte[] { 1, 2 });
+        BulkPushSummary summary = service.push(tokens.iterator(), new byte[] { '{', '}' });
+
+        assertEquals(tokens.size(), summary.getCount());
+        verify(connection, times(3)).sendMessages(anyCollectionOf(ApnsNotification.class));
+    }
+
+    @Test
+    public void pushPacked() {
+        ApnsConnection connection = mock(ApnsConnection.class);
+        ApnsService service = newService(connection, null);
+
+        byte[] packed = new byte[2 * DeviceToken.LENGTH];
+        Arrays.fill(packed, DeviceToken.LENGTH, packed.length, (byte) 1);
+        BulkPushSummary summary = service.push(PackedDeviceTokens.wrap(packed), new byte[] { '{', '}' }, 10);
+
+        assertEquals(2, summary.getCount());
+        verify(connection).sendMessages(Arrays.asList(
+                new EnhancedApnsNotification(summary.getFirstIdentifier(), 10,
+                        Utilities.copyOfRange(packed, 0, DeviceToken.LENGTH), new byte[] { '{', '}' }),
+                new EnhancedApnsNotification(summary.getLastIdentifier(), 10,
+                        Utilities.copyOfRange(packed, DeviceToken.LENGTH, packed.length), new byte[] { '{', '}' })));
+    }
+
+    @Test
+    public void pushEmptyIterator() {
+        ApnsConnection connection = mock(ApnsConnection.class);
+        ApnsService service = newService(connection, null);
+
+        BulkPushSummary summary = service.push(Collections.<byte[]>emptyList().iterator(), new byte[] { '{', '}' });
+
+        assertEquals(0, summary.getCount());
+        verifyZeroInteractions(connection);
+    }
+
     protected ApnsService newService(ApnsConnection connection, ApnsFeedbackConnection feedback) {
         return new ApnsServiceImpl(connection, null);
     }
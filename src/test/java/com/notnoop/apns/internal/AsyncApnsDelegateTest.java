@@ -0,0 +1,225 @@
+/*
+ *  Copyright 2009, Mahmood Ali.
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions are
+ *  met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ *      copyright notice, this list of conditions and the following disclaimer
+ *      in the documentation and/or other materials provided with the
+ *      distribution.
+ *    * Neither the name of Mahmood Ali. nor the names of its
+ *      contributors may be used to endorse or promote products derived from
+ *      this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ *  A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ *  OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ *  SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ *  LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ *  OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.notnoop.apns.internal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.notnoop.apns.ApnsDelegate;
+import com.notnoop.apns.ApnsDelegateAdapter;
+import com.notnoop.apns.ApnsNotification;
+import com.notnoop.apns.BatchApnsDelegate;
+import com.notnoop.apns.DeliveryError;
+import com.notnoop.apns.EnhancedApnsNotification;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+public class AsyncApnsDelegateTest {
+
+    private static ApnsNotification notification(int id) {
+        return new EnhancedApnsNotification(id, 0, new byte[32], new byte[] { '{', '}' });
+    }
+
+    private static class Recorder extends ApnsDelegateAdapter implements BatchApnsDelegate {
+        final List<String> calls = new ArrayList<String>();
+        final CountDownLatch blocked = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        public void messagesSent(List<ApnsNotification> messages, boolean resent) {
+            StringBuilder sb = new StringBuilder(resent ? "resent" : "sent");
+            for (ApnsNotification message : messages) {
+                sb.append(' ').append(message.getIdentifier());
+            }
+            calls.add(sb.toString());
+        }
+
+        @Override
+        public void connectionClosed(DeliveryError e, int messageIdentifier) {
+            blocked.countDown();
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException ex) {
+                throw new AssertionError(ex);
+            }
+            calls.add("closed " + messageIdentifier);
+        }
+    }
+
+    @Test
+    public void batchesConsecutiveSentNotifications() throws InterruptedException {
+        Recorder recorder = new Recorder();
+        AsyncApnsDelegate async = new AsyncApnsDelegate(recorder, 16, null);
+
+        async.connectionClosed(DeliveryError.PROCESSING_ERROR, 1);
+        assertTrue(recorder.blocked.await(5, TimeUnit.SECONDS));
+        async.messageSent(notification(2), false);
+        async.messageSent(notification(3), false);
+        async.messageSent(notification(4), true);
+        async.messageSent(notification(5), true);
+        async.notificationsResent(2);
+        async.messageSent(notification(6), false);
+        recorder.release.countDown();
+        async.close();
+
+        assertEquals(Arrays.asList("closed 1", "sent 2 3", "resent 4 5", "sent 6"), recorder.calls);
+    }
+
+    @Test
+    public void interruptedSenderWaitsForRoom() throws InterruptedException {
+        final Recorder recorder = new Recorder();
+        AsyncApnsDelegate async = new AsyncApnsDelegate(recorder, 1, null);
+
+        async.connectionClosed(DeliveryError.PROCESSING_ERROR, 1);
+        assertTrue(recorder.blocked.await(5, TimeUnit.SECONDS));
+        async.messageSent(notification(2), false);
+        new Thread(new Runnable() {
+            public void run() {
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException e) {
+                    // released right away then
+                }
+                recorder.release.countDown();
+            }
+        }).start();
+
+        Thread.currentThread().interrupt();
+        async.messageSent(notification(3), false);
+        assertTrue(Thread.interrupted());
+        async.close();
+
+        assertEquals("closed 1", recorder.calls.get(0));
+        StringBuilder sent = new StringBuilder();
+        for (String call : recorder.calls.subList(1, recorder.calls.size())) {
+            sent.append(call.substring("sent".length()));
+        }
+        assertEquals(" 2 3", sent.toString());
+    }
+
+    @Test
+    public void interruptedDispatcherCloses() throws InterruptedException {
+        final List<Thread> threads = new ArrayList<Thread>();
+        ApnsDelegate delegate = mock(ApnsDelegate.class);
+        AsyncApnsDelegate async = new AsyncApnsDelegate(delegate, 1, new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r);
+                thread.setDaemon(true);
+                threads.add(thread);
+                return thread;
+            }
+        });
+
+        ApnsNotification first = notification(1);
+        async.messageSent(first, false);
+        verify(delegate, timeout(5000)).messageSent(first, false);
+        threads.get(0).interrupt();
+        threads.get(0).join(5000);
+        assertFalse(threads.get(0).isAlive());
+
+        // dropped rather than blocking on the full queue
+        async.messageSent(notification(2), false);
+        async.messageSent(notification(3), false);
+        async.close();
+        verifyNoMoreInteractions(delegate);
+    }
+
+    @Test
+    public void dispatcherSurvivesDelegateErrors() {
+        ApnsDelegate delegate = mock(ApnsDelegate.class);
+        doThrow(new LinkageError("delegate failure")).when(delegate).notificationsResent(1);
+        AsyncApnsDelegate async = new AsyncApnsDelegate(delegate, 1, null);
+
+        ApnsNotification sent = notification(1);
+        async.notificationsResent(1);
+        async.messageSent(sent, false);
+        async.close();
+
+        verify(delegate).notificationsResent(1);
+        verify(delegate).messageSent(sent, false);
+    }
+
+    @Test
+    public void blockedSenderGivesUpOnClose() throws InterruptedException {
+        Recorder recorder = new Recorder();
+        final AsyncApnsDelegate async = new AsyncApnsDelegate(recorder, 1, null);
+
+        async.connectionClosed(DeliveryError.PROCESSING_ERROR, 1);
+        assertTrue(recorder.blocked.await(5, TimeUnit.SECONDS));
+        async.messageSent(notification(2), false);
+        Thread sender = new Thread(new Runnable() {
+            public void run() {
+                async.messageSent(notification(3), false);
+            }
+        });
+        sender.start();
+        Thread closer = new Thread(new Runnable() {
+            public void run() {
+                async.close();
+            }
+        });
+        closer.start();
+
+        // the queue stays full until the delegate returns
+        sender.join(5000);
+        assertFalse(sender.isAlive());
+        recorder.release.countDown();
+        closer.join(5000);
+        assertFalse(closer.isAlive());
+        assertEquals(Arrays.asList("closed 1", "sent 2"), recorder.calls);
+    }
+
+    @Test
+    public void notifiesPlainDelegateInOrder() {
+        ApnsDelegate delegate = mock(ApnsDelegate.class);
+        doThrow(new RuntimeException("delegate failure")).when(delegate).cacheLengthExceeded(200);
+        AsyncApnsDelegate async = new AsyncApnsDelegate(delegate, 1, null);
+
+        ApnsNotification first = notification(1), second = notification(2);
+        RuntimeException error = new RuntimeException();
+        async.messageSent(first, false);
+        async.cacheLengthExceeded(200);
+        async.messageSendFailed(second, error);
+        async.close();
+        async.messageSent(second, false);
+
+        verify(delegate).messageSent(first, false);
+        verify(delegate).cacheLengthExceeded(200);
+        verify(delegate).messageSendFailed(second, error);
+        verifyNoMoreInteractions(delegate);
+    }
+}
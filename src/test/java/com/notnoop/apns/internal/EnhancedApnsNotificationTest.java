@@ -0,0 +1,110 @@
+/*
+ *  Copyright 2009, Mahmood Ali.
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions are
+ *  met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ *      copyright notice, this list of conditions and the following disclaimer
+ *      in the documentation and/or other materials provided with the
+ *      distribution.
+ *    * Neither the name of Mahmood Ali. nor the names of its
+ *      contributors may be used to endorse or promote products derived from
+ *      this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ *  A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ *  OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ *  SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ *  LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ *  OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.notnoop.apns.internal;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+import org.junit.experimental.theories.*;
+import org.junit.runner.RunWith;
+
+import com.notnoop.apns.EnhancedApnsNotification;
+import com.notnoop.apns.PayloadBuilder;
+import com.notnoop.apns.SharedPayload;
+
+import static com.notnoop.apns.PayloadBuilder.*;
+import static com.notnoop.apns.internal.Utilities.*;
+
+@RunWith(Theories.class)
+public class EnhancedApnsNotificationTest {
+
+    // Device Tokens
+    @DataPoints public static String[] deviceTokens =
+    {
+        "298893742908AB98C",
+        "98234098203BACCCC93284092"
+    };
+
+    // Messages
+    @DataPoints public static PayloadBuilder[] payloaders =
+    {
+        newPayload().alertBody("test").sound("default"),
+        newPayload().sound("chimes").actionKey("Cancel"),
+        newPayload().customField("notice", "this")
+    };
+
+    @Theory
+    public void marshallMatchesFrameFormat(String deviceToken, PayloadBuilder payload) {
+        EnhancedApnsNotification msg = new EnhancedApnsNotification(7, 12345, deviceToken, payload.build());
+        byte[] expected = marshallEnhanced((byte) 1, 7, 12345, decodeHex(deviceToken), payload.buildBytes());
+        assertArrayEquals(expected, msg.marshall());
+        assertEquals(expected.length, msg.length());
+    }
+
+    @Theory
+    public void writeToMatchesMarshall(String deviceToken, PayloadBuilder payload) throws Exception {
+        EnhancedApnsNotification msg = new EnhancedApnsNotification(-1, Integer.MAX_VALUE,
+                decodeHex(deviceToken), SharedPayload.of(payload.build()));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        msg.writeTo(out);
+        assertArrayEquals(msg.marshall(), out.toByteArray());
+    }
+
+    @Theory
+    public void writeToReusesScratch(String deviceToken, PayloadBuilder payload) throws Exception {
+        EnhancedApnsNotification msg = new EnhancedApnsNotification(-1, Integer.MAX_VALUE,
+                decodeHex(deviceToken), SharedPayload.of(payload.build()));
+        byte[] scratch = new byte[EnhancedApnsNotification.HEAD_LENGTH];
+        Arrays.fill(scratch, (byte) 0x7f);
+        // the head is written as a whole, never byte by byte
+        ByteArrayOutputStream out = new ByteArrayOutputStream() {
+            @Override
+            public synchronized void write(int b) {
+                throw new AssertionError("single byte written");
+            }
+        };
+        msg.writeTo(out, scratch);
+        assertArrayEquals(msg.marshall(), out.toByteArray());
+    }
+
+    @Theory
+    public void sharedPayloadEquality(String deviceToken, PayloadBuilder payload) {
+        byte[] token = decodeHex(deviceToken);
+        byte[] bytes = payload.buildBytes();
+        EnhancedApnsNotification copied = new EnhancedApnsNotification(1, 2, token, bytes);
+        EnhancedApnsNotification shared = new EnhancedApnsNotification(1, 2, token, SharedPayload.of(bytes));
+        assertEquals(copied, shared);
+        assertEquals(copied.hashCode(), shared.hashCode());
+        assertArrayEquals(bytes, shared.getPayload());
+    }
+}
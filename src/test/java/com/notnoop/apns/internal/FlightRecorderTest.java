@@ -0,0 +1,91 @@
+/*
+ *  Copyright 2009, Mahmood Ali.
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions are
+ *  met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ *      copyright notice, this list of conditions and the following disclaimer
+ *      in the documentation and/or other materials provided with the
+ *      distribution.
+ *    * Neither the name of Mahmood Ali. nor the names of its
+ *      contributors may be used to endorse or promote products derived from
+ *      this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ *  A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ *  OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ *  SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ *  LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ *  OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.notnoop.apns.internal;
+
+import java.io.File;
+import java.lang.reflect.Method;
+import java.util.List;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.*;
+
+public class FlightRecorderTest {
+
+    @Test
+    public void disabledByDefault() {
+        assumeFalse(Boolean.getBoolean(FlightRecorder.PROPERTY));
+        assertFalse(FlightRecorder.ENABLED);
+        assertNull(FlightRecorder.WRITE.begin());
+        FlightRecorder.RETRY.commit("PROCESSING_ERROR", 1, 1, 0);
+    }
+
+    @Test
+    public void recordsEvents() throws Exception {
+        FlightRecorder.Api api = FlightRecorder.Api.load();
+        assumeNotNull(api);
+        FlightRecorder.EventType type = new FlightRecorder.EventType(api, "Test", "Test",
+                "error", String.class, "identifier", int.class);
+
+        Class<?> recordingClass = Class.forName("jdk.jfr.Recording");
+        Object recording = recordingClass.newInstance();
+        recordingClass.getMethod("enable", String.class).invoke(recording, "com.notnoop.apns.Test");
+        recordingClass.getMethod("start").invoke(recording);
+        type.commit("INVALID_TOKEN", 42);
+        recordingClass.getMethod("stop").invoke(recording);
+
+        File file = File.createTempFile("apns", ".jfr");
+        try {
+            Class<?> pathClass = Class.forName("java.nio.file.Path");
+            Object path = File.class.getMethod("toPath").invoke(file);
+            recordingClass.getMethod("dump", pathClass).invoke(recording, path);
+            recordingClass.getMethod("close").invoke(recording);
+
+            Class<?> recordingFile = Class.forName("jdk.jfr.consumer.RecordingFile");
+            List<?> events = (List<?>) recordingFile.getMethod("readAllEvents", pathClass)
+                    .invoke(null, path);
+            int found = 0;
+            for (Object event : events) {
+                Object eventType = event.getClass().getMethod("getEventType").invoke(event);
+                if ("com.notnoop.apns.Test".equals(eventType.getClass().getMethod("getName").invoke(eventType))) {
+                    Method getValue = event.getClass().getMethod("getValue", String.class);
+                    assertEquals("INVALID_TOKEN", getValue.invoke(event, "error"));
+                    assertEquals(42, getValue.invoke(event, "identifier"));
+                    found++;
+                }
+            }
+            assertEquals(1, found);
+        } finally {
+            file.delete();
+        }
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ *  Copyright 2009, Mahmood Ali.
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions are
+ *  met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ *      copyright notice, this list of conditions and the following disclaimer
+ *      in the documentation and/or other materials provided with the
+ *      distribution.
+ *    * Neither the name of Mahmood Ali. nor the names of its
+ *      contributors may be used to endorse or promote products derived from
+ *      this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ *  A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ *  OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ *  SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ *  LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ *  OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.notnoop.apns.internal;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class InFlightWindowTest {
+
+    @Test
+    public void acquiresUpToSizeWithoutBlocking() {
+        InFlightWindow window = new InFlightWindow(3, 60000);
+        long start = System.nanoTime();
+        for (int i = 0; i < 3; i++) {
+            window.acquire();
+        }
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+        assertEquals(3, window.getInFlight());
+    }
+
+    @Test
+    public void releasesSlotsPastHorizon() {
+        InFlightWindow window = new InFlightWindow(2, 50);
+        window.acquire();
+        window.acquire();
+        long start = System.nanoTime();
+        window.acquire();
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(40));
+        assertTrue(window.getInFlight() <= 2);
+    }
+
+    @Test
+    public void clearReleasesBlockedSender() throws InterruptedException {
+        final InFlightWindow window = new InFlightWindow(1, 60000);
+        window.acquire();
+
+        final CountDownLatch sent = new CountDownLatch(1);
+        Thread sender = new Thread() {
+            public void run() {
+                window.acquire();
+                sent.countDown();
+            }
+        };
+        sender.start();
+        assertFalse(sent.await(100, TimeUnit.MILLISECONDS));
+
+        window.clear();
+        assertTrue(sent.await(5, TimeUnit.SECONDS));
+        assertEquals(1, window.getInFlight());
+    }
+
+    @Test
+    public void reservedSlotAgesOnceSent() throws InterruptedException {
+        InFlightWindow window = new InFlightWindow(1, 100);
+        window.reserve();
+        // e.g. a slow reconnection, which mustn't count toward the horizon
+        Thread.sleep(150);
+        window.sent();
+        long start = System.nanoTime();
+        window.acquire();
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(80));
+    }
+
+    @Test
+    public void cancelReleasesReservation() throws InterruptedException {
+        final InFlightWindow window = new InFlightWindow(1, 60000);
+        window.reserve();
+
+        final CountDownLatch reserved = new CountDownLatch(1);
+        Thread sender = new Thread() {
+            public void run() {
+                window.reserve();
+                reserved.countDown();
+            }
+        };
+        sender.start();
+        assertFalse(reserved.await(100, TimeUnit.MILLISECONDS));
+
+        window.cancel();
+        assertTrue(reserved.await(5, TimeUnit.SECONDS));
+        assertEquals(1, window.getInFlight());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsEmptyWindow() {
+        new InFlightWindow(0, 100);
+    }
+}
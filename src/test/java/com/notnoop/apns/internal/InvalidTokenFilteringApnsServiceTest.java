@@ -0,0 +1,168 @@
+/*
+ *  Copyright 2009, Mahmood Ali.
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions are
+ *  met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ *      copyright notice, this list of conditions and the following disclaimer
+ *      in the documentation and/or other materials provided with the
+ *      distribution.
+ *    * Neither the name of Mahmood Ali. nor the names of its
+ *      contributors may be used to endorse or promote products derived from
+ *      this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ *  A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ *  OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ *  SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ *  LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ *  OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.notnoop.apns.internal;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.notnoop.apns.ApnsDelegate;
+import com.notnoop.apns.ApnsService;
+import com.notnoop.apns.DeliveryError;
+import com.notnoop.apns.EnhancedApnsNotification;
+import com.notnoop.apns.InactiveDevice;
+import com.notnoop.apns.InvalidTokenIndex;
+import com.notnoop.exceptions.ApnsDeliveryErrorException;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.*;
+import static org.mockito.Mockito.*;
+
+public class InvalidTokenFilteringApnsServiceTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    byte[] deadToken = Utilities.decodeHex("dead");
+    EnhancedApnsNotification dead = new EnhancedApnsNotification(1,
+            EnhancedApnsNotification.MAXIMUM_EXPIRY, "dead", "{}");
+    EnhancedApnsNotification alive = new EnhancedApnsNotification(2,
+            EnhancedApnsNotification.MAXIMUM_EXPIRY, "beef", "{}");
+
+    @Test
+    public void suppressesIndexedTokens() {
+        ApnsService wrapped = mock(ApnsService.class);
+        ApnsDelegate delegate = mock(ApnsDelegate.class);
+        InvalidTokenIndex index = new InvalidTokenIndex();
+        index.add(deadToken, 0);
+
+        ApnsService service = new InvalidTokenFilteringApnsService(wrapped, index, delegate);
+        service.push(dead);
+        service.push(alive);
+
+        verify(wrapped, never()).push(dead);
+        verify(wrapped, times(1)).push(alive);
+        verify(delegate, times(1)).messageSendFailed(eq(dead), any(ApnsDeliveryErrorException.class));
+    }
+
+    @Test
+    public void delegateRecordsInvalidToken() {
+        ApnsDelegate delegate = mock(ApnsDelegate.class);
+        InvalidTokenIndex index = new InvalidTokenIndex();
+        ApnsDelegate recording = new InvalidTokenDelegate(delegate, index);
+
+        recording.messageSendFailed(alive, new ApnsDeliveryErrorException(DeliveryError.PROCESSING_ERROR));
+        assertFalse(index.contains(alive.getDeviceToken()));
+
+        recording.messageSendFailed(dead, new ApnsDeliveryErrorException(DeliveryError.INVALID_TOKEN));
+        assertTrue(index.contains(deadToken));
+        verify(delegate, times(2)).messageSendFailed(any(EnhancedApnsNotification.class), any(Throwable.class));
+    }
+
+    @Test
+    public void feedbackIsIndexed() {
+        ApnsService wrapped = mock(ApnsService.class);
+        when(wrapped.getInactiveDevices()).thenReturn(Collections.singletonMap("DEAD", new Date()));
+        InvalidTokenIndex index = new InvalidTokenIndex();
+
+        ApnsService service = new InvalidTokenFilteringApnsService(wrapped, index, null);
+        service.getInactiveDevices();
+
+        assertTrue(index.contains(deadToken));
+    }
+
+    @Test
+    public void persistsIndex() throws Exception {
+        File file = new File(folder.getRoot(), "invalid-tokens");
+        InvalidTokenIndex index = new InvalidTokenIndex(file);
+        index.inactiveDevices(Arrays.asList(new InactiveDevice(deadToken, 42)));
+        index.save();
+        index.save();
+
+        InvalidTokenIndex loaded = new InvalidTokenIndex(file);
+        loaded.load();
+        assertEquals(1, loaded.size());
+        assertTrue(loaded.contains(deadToken));
+        assertTrue(loaded.remove(deadToken));
+        assertFalse(loaded.contains(deadToken));
+    }
+
+    @Test
+    public void laterRegistrationLiftsSuppression() {
+        ApnsService wrapped = mock(ApnsService.class);
+        InvalidTokenIndex index = new InvalidTokenIndex();
+        index.add(deadToken, 100);
+
+        assertFalse(index.registered(deadToken, 50));
+        assertFalse(index.registered(deadToken, 100));
+        assertTrue(index.contains(deadToken));
+
+        assertTrue(index.registered(deadToken, 101));
+        ApnsService service = new InvalidTokenFilteringApnsService(wrapped, index, null);
+        service.push(dead);
+        verify(wrapped, times(1)).push(dead);
+    }
+
+    @Test
+    public void keepsLatestInvalidationTime() {
+        InvalidTokenIndex index = new InvalidTokenIndex();
+        index.add(deadToken, 100);
+        index.inactiveDevices(Arrays.asList(new InactiveDevice(deadToken, 50)));
+
+        assertFalse(index.registered(deadToken, 80));
+        assertTrue(index.contains(deadToken));
+    }
+
+    @Test
+    public void expiredEntriesAreNotSuppressedOrSaved() throws Exception {
+        File file = new File(folder.getRoot(), "invalid-tokens");
+        int now = (int)(System.currentTimeMillis() / 1000);
+        byte[] staleToken = Utilities.decodeHex("beef");
+        InvalidTokenIndex index = new InvalidTokenIndex(file).withExpiry(3600);
+        index.add(deadToken, now);
+        index.add(staleToken, now - 3600);
+        index.save();
+
+        assertTrue(index.contains(deadToken));
+        assertFalse(index.contains(staleToken));
+        assertEquals(1, index.size());
+
+        InvalidTokenIndex loaded = new InvalidTokenIndex(file);
+        loaded.load();
+        assertEquals(1, loaded.size());
+        assertTrue(loaded.contains(deadToken));
+    }
+}
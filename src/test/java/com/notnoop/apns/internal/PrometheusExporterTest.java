@@ -0,0 +1,111 @@
+/*
+ *  Copyright 2009, Mahmood Ali.
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions are
+ *  met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ *      copyright notice, this list of conditions and the following disclaimer
+ *      in the documentation and/or other materials provided with the
+ *      distribution.
+ *    * Neither the name of Mahmood Ali. nor the names of its
+ *      contributors may be used to endorse or promote products derived from
+ *      this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ *  A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ *  OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ *  SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ *  LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ *  OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.notnoop.apns.internal;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.notnoop.apns.ApnsMetrics;
+import com.notnoop.apns.DeliveryError;
+
+import static org.junit.Assert.*;
+
+public class PrometheusExporterTest {
+
+    @Test
+    public void formatsCountersAndHistograms() {
+        ApnsMetrics metrics = new ApnsMetrics();
+        metrics.sent(false);
+        metrics.sent(false);
+        metrics.sent(true);
+        metrics.errorResponse(DeliveryError.INVALID_TOKEN);
+        metrics.queued(3);
+        metrics.latency(ApnsMetrics.Stage.QUEUE, TimeUnit.MICROSECONDS.toNanos(700));
+        metrics.latency(ApnsMetrics.Stage.QUEUE, TimeUnit.MILLISECONDS.toNanos(30));
+
+        PrometheusExporter exporter = new PrometheusExporter(metrics, "main", new InetSocketAddress("127.0.0.1", 0));
+        try {
+            String text = exporter.scrape();
+            assertTrue(text.contains("# TYPE apns_notifications_sent_total counter\n"));
+            assertTrue(text.contains("apns_notifications_sent_total{service=\"main\"} 2\n"));
+            assertTrue(text.contains("apns_notifications_resent_total{service=\"main\"} 1\n"));
+            assertTrue(text.contains("apns_error_responses_total{service=\"main\",error=\"INVALID_TOKEN\"} 1\n"));
+            assertTrue(text.contains("apns_error_responses_total{service=\"main\",error=\"NONE\"} 0\n"));
+            assertTrue(text.contains("apns_queued_notifications{service=\"main\"} 3\n"));
+            assertTrue(text.contains("apns_latency_seconds_bucket{service=\"main\",stage=\"queue\",le=\"5.0E-4\"} 0\n"));
+            assertTrue(text.contains("apns_latency_seconds_bucket{service=\"main\",stage=\"queue\",le=\"0.001\"} 1\n"));
+            assertTrue(text.contains("apns_latency_seconds_bucket{service=\"main\",stage=\"queue\",le=\"0.05\"} 2\n"));
+            assertTrue(text.contains("apns_latency_seconds_bucket{service=\"main\",stage=\"queue\",le=\"+Inf\"} 2\n"));
+            assertTrue(text.contains("apns_latency_seconds_count{service=\"main\",stage=\"queue\"} 2\n"));
+            assertTrue(text.contains("apns_latency_seconds_count{service=\"main\",stage=\"write\"} 0\n"));
+        } finally {
+            exporter.close();
+        }
+    }
+
+    @Test
+    public void servesMetricsOverHttp() throws Exception {
+        ApnsMetrics metrics = new ApnsMetrics();
+        metrics.failed();
+        PrometheusExporter exporter = new PrometheusExporter(metrics, null, new InetSocketAddress("127.0.0.1", 0));
+        try {
+            URL url = new URL("http://127.0.0.1:" + exporter.getAddress().getPort() + "/metrics");
+            HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+            assertEquals(200, conn.getResponseCode());
+            assertTrue(conn.getContentType().startsWith("text/plain; version=0.0.4"));
+            String text = read(conn.getInputStream());
+            assertTrue(text.contains("\napns_notifications_failed_total 1\n"));
+
+            conn = (HttpURLConnection) url.openConnection();
+            conn.setRequestMethod("POST");
+            assertEquals(405, conn.getResponseCode());
+        } finally {
+            exporter.close();
+        }
+    }
+
+    private static String read(InputStream in) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[1024];
+        int n;
+        while ((n = in.read(buf)) != -1) {
+            out.write(buf, 0, n);
+        }
+        in.close();
+        return new String(out.toByteArray(), "UTF-8");
+    }
+}
@@ -33,6 +33,7 @@ package com.notnoop.apns.internal;
 import static org.junit.Assert.*;
 
 import java.io.IOException;
+import java.util.Collection;
 import java.util.concurrent.Semaphore;
 
 import org.junit.Test;
@@ -126,6 +127,12 @@ public class QueuedApnsServiceTest {
             semaphore.release();
         }
 
+        public void sendMessages(Collection<? extends ApnsNotification> messages) {
+            for (ApnsNotification m : messages) {
+                sendMessage(m);
+            }
+        }
+
         protected void interrupt() {
             stop = true;
         }
@@ -45,6 +45,17 @@ public class UtilitiesTest {
         Assert.assertEquals(encodedHex.toLowerCase(), encoded.toLowerCase());
     }
 
+    @Test
+    public void testDecodeWithSeparators() {
+        Assert.assertArrayEquals(new byte[] { (byte)0xa1, (byte)0xb2, (byte)0xd4 },
+                Utilities.decodeHex("a1 b2-D4"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDecodeInvalidCharacter() {
+        Utilities.decodeHex("a1x2");
+    }
+
     @Test
     public void testParsingBytes() {
         Assert.assertEquals(0xFF00FF00, Utilities.parseBytes(0xFF, 0, 0xFF, 0));
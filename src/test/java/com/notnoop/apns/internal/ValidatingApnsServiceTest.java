@@ -0,0 +1,162 @@
+/*
+ *  Copyright 2009, Mahmood Ali.
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions are
+ *  met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ *      copyright notice, this list of conditions and the following disclaimer
+ *      in the documentation and/or other materials provided with the
+ *      distribution.
+ *    * Neither the name of Mahmood Ali. nor the names of its
+ *      contributors may be used to endorse or promote products derived from
+ *      this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ *  A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ *  OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ *  SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ *  LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ *  OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.notnoop.apns.internal;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import com.notnoop.apns.ApnsDelegate;
+import com.notnoop.apns.ApnsNotification;
+import com.notnoop.apns.BulkPushSummary;
+import com.notnoop.apns.DeliveryError;
+import com.notnoop.apns.DeviceToken;
+import com.notnoop.apns.EnhancedApnsNotification;
+import com.notnoop.apns.NotificationValidator;
+import com.notnoop.exceptions.ApnsDeliveryErrorException;
+import com.notnoop.exceptions.InvalidDeviceTokenException;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.*;
+import static org.mockito.Mockito.*;
+
+public class ValidatingApnsServiceTest {
+
+    String token = "0123456789abcdef0123456789abcdef0123456789abcdef0123456789abcdef";
+    byte[] payload = Utilities.toUTF8Bytes("{}");
+
+    ApnsConnection connection = mock(ApnsConnection.class);
+    ApnsDelegate delegate = mock(ApnsDelegate.class);
+    NotificationValidator validator = new NotificationValidator();
+    ValidatingApnsService service = new ValidatingApnsService(new ApnsServiceImpl(connection, null), validator, delegate);
+
+    private DeliveryError rejection(ApnsNotification notification) {
+        ArgumentCaptor<Throwable> error = ArgumentCaptor.forClass(Throwable.class);
+        verify(delegate).messageSendFailed(eq(notification), error.capture());
+        return ((ApnsDeliveryErrorException) error.getValue()).getDeliveryError();
+    }
+
+    @Test
+    public void sendsValidNotifications() {
+        ApnsNotification notification = service.push(token, "{}");
+        verify(connection).sendMessage(notification);
+        verifyZeroInteractions(delegate);
+        assertEquals(1, validator.getAcceptedCount());
+    }
+
+    @Test
+    public void rejectsWrongTokenSize() {
+        ApnsNotification notification = service.push(Utilities.decodeHex("dead"), payload);
+        assertEquals(DeliveryError.INVALID_TOKEN_SIZE, rejection(notification));
+        verifyZeroInteractions(connection);
+    }
+
+    @Test
+    public void rejectsMissingToken() {
+        ApnsNotification notification = service.push(new byte[0], payload);
+        assertEquals(DeliveryError.MISSING_DEVICE_TOKEN, rejection(notification));
+    }
+
+    @Test
+    public void rejectsMissingPayload() {
+        ApnsNotification notification = service.push(token, "");
+        assertEquals(DeliveryError.MISSING_PAYLOAD, rejection(notification));
+    }
+
+    @Test
+    public void rejectsOversizedPayload() {
+        ApnsNotification notification = service.push(Utilities.decodeHex(token), new byte[Utilities.MAX_PAYLOAD_LENGTH + 1]);
+        assertEquals(DeliveryError.INVALID_PAYLOAD_SIZE, rejection(notification));
+        assertEquals(1, validator.getRejectedCount(DeliveryError.INVALID_PAYLOAD_SIZE));
+    }
+
+    private InvalidDeviceTokenException tokenRejection() {
+        ArgumentCaptor<Throwable> error = ArgumentCaptor.forClass(Throwable.class);
+        verify(delegate).messageSendFailed(isNull(ApnsNotification.class), error.capture());
+        return (InvalidDeviceTokenException) error.getValue();
+    }
+
+    @Test
+    public void rejectsInvalidHexWithoutFailingBulkPush() {
+        List<EnhancedApnsNotification> notifications = (List<EnhancedApnsNotification>)
+                service.push(Arrays.asList(token, "not a token", token), "{}");
+
+        assertEquals(2, notifications.size());
+        InvalidDeviceTokenException rejection = tokenRejection();
+        assertEquals(DeliveryError.INVALID_TOKEN, rejection.getDeliveryError());
+        assertEquals("not a token", rejection.getDeviceToken());
+        verify(connection).sendMessages(notifications);
+        assertEquals(2, validator.getAcceptedCount());
+        assertEquals(1, validator.getRejectedCount());
+        assertEquals(Long.valueOf(1), validator.getRejectedCounts().get(DeliveryError.INVALID_TOKEN));
+    }
+
+    @Test
+    public void rejectsInvalidHexOfTokenLength() {
+        String invalid = "this is not a hex device token!!";
+        assertEquals(DeviceToken.LENGTH, invalid.length());
+
+        assertNull(service.push(invalid, "{}"));
+        assertEquals(invalid, tokenRejection().getDeviceToken());
+        assertEquals(1, validator.getRejectedCount(DeliveryError.INVALID_TOKEN));
+        verifyZeroInteractions(connection);
+    }
+
+    @Test
+    public void rejectsOddNumberOfHexDigits() {
+        assertNull(service.push(token.substring(1), "{}"));
+        assertEquals(1, validator.getRejectedCount(DeliveryError.INVALID_TOKEN));
+        verifyZeroInteractions(connection);
+    }
+
+    @Test
+    public void skipsInvalidHexOfStreamedPush() {
+        BulkPushSummary summary = service.push(Arrays.asList("zz", token, "not a token").iterator(), "{}");
+
+        assertEquals(1, summary.getCount());
+        verify(delegate, times(2)).messageSendFailed(isNull(ApnsNotification.class),
+                any(InvalidDeviceTokenException.class));
+        verify(connection).sendMessages(anyListOf(ApnsNotification.class));
+        assertEquals(1, validator.getAcceptedCount());
+        assertEquals(2, validator.getRejectedCount(DeliveryError.INVALID_TOKEN));
+    }
+
+    @Test
+    public void rejectsEnhancedNotification() {
+        EnhancedApnsNotification notification = new EnhancedApnsNotification(1,
+                EnhancedApnsNotification.MAXIMUM_EXPIRY, "dead", "{}");
+        service.push(notification);
+        assertEquals(DeliveryError.INVALID_TOKEN_SIZE, rejection(notification));
+        verify(connection, never()).sendMessage(any(ApnsNotification.class));
+    }
+}
@@ -0,0 +1,479 @@
+/*
+ *  Copyright 2009, Mahmood Ali.
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions are
+ *  met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ *      copyright notice, this list of conditions and the following disclaimer
+ *      in the documentation and/or other materials provided with the
+ *      distribution.
+ *    * Neither the name of Mahmood Ali. nor the names of its
+ *      contributors may be used to endorse or promote products derived from
+ *      this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ *  A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ *  OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ *  SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ *  LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ *  OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.notnoop.apns.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.Collections;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A TCP proxy that degrades the loopback connection between the client and
+ * a simulator, so that coalescing, the in-flight window and resending can
+ * be exercised under something closer to a real network.
+ *
+ * Each direction of each connection is relayed on its own pair of threads:
+ * one reads chunks as they arrive and stamps them with a release time of
+ * now plus the latency and a uniformly distributed jitter, the other writes
+ * them out in order once they are due, no faster than the bandwidth cap.
+ * Data sent to the target can also be cut off, with a reset at random
+ * chunks ({@link #setResetProbability(double)}) or a plain close after a
+ * number of bytes ({@link #setDropAfter(long)}).
+ *
+ * The TLS session is end to end, so the proxy only ever sees ciphertext.
+ * Zero disables every impairment, and the settings can be changed while the
+ * proxy runs.
+ */
+public class ImpairmentProxy {
+
+    private static final Logger logger = LoggerFactory.getLogger(ImpairmentProxy.class);
+
+    /** The prefix of the system properties read by {@link #fromSystemProperties(String, int)} */
+    public static final String PROPERTY_PREFIX = "apns.impairment.";
+
+    private static final int CHUNK_SIZE = 1460;
+
+    private final String targetHost;
+    private final int targetPort;
+    private final Set<Link> links = Collections.newSetFromMap(new ConcurrentHashMap<Link, Boolean>());
+    private final Random random = new Random();
+
+    private volatile long latencyNanos;
+    private volatile long jitterNanos;
+    private volatile long bandwidth;
+    private volatile double resetProbability;
+    private volatile long dropAfter;
+
+    private final AtomicLong connections = new AtomicLong();
+    private final AtomicLong resets = new AtomicLong();
+    private final AtomicLong drops = new AtomicLong();
+
+    private ServerSocket serverSocket;
+    private Thread acceptor;
+
+    public ImpairmentProxy(String targetHost, int targetPort) {
+        this.targetHost = targetHost;
+        this.targetPort = targetPort;
+    }
+
+    /**
+     * Returns a started proxy to the given target, configured from the
+     * {@code apns.impairment.*} system properties: {@code latency} and
+     * {@code jitter} in milliseconds, {@code bandwidth} in bytes per second,
+     * {@code resetProbability} per chunk and {@code dropAfter} in bytes.
+     *
+     * @return  the proxy, or null if none of the properties is set
+     */
+    public static ImpairmentProxy fromSystemProperties(String targetHost, int targetPort) throws IOException {
+        String latency = System.getProperty(PROPERTY_PREFIX + "latency");
+        String jitter = System.getProperty(PROPERTY_PREFIX + "jitter");
+        String bandwidth = System.getProperty(PROPERTY_PREFIX + "bandwidth");
+        String resetProbability = System.getProperty(PROPERTY_PREFIX + "resetProbability");
+        String dropAfter = System.getProperty(PROPERTY_PREFIX + "dropAfter");
+        if (latency == null && jitter == null && bandwidth == null && resetProbability == null && dropAfter == null) {
+            return null;
+        }
+        ImpairmentProxy proxy = new ImpairmentProxy(targetHost, targetPort);
+        if (latency != null) {
+            proxy.setLatency(Long.parseLong(latency), TimeUnit.MILLISECONDS);
+        }
+        if (jitter != null) {
+            proxy.setJitter(Long.parseLong(jitter), TimeUnit.MILLISECONDS);
+        }
+        if (bandwidth != null) {
+            proxy.setBandwidth(Long.parseLong(bandwidth));
+        }
+        if (resetProbability != null) {
+            proxy.setResetProbability(Double.parseDouble(resetProbability));
+        }
+        if (dropAfter != null) {
+            proxy.setDropAfter(Long.parseLong(dropAfter));
+        }
+        proxy.start();
+        logger.info("Relaying {}:{} through {}", new Object[] {targetHost, targetPort, proxy});
+        return proxy;
+    }
+
+    public void start() throws IOException {
+        serverSocket = new ServerSocket(0, 50, InetAddress.getByName(null));
+        acceptor = new Thread(new Runnable() {
+            public void run() {
+                accept();
+            }
+        }, "ImpairmentProxy-" + serverSocket.getLocalPort());
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    public void stop() {
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            logger.warn("Can not close the proxy socket", e);
+        }
+        for (Link link : links) {
+            link.close(false);
+        }
+        try {
+            acceptor.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Delays every chunk by the given latency, in each direction.
+     */
+    public void setLatency(long latency, TimeUnit unit) {
+        this.latencyNanos = unit.toNanos(latency);
+    }
+
+    /**
+     * Adds up to the given delay, chosen uniformly, to every chunk.  Chunks
+     * are never reordered.
+     */
+    public void setJitter(long jitter, TimeUnit unit) {
+        this.jitterNanos = unit.toNanos(jitter);
+    }
+
+    /**
+     * Caps each direction of each connection at the given number of bytes
+     * per second.
+     */
+    public void setBandwidth(long bytesPerSecond) {
+        this.bandwidth = bytesPerSecond;
+    }
+
+    /**
+     * Resets both sides of a connection with the given probability for each
+     * chunk sent to the target.
+     */
+    public void setResetProbability(double resetProbability) {
+        this.resetProbability = resetProbability;
+    }
+
+    /**
+     * Closes both sides of a connection once it has sent the given number of
+     * bytes to the target, discarding the rest.
+     */
+    public void setDropAfter(long bytes) {
+        this.dropAfter = bytes;
+    }
+
+    public long getConnections() {
+        return connections.get();
+    }
+
+    public long getResets() {
+        return resets.get();
+    }
+
+    public long getDrops() {
+        return drops.get();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("ImpairmentProxy[port=%d, latency=%dms, jitter=%dms, bandwidth=%d, resetProbability=%s, dropAfter=%d]",
+                serverSocket == null ? 0 : serverSocket.getLocalPort(), TimeUnit.NANOSECONDS.toMillis(latencyNanos),
+                TimeUnit.NANOSECONDS.toMillis(jitterNanos), bandwidth, resetProbability, dropAfter);
+    }
+
+    private void accept() {
+        while (!serverSocket.isClosed()) {
+            Socket client;
+            try {
+                client = serverSocket.accept();
+            } catch (IOException e) {
+                if (!serverSocket.isClosed()) {
+                    logger.warn("Accept failed", e);
+                }
+                return;
+            }
+            connections.incrementAndGet();
+            Socket target;
+            try {
+                target = new Socket(targetHost, targetPort);
+            } catch (IOException e) {
+                logger.debug("Can not reach {}:{}, closing the client", targetHost, targetPort);
+                closeQuietly(client);
+                continue;
+            }
+            try {
+                client.setTcpNoDelay(true);
+                target.setTcpNoDelay(true);
+                new Link(client, target).start();
+            } catch (IOException e) {
+                logger.warn("Can not relay the connection", e);
+                closeQuietly(client);
+                closeQuietly(target);
+            }
+        }
+    }
+
+    private long nextDelay() {
+        long jitter = jitterNanos;
+        long delay = latencyNanos;
+        if (jitter > 0) {
+            synchronized (random) {
+                delay += (long) (random.nextDouble() * jitter);
+            }
+        }
+        return delay;
+    }
+
+    private boolean nextReset() {
+        double probability = resetProbability;
+        if (probability <= 0) {
+            return false;
+        }
+        synchronized (random) {
+            return random.nextDouble() < probability;
+        }
+    }
+
+    private static void sleepUntil(long deadline) throws InterruptedException {
+        long remaining = deadline - System.nanoTime();
+        if (remaining > 0) {
+            TimeUnit.NANOSECONDS.sleep(remaining);
+        }
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // Already gone
+        }
+    }
+
+    /**
+     * A relayed connection, closed once both directions have finished.
+     */
+    private class Link {
+        private final Socket client;
+        private final Socket target;
+        private final Pipe upstream;
+        private final Pipe downstream;
+        private final AtomicInteger open = new AtomicInteger(2);
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        Link(Socket client, Socket target) throws IOException {
+            this.client = client;
+            this.target = target;
+            this.upstream = new Pipe(this, true, client.getInputStream(), target.getOutputStream(), target);
+            this.downstream = new Pipe(this, false, target.getInputStream(), client.getOutputStream(), client);
+        }
+
+        void start() {
+            links.add(this);
+            String name = "ImpairmentProxy-" + client.getPort();
+            upstream.start(name + "-up");
+            downstream.start(name + "-down");
+        }
+
+        void finished() {
+            if (open.decrementAndGet() == 0) {
+                close(false);
+            }
+        }
+
+        void close(boolean reset) {
+            if (!closed.compareAndSet(false, true)) {
+                return;
+            }
+            links.remove(this);
+            if (reset) {
+                try {
+                    // An abortive close sends RST rather than FIN
+                    client.setSoLinger(true, 0);
+                    target.setSoLinger(true, 0);
+                } catch (SocketException e) {
+                    logger.debug("Can not set linger", e);
+                }
+            }
+            closeQuietly(client);
+            closeQuietly(target);
+            upstream.interrupt();
+            downstream.interrupt();
+        }
+    }
+
+    /**
+     * One direction of a link.
+     */
+    private class Pipe {
+        private final Link link;
+        private final boolean toTarget;
+        private final InputStream in;
+        private final OutputStream out;
+        private final Socket destination;
+        private final BlockingQueue<Chunk> chunks = new LinkedBlockingQueue<Chunk>();
+        private Thread reader;
+        private Thread writer;
+
+        Pipe(Link link, boolean toTarget, InputStream in, OutputStream out, Socket destination) {
+            this.link = link;
+            this.toTarget = toTarget;
+            this.in = in;
+            this.out = out;
+            this.destination = destination;
+        }
+
+        void start(String name) {
+            reader = new Thread(new Runnable() {
+                public void run() {
+                    read();
+                }
+            }, name + "-read");
+            writer = new Thread(new Runnable() {
+                public void run() {
+                    write();
+                }
+            }, name + "-write");
+            reader.setDaemon(true);
+            writer.setDaemon(true);
+            reader.start();
+            writer.start();
+        }
+
+        void interrupt() {
+            if (writer != null) {
+                writer.interrupt();
+            }
+        }
+
+        private void read() {
+            byte[] buffer = new byte[CHUNK_SIZE];
+            long forwarded = 0;
+            long lastDue = 0;
+            try {
+                int n;
+                while ((n = in.read(buffer)) != -1) {
+                    boolean drop = false;
+                    if (toTarget) {
+                        if (nextReset()) {
+                            resets.incrementAndGet();
+                            logger.debug("Resetting the connection after {} bytes", forwarded);
+                            link.close(true);
+                            return;
+                        }
+                        long limit = dropAfter;
+                        if (limit > 0 && forwarded + n >= limit) {
+                            n = (int) (limit - forwarded);
+                            drop = true;
+                        }
+                    }
+                    forwarded += n;
+                    // Never let jitter reorder the stream
+                    long due = Math.max(lastDue, System.nanoTime() + nextDelay());
+                    lastDue = due;
+                    byte[] data = new byte[n];
+                    System.arraycopy(buffer, 0, data, 0, n);
+                    chunks.add(new Chunk(data, due));
+                    if (drop) {
+                        chunks.add(Chunk.DROP);
+                        return;
+                    }
+                }
+                chunks.add(Chunk.EOF);
+            } catch (IOException e) {
+                link.close(false);
+            }
+        }
+
+        private void write() {
+            long nextFree = 0;
+            try {
+                while (true) {
+                    Chunk chunk = chunks.take();
+                    if (chunk == Chunk.EOF) {
+                        destination.shutdownOutput();
+                        link.finished();
+                        return;
+                    }
+                    if (chunk == Chunk.DROP) {
+                        sleepUntil(nextFree);
+                        drops.incrementAndGet();
+                        logger.debug("Dropping the connection");
+                        link.close(false);
+                        return;
+                    }
+                    sleepUntil(Math.max(chunk.due, nextFree));
+                    out.write(chunk.data);
+                    out.flush();
+                    long limit = bandwidth;
+                    if (limit > 0) {
+                        nextFree = Math.max(nextFree, System.nanoTime())
+                                + chunk.data.length * TimeUnit.SECONDS.toNanos(1) / limit;
+                    }
+                }
+            } catch (IOException e) {
+                link.close(false);
+            } catch (InterruptedException e) {
+                link.close(false);
+            }
+        }
+    }
+
+    private static final class Chunk {
+        static final Chunk EOF = new Chunk(null, 0);
+        static final Chunk DROP = new Chunk(null, 0);
+
+        final byte[] data;
+        final long due;
+
+        Chunk(byte[] data, long due) {
+            this.data = data;
+            this.due = due;
+        }
+    }
+}
@@ -0,0 +1,625 @@
+/*
+ *  Copyright 2009, Mahmood Ali.
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions are
+ *  met:
+ *
+ *    * Redistributions of source code must retain the above copyright
+ *      notice, this list of conditions and the following disclaimer.
+ *    * Redistributions in binary form must reproduce the above
+ *      copyright notice, this list of conditions and the following disclaimer
+ *      in the documentation and/or other materials provided with the
+ *      distribution.
+ *    * Neither the name of Mahmood Ali. nor the names of its
+ *      contributors may be used to endorse or promote products derived from
+ *      this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ *  "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ *  LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ *  A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ *  OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ *  SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ *  LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ *  OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.notnoop.apns.utils.Simulator;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.notnoop.apns.DeliveryError;
+
+/**
+ * A gateway and feedback simulator built on non-blocking NIO, for driving
+ * the client as fast as it can go.  Unlike {@link ApnsServerSimulator}, which
+ * reads every connection with blocking streams on a thread of its own, the
+ * connections are spread over a few selector threads and the frames are
+ * parsed in place from the decrypted buffers.
+ *
+ * Notifications are only counted and handed to
+ * {@link #onNotification(int, byte[])}, whose default implementation rejects
+ * the tokens registered with {@link #reject(byte[], DeliveryError)}.  A
+ * rejection is answered with an error-response packet, after the delay
+ * given to {@link #setResponseDelay(long, TimeUnit)}, and the connection is
+ * closed.  Feedback connections receive the tokens added with
+ * {@link #addFeedback(byte[])}.
+ */
+public class NioApnsServerSimulator {
+
+    private static final Logger logger = LoggerFactory.getLogger(NioApnsServerSimulator.class);
+
+    private final SSLContext sslContext;
+    private final Worker[] workers;
+    private final Map<ByteBuffer, DeliveryError> rejections = new ConcurrentHashMap<ByteBuffer, DeliveryError>();
+    private final List<byte[]> feedback = new CopyOnWriteArrayList<byte[]>();
+    private final AtomicLong connections = new AtomicLong();
+    private volatile long responseDelayNanos;
+
+    private ServerSocketChannel gateway;
+    private ServerSocketChannel feedbackChannel;
+    private Thread gatewayAcceptor;
+    private Thread feedbackAcceptor;
+    private final AtomicInteger nextWorker = new AtomicInteger();
+    private volatile boolean running;
+
+    public NioApnsServerSimulator(SSLContext sslContext) {
+        this(sslContext, Math.max(2, Runtime.getRuntime().availableProcessors()));
+    }
+
+    public NioApnsServerSimulator(SSLContext sslContext, int workers) {
+        this.sslContext = sslContext;
+        this.workers = new Worker[workers];
+    }
+
+    public void start() {
+        try {
+            running = true;
+            for (int i = 0; i < workers.length; i++) {
+                workers[i] = new Worker(i);
+                workers[i].start();
+            }
+            gateway = ServerSocketChannel.open();
+            gateway.socket().bind(new InetSocketAddress(0), 1024);
+            feedbackChannel = ServerSocketChannel.open();
+            feedbackChannel.socket().bind(new InetSocketAddress(0), 128);
+        } catch (IOException e) {
+            stop();
+            throw new RuntimeException(e);
+        }
+        gatewayAcceptor = new Acceptor(gateway, false);
+        feedbackAcceptor = new Acceptor(feedbackChannel, true);
+        gatewayAcceptor.start();
+        feedbackAcceptor.start();
+    }
+
+    public void stop() {
+        running = false;
+        close(gateway);
+        close(feedbackChannel);
+        for (Worker worker : workers) {
+            if (worker != null) {
+                worker.selector.wakeup();
+            }
+        }
+        for (Thread thread : new Thread[] { gatewayAcceptor, feedbackAcceptor }) {
+            join(thread);
+        }
+        for (Worker worker : workers) {
+            join(worker);
+        }
+    }
+
+    public int getEffectiveGatewayPort() {
+        return gateway.socket().getLocalPort();
+    }
+
+    public int getEffectiveFeedbackPort() {
+        return feedbackChannel.socket().getLocalPort();
+    }
+
+    /**
+     * Rejects the notifications sent to the token with the given error.
+     */
+    public void reject(byte[] deviceToken, DeliveryError error) {
+        rejections.put(ByteBuffer.wrap(deviceToken.clone()), error);
+    }
+
+    /**
+     * Delays the error responses, to simulate the round trip to Apple.
+     */
+    public void setResponseDelay(long delay, TimeUnit unit) {
+        responseDelayNanos = unit.toNanos(delay);
+    }
+
+    /**
+     * Adds a token to report as inactive on the feedback connections.
+     */
+    public void addFeedback(byte[] deviceToken) {
+        feedback.add(deviceToken.clone());
+    }
+
+    /** Returns the number of notifications received */
+    public long getReceived() {
+        long received = 0;
+        for (Worker worker : workers) {
+            received += worker.received.get();
+        }
+        return received;
+    }
+
+    /** Returns the number of notifications rejected */
+    public long getRejected() {
+        long rejected = 0;
+        for (Worker worker : workers) {
+            rejected += worker.rejected.get();
+        }
+        return rejected;
+    }
+
+    /** Returns the number of connections accepted */
+    public long getConnections() {
+        return connections.get();
+    }
+
+    /**
+     * Called on a selector thread for every notification received.
+     *
+     * @return the error to reject the notification with, or null to accept it
+     */
+    protected DeliveryError onNotification(int identifier, byte[] deviceToken) {
+        return rejections.isEmpty() ? null : rejections.get(ByteBuffer.wrap(deviceToken));
+    }
+
+    private class Acceptor extends Thread {
+        private final ServerSocketChannel server;
+        private final boolean isFeedback;
+
+        Acceptor(ServerSocketChannel server, boolean isFeedback) {
+            super(isFeedback ? "NioFeedbackAcceptor" : "NioGatewayAcceptor");
+            this.server = server;
+            this.isFeedback = isFeedback;
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            while (running) {
+                try {
+                    SocketChannel channel = server.accept();
+                    channel.configureBlocking(false);
+                    channel.socket().setTcpNoDelay(true);
+                    connections.incrementAndGet();
+                    SSLEngine engine = sslContext.createSSLEngine();
+                    engine.setUseClientMode(false);
+                    Worker worker = workers[(nextWorker.getAndIncrement() & Integer.MAX_VALUE) % workers.length];
+                    worker.register(new Connection(worker, channel, engine, isFeedback));
+                } catch (ClosedChannelException e) {
+                    break;
+                } catch (IOException e) {
+                    logger.warn("Couldn't accept a connection", e);
+                }
+            }
+        }
+    }
+
+    private final class Worker extends Thread {
+        final Selector selector;
+        final Queue<Connection> registrations = new ConcurrentLinkedQueue<Connection>();
+        final List<Connection> delayed = new ArrayList<Connection>();
+        final AtomicLong received = new AtomicLong();
+        final AtomicLong rejected = new AtomicLong();
+
+        Worker(int index) throws IOException {
+            super("NioSimulatorWorker-" + index);
+            setDaemon(true);
+            selector = Selector.open();
+        }
+
+        void register(Connection connection) {
+            registrations.add(connection);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (running) {
+                    selector.select(nextTimeout());
+                    Connection registered;
+                    while ((registered = registrations.poll()) != null) {
+                        try {
+                            registered.key = registered.channel.register(selector, SelectionKey.OP_READ, registered);
+                        } catch (ClosedChannelException e) {
+                            logger.debug("Connection closed before it was registered", e);
+                        }
+                    }
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        Connection connection = (Connection) key.attachment();
+                        try {
+                            if (key.isValid() && key.isWritable()) {
+                                connection.flush();
+                            }
+                            if (key.isValid() && key.isReadable()) {
+                                connection.read();
+                            }
+                        } catch (IOException e) {
+                            logger.debug("Closing connection after error", e);
+                            connection.close();
+                        } catch (RuntimeException e) {
+                            logger.warn("Closing connection after unexpected error", e);
+                            connection.close();
+                        }
+                    }
+                    respondToDelayed();
+                }
+            } catch (IOException e) {
+                logger.warn("Selector failed", e);
+            } finally {
+                for (SelectionKey key : selector.keys()) {
+                    ((Connection) key.attachment()).close();
+                }
+                close(selector);
+            }
+        }
+
+        private long nextTimeout() {
+            if (delayed.isEmpty()) {
+                return 0;
+            }
+            long next = Long.MAX_VALUE;
+            for (Connection connection : delayed) {
+                next = Math.min(next, connection.respondAt);
+            }
+            return Math.max(1, TimeUnit.NANOSECONDS.toMillis(next - System.nanoTime()));
+        }
+
+        private void respondToDelayed() {
+            long now = System.nanoTime();
+            for (Iterator<Connection> it = delayed.iterator(); it.hasNext(); ) {
+                Connection connection = it.next();
+                if (connection.respondAt <= now) {
+                    it.remove();
+                    try {
+                        connection.respond();
+                    } catch (IOException e) {
+                        connection.close();
+                    }
+                }
+            }
+        }
+    }
+
+    private final class Connection {
+        final Worker worker;
+        final SocketChannel channel;
+        final SSLEngine engine;
+        final boolean isFeedback;
+        SelectionKey key;
+        ByteBuffer netIn;
+        ByteBuffer appIn;
+        ByteBuffer netOut;
+        boolean handshaken;
+        /** Set once the connection stops reading, after a rejection or the feedback */
+        boolean closing;
+        byte[] response;
+        long respondAt;
+
+        Connection(Worker worker, SocketChannel channel, SSLEngine engine, boolean isFeedback) {
+            this.worker = worker;
+            this.channel = channel;
+            this.engine = engine;
+            this.isFeedback = isFeedback;
+            int packet = engine.getSession().getPacketBufferSize();
+            netIn = ByteBuffer.allocate(packet);
+            appIn = ByteBuffer.allocate(Math.max(engine.getSession().getApplicationBufferSize(), 4 * packet));
+            netOut = ByteBuffer.allocate(packet);
+        }
+
+        void read() throws IOException {
+            int n = channel.read(netIn);
+            if (n < 0) {
+                engine.closeInbound();
+                close();
+                return;
+            }
+            process();
+        }
+
+        private void process() throws IOException {
+            while (channel.isOpen()) {
+                SSLEngineResult.HandshakeStatus status = engine.getHandshakeStatus();
+                if (status == SSLEngineResult.HandshakeStatus.NEED_TASK) {
+                    runTasks();
+                } else if (status == SSLEngineResult.HandshakeStatus.NEED_WRAP) {
+                    if (engine.isOutboundDone()) {
+                        break;
+                    }
+                    wrap(ByteBuffer.allocate(0));
+                    flush();
+                } else if (!unwrap()) {
+                    break;
+                }
+            }
+            if (handshaken && isFeedback && !closing) {
+                sendFeedback();
+            }
+        }
+
+        /**
+         * Decrypts what has been read, returning false when more input is
+         * needed.
+         */
+        private boolean unwrap() throws IOException {
+            netIn.flip();
+            SSLEngineResult result;
+            try {
+                result = engine.unwrap(netIn, appIn);
+            } finally {
+                netIn.compact();
+            }
+            handshaken |= result.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.FINISHED;
+            switch (result.getStatus()) {
+                case BUFFER_UNDERFLOW:
+                    if (netIn.position() == netIn.capacity()) {
+                        netIn = grow(netIn, engine.getSession().getPacketBufferSize());
+                        return true;
+                    }
+                    return false;
+                case BUFFER_OVERFLOW:
+                    appIn = grow(appIn, engine.getSession().getApplicationBufferSize());
+                    return true;
+                case CLOSED:
+                    close();
+                    return false;
+                default:
+                    if (result.bytesProduced() > 0 && !closing) {
+                        parseFrames();
+                    } else if (closing) {
+                        appIn.clear();
+                    }
+                    return result.bytesConsumed() > 0 || result.bytesProduced() > 0;
+            }
+        }
+
+        private void parseFrames() throws IOException {
+            appIn.flip();
+            while (!closing) {
+                int start = appIn.position();
+                if (!parseFrame()) {
+                    appIn.position(start);
+                    break;
+                }
+            }
+            appIn.compact();
+        }
+
+        /**
+         * Parses one notification, returning false if it is incomplete.
+         */
+        private boolean parseFrame() throws IOException {
+            ByteBuffer in = appIn;
+            if (in.remaining() < 1) {
+                return false;
+            }
+            int command = in.get();
+            int identifier = 0;
+            byte[] token;
+            if (command == 0 || command == 1) {
+                if (command == 1) {
+                    if (in.remaining() < 8) {
+                        return false;
+                    }
+                    identifier = in.getInt();
+                    in.getInt(); // expiry
+                }
+                token = readBlob(in);
+                if (token == null || in.remaining() < 2) {
+                    return false;
+                }
+                int payloadLength = in.getShort() & 0xFFFF;
+                if (in.remaining() < payloadLength) {
+                    return false;
+                }
+                in.position(in.position() + payloadLength);
+            } else if (command == 2) {
+                if (in.remaining() < 4) {
+                    return false;
+                }
+                int length = in.getInt();
+                if (in.remaining() < length) {
+                    return false;
+                }
+                int end = in.position() + length;
+                token = null;
+                while (in.position() + 3 <= end) {
+                    int item = in.get();
+                    int itemLength = in.getShort() & 0xFFFF;
+                    if (item == 1) {
+                        token = new byte[itemLength];
+                        in.get(token);
+                    } else if (item == 3 && itemLength == 4) {
+                        identifier = in.getInt();
+                    } else {
+                        in.position(in.position() + itemLength);
+                    }
+                }
+                in.position(end);
+                if (token == null) {
+                    token = new byte[0];
+                }
+            } else {
+                logger.debug("Unknown command {}, closing", command);
+                respond(DeliveryError.UNKNOWN, 0);
+                return true;
+            }
+            worker.received.incrementAndGet();
+            DeliveryError error = onNotification(identifier, token);
+            if (error != null) {
+                worker.rejected.incrementAndGet();
+                respond(error, identifier);
+            }
+            return true;
+        }
+
+        private byte[] readBlob(ByteBuffer in) {
+            if (in.remaining() < 2) {
+                return null;
+            }
+            int length = in.getShort() & 0xFFFF;
+            if (in.remaining() < length) {
+                return null;
+            }
+            byte[] blob = new byte[length];
+            in.get(blob);
+            return blob;
+        }
+
+        private void respond(DeliveryError error, int identifier) throws IOException {
+            closing = true;
+            appIn.clear();
+            response = new byte[] { 8, (byte) error.code(), (byte) (identifier >>> 24), (byte) (identifier >>> 16),
+                    (byte) (identifier >>> 8), (byte) identifier };
+            long delay = responseDelayNanos;
+            if (delay > 0) {
+                respondAt = System.nanoTime() + delay;
+                worker.delayed.add(this);
+            } else {
+                respond();
+            }
+        }
+
+        /** Writes the pending error response and closes the connection */
+        void respond() throws IOException {
+            wrap(ByteBuffer.wrap(response));
+            shutdown();
+        }
+
+        private void sendFeedback() throws IOException {
+            closing = true;
+            ByteBuffer tuples = ByteBuffer.allocate(feedback.size() * 38);
+            int now = (int) (System.currentTimeMillis() / 1000);
+            for (byte[] token : feedback) {
+                tuples.putInt(now).putShort((short) token.length).put(token);
+            }
+            tuples.flip();
+            wrap(tuples);
+            shutdown();
+        }
+
+        private void shutdown() throws IOException {
+            engine.closeOutbound();
+            wrap(ByteBuffer.allocate(0));
+            flush();
+        }
+
+        private void wrap(ByteBuffer src) throws IOException {
+            while (true) {
+                SSLEngineResult result = engine.wrap(src, netOut);
+                handshaken |= result.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.FINISHED;
+                if (result.getStatus() == SSLEngineResult.Status.BUFFER_OVERFLOW) {
+                    netOut = grow(netOut, engine.getSession().getPacketBufferSize());
+                    continue;
+                }
+                if (result.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.NEED_TASK) {
+                    runTasks();
+                }
+                if (!src.hasRemaining() || result.getStatus() == SSLEngineResult.Status.CLOSED
+                        || result.bytesConsumed() == 0 && result.bytesProduced() == 0) {
+                    return;
+                }
+            }
+        }
+
+        void flush() throws IOException {
+            netOut.flip();
+            try {
+                channel.write(netOut);
+            } finally {
+                netOut.compact();
+            }
+            if (closing && engine.isOutboundDone() && netOut.position() == 0) {
+                close();
+            } else if (key.isValid()) {
+                key.interestOps(netOut.position() > 0 ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+            }
+        }
+
+        private void runTasks() {
+            Runnable task;
+            while ((task = engine.getDelegatedTask()) != null) {
+                task.run();
+            }
+        }
+
+        void close() {
+            if (key != null) {
+                key.cancel();
+            }
+            try {
+                channel.close();
+            } catch (IOException e) {
+                logger.debug("Couldn't close connection", e);
+            }
+        }
+    }
+
+    private static ByteBuffer grow(ByteBuffer buffer, int atLeast) {
+        ByteBuffer grown = ByteBuffer.allocate(buffer.capacity() + Math.max(atLeast, buffer.capacity()));
+        buffer.flip();
+        grown.put(buffer);
+        return grown;
+    }
+
+    private static void close(java.io.Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                logger.debug("Couldn't close", e);
+            }
+        }
+    }
+
+    private static void join(Thread thread) {
+        if (thread != null) {
+            try {
+                thread.join(5000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}